@@ -6,7 +6,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -40,8 +39,71 @@ public class Action {
      */
     public static final int DROP = 3;
 
-    private int primaryAction;
-    private String secondaryAction;
+    /**
+     * MOVE_TO action which is represented by integer 4.
+     */
+    public static final int MOVE_TO = 4;
+
+    // the messages printed after successful actions, with those for
+    // moves indexed by the ordinal of the direction
+    private static final String DUG = "Top block on current tile removed";
+    private static final String DROPPED = "Dropped a block from inventory";
+    private static final String[] MOVED_BLOCK = new String[4];
+    private static final String[] MOVED_BUILDER = new String[4];
+
+    static {
+        for (Direction direction : Direction.values()) {
+            MOVED_BLOCK[direction.ordinal()] =
+                    "Moved block " + direction.getName();
+            MOVED_BUILDER[direction.ordinal()] =
+                    "Moved builder " + direction.getName();
+        }
+    }
+
+    // prints each result with System.out.println(), as the overloads
+    // without a sink do
+    private static final ActionResultSink CONSOLE = new ActionResultSink() {
+        @Override
+        public void succeeded(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void failed(Outcome outcome) {
+            System.out.println(TextResultSink.getFailureMessage(outcome));
+        }
+
+        @Override
+        public void invalidAction() {
+            System.out.println("Error: Invalid action");
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    // every direction, without copying Direction.values()
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // the positions and the stripes that an action locks, reused by each
+    // action performed on a thread
+    private static final ThreadLocal<long[]> LOCK_KEYS =
+            ThreadLocal.withInitial(() -> new long[10]);
+    private static final ThreadLocal<int[]> LOCK_STRIPES =
+            ThreadLocal.withInitial(() -> new int[10]);
+
+    private final int primaryAction;
+    private final String secondaryAction;
+
+    // the secondary action, resolved when the action is created: whether
+    // it is valid for the primary action, the direction of a MOVE_BUILDER
+    // or MOVE_BLOCK action, and the inventory index of a DROP action or
+    // the x and y coordinates of a MOVE_TO action
+    private final boolean valid;
+    private final Direction direction;
+    private final int first;
+    private final int second;
 
     /**
      * Create an Action that represents a manipulation of the blockworld.
@@ -56,12 +118,19 @@ public class Action {
      *    should be dropped (stored as a string in this class, e.g., "1"). </li>
      *    <li> DIG does not require a secondary action, so an empty string
      *    can be passed to secondaryAction. </li>
+     *    <li> MOVE_TO requires the x and y coordinates of the tile to move
+     *    the builder to, separated by a single space (e.g., "3 -2"). </li>
      * </ol>
      *
      * This constructor does not need to check primaryAction or secondaryAction,
      * it just needs to construct an action such that
      * getPrimaryAction() == primaryAction, and
-     * getSecondaryAction().equals(secondaryAction).
+     * getSecondaryAction().equals(secondaryAction). <br>
+     * The secondary action is converted to the direction, index or
+     * coordinates it represents once, here, so that performing the action
+     * (as many times as it is performed, on any map) does not handle
+     * strings. An action whose secondary action is not valid is still
+     * created, and prints "Error: Invalid action" when performed.
      *
      * @param primaryAction   the action to be created
      * @param secondaryAction the supplementary information associated with the
@@ -71,6 +140,45 @@ public class Action {
     public Action(int primaryAction, String secondaryAction) {
         this.primaryAction = primaryAction;
         this.secondaryAction = secondaryAction;
+
+        boolean resolved = secondaryAction != null;
+        Direction resolvedDirection = null;
+        int resolvedFirst = 0;
+        int resolvedSecond = 0;
+        try {
+            switch (primaryAction) {
+                case DIG:
+                    resolved = true;
+                    break;
+                case DROP:
+                    resolvedFirst = Integer.parseInt(secondaryAction);
+                    break;
+                case MOVE_BLOCK:
+                case MOVE_BUILDER:
+                    resolvedDirection = Direction.fromName(secondaryAction);
+                    resolved = resolvedDirection != null;
+                    break;
+                case MOVE_TO:
+                    String[] target = resolved ? secondaryAction.split(" ")
+                            : new String[0];
+                    resolved = target.length == 2;
+                    if (resolved) {
+                        resolvedFirst = Integer.parseInt(target[0]);
+                        resolvedSecond = Integer.parseInt(target[1]);
+                    }
+                    break;
+                default:
+                    resolved = false;
+                    break;
+            }
+        } catch (NumberFormatException numberFormat) {
+            resolved = false;
+        }
+
+        valid = resolved;
+        direction = resolvedDirection;
+        first = resolvedFirst;
+        second = resolvedSecond;
     }
 
     /**
@@ -103,7 +211,8 @@ public class Action {
      * This function should do the following:
      * <ul>
      *     <li> If any line consists of 2 or more spaces (i.e. more than 2
-     *          tokens) throws an ActionFormatException. </li>
+     *          tokens) throws an ActionFormatException, unless the primary
+     *          action is MOVE_TO, which has 3 tokens. </li>
      *     <li> If the primary action is not one of MOVE_BLOCK, MOVE_BUILDER,
      *          DROP or DIG, throw an ActionFormatException. </li>
      *     <li> If the primary action is MOVE_BLOCK, MOVE_BUILDER or DROP, and
@@ -116,6 +225,12 @@ public class Action {
      *          creates and return a new Action with the primary action constant
      *          with the same name, and the secondary action. This method does
      *          not check the secondary action. </li>
+     *     <li> If the primary action is MOVE_TO, and it is not followed by
+     *          exactly 2 more tokens, throws an ActionFormatException.
+     *          Otherwise returns a new Action with the primary action
+     *          constant MOVE_TO, and the 2 tokens (separated by a space) as
+     *          the secondary action. This method does not check the
+     *          tokens. </li>
      *     <li> If the primary action is DIG, returns a new Action with the
      *          primary action constant DIG, and an empty string ("") for the
      *          secondary action. </li>
@@ -144,39 +259,53 @@ public class Action {
                 return null;
             }
 
+            return parseAction(line);
 
-            String [] tokens = line.split(" ", 3);
-
-            if (tokens.length > 2) {
-                throw new ActionFormatException("Too many tokens on line.");
-            }
+        } catch (IOException e) {
+            throw new ActionFormatException(e.toString());
+        }
+    }
 
-            Action action = null;
+    /**
+     * Create an Action from a line of an action file, as loadAction() does
+     * for the line it reads.
+     * @param line the line, without its line terminator
+     * @return the created action
+     * @throws ActionFormatException if the line has invalid contents and
+     *                               the action cannot be created
+     */
+    static Action parseAction(String line) throws ActionFormatException {
+        String [] tokens = line.split(" ", 4);
 
-            if (tokens.length == 1) {
-                if (tokens[0].equals("DIG")) {
-                    action = new Action(DIG, "");
-                }
-            } else if (tokens.length == 2) {
-                if (tokens[0].equals("MOVE_BUILDER")) {
-                    action = new Action(MOVE_BUILDER, tokens[1]);
-                } else if (tokens[0].equals("MOVE_BLOCK")) {
-                    action = new Action(MOVE_BLOCK, tokens[1]);
-                } else if (tokens[0].equals("DROP")) {
-                    action = new Action(DROP, tokens[1]);
-                }
-            }
+        if (tokens.length > 3
+                || (tokens.length == 3 && !tokens[0].equals("MOVE_TO"))) {
+            throw new ActionFormatException("Too many tokens on line.");
+        }
 
+        Action action = null;
 
-            if (action == null) {
-                throw new ActionFormatException("Unrecognised action given");
+        if (tokens.length == 1) {
+            if (tokens[0].equals("DIG")) {
+                action = new Action(DIG, "");
+            }
+        } else if (tokens.length == 2) {
+            if (tokens[0].equals("MOVE_BUILDER")) {
+                action = new Action(MOVE_BUILDER, tokens[1]);
+            } else if (tokens[0].equals("MOVE_BLOCK")) {
+                action = new Action(MOVE_BLOCK, tokens[1]);
+            } else if (tokens[0].equals("DROP")) {
+                action = new Action(DROP, tokens[1]);
             }
+        } else if (tokens.length == 3) {
+            action = new Action(MOVE_TO, tokens[1] + " " + tokens[2]);
+        }
 
-            return action;
 
-        } catch (IOException e) {
-            throw new ActionFormatException(e.toString());
+        if (action == null) {
+            throw new ActionFormatException("Unrecognised action given");
         }
+
+        return action;
     }
 
     /**
@@ -215,6 +344,7 @@ public class Action {
      *     <li> MOVE_BLOCK </li>
      *     <li> DIG </li>
      *     <li> DROP </li>
+     *     <li> MOVE_TO </li>
      * </ul>
      *
      *
@@ -226,6 +356,7 @@ public class Action {
      *     <li> south </li>
      *     <li> west </li>
      *     <li> (a number) for DROP action </li>
+     *     <li> (two numbers separated by a space) for MOVE_TO action </li>
      * </ul>
      *
      * An example file may look like this:
@@ -271,11 +402,37 @@ public class Action {
     public static void processActions(BufferedReader reader,
                                       WorldMap startingMap)
             throws ActionFormatException {
+        processActions(reader, startingMap, CONSOLE);
+    }
 
-        Action action = Action.loadAction(reader);
-        while (action != null) {
-            processAction(action, startingMap);
-            action = Action.loadAction(reader);
+    /**
+     * Read all the actions from the given reader and perform them on the
+     * given block world, in the same way as processActions(BufferedReader,
+     * WorldMap), but giving their results to a sink rather than printing
+     * them. The sink is flushed before this method returns or throws.
+     *
+     * @param reader the reader to read actions from
+     * @param startingMap the starting map that actions will be applied to
+     * @param sink the sink to give the results to
+     * @throws ActionFormatException if loadAction throws an
+     *         ActionFormatException
+     * @require reader != null
+     * @require startingMap != null
+     * @require sink != null
+     */
+    public static void processActions(BufferedReader reader,
+                                      WorldMap startingMap,
+                                      ActionResultSink sink)
+            throws ActionFormatException {
+        try {
+            Action action = Action.loadAction(reader);
+            while (action != null) {
+                processAction(action, startingMap, startingMap.getBuilder(),
+                        sink);
+                action = Action.loadAction(reader);
+            }
+        } finally {
+            sink.flush();
         }
     }
 
@@ -310,16 +467,29 @@ public class Action {
      *           console "Moved builder {direction}". The direction is given by
      *           action.getSecondaryAction()</li>
      *
+     *      <li> For MOVE_TO action: find the shortest route from the
+     *           builder's current tile to the tile at the given x and y
+     *           coordinates (WorldMap.getPathFinder()), then for each step
+     *           of the route call Builder.moveTo() and print to console
+     *           "Moved builder {direction}", the same as a MOVE_BUILDER
+     *           action in the direction of that step. If there is no tile
+     *           at those coordinates, or no route to it, the builder does
+     *           not move and "No exit this way" is printed. </li>
+     *
      *      <li> If action.getPrimaryAction() {@literal < 0}
-     *           or action.getPrimaryAction() {@literal > 3},
+     *           or action.getPrimaryAction() {@literal > 4},
      *           or action.getSecondary() is not a direction
      *           (for MOVE_BLOCK or MOVE_BUILDER),
-     *           or a valid integer (for DROP) then print to console
-     *           "Error: Invalid action" </li>
+     *           or a valid integer (for DROP),
+     *           or two valid integers separated by a space (for MOVE_TO)
+     *           then print to console "Error: Invalid action" </li>
      * </ul>
      * "{direction}" is one of "north", "east", "south" or "west". <br>
      *
-     * For handling exceptions do the following:
+     * For handling exceptions do the following (the actions are performed
+     * with the "try" methods of Builder and Tile, such as
+     * Builder.tryMoveTo(), so that failures are reported by an
+     * {@link Outcome Outcome} rather than an exception being thrown):
      * <ul>
      *     <li> If a NoExitException is thrown, print to the console
      *          "No exit this way" </li>
@@ -340,124 +510,534 @@ public class Action {
      * @require map != null
      */
     public static void processAction(Action action, WorldMap map) {
+        processAction(action, map, map.getBuilder());
+    }
 
+    /**
+     * Perform the given action on a WorldMap for one of its builders, and
+     * print output to System.out, in the same way as
+     * processAction(Action, WorldMap) does for map.getBuilder(). <br>
+     * Actions for different builders of the same map can be performed at
+     * the same time from different threads. While it runs, an action locks
+     * the positions of the map whose tiles it reads or changes, so actions
+     * on distant tiles do not wait for each other, and actions for the same
+     * builder are performed one at a time. A MOVE_TO action locks each step
+     * of its route separately, so if another builder changes a tile on the
+     * route after it is found, the builder stops there and "No exit this
+     * way" is printed. <br>
+     * Changes made directly with Builder or Tile methods are not locked,
+     * and must not be made while actions are running; neither may tiles be
+     * added to the map, or tile listeners be added or removed. The
+     * reachability index and other listeners of the map are not
+     * thread-safe, so must not be in use either.
+     *
+     * @param action  the action to be done on the map
+     * @param map     the map to perform the action on
+     * @param builder the builder to perform the action
+     * @require action != null
+     * @require map != null
+     * @require map.getBuilders().contains(builder)
+     */
+    public static void processAction(Action action, WorldMap map,
+                                     Builder builder) {
+        processAction(action, map, builder, CONSOLE);
+    }
+
+    /**
+     * Perform the given action on a WorldMap for one of its builders, in
+     * the same way as processAction(Action, WorldMap, Builder), but giving
+     * its results to a sink rather than printing them. <br>
+     * The sink is not flushed.
+     *
+     * @param action  the action to be done on the map
+     * @param map     the map to perform the action on
+     * @param builder the builder to perform the action
+     * @param sink    the sink to give the results to
+     * @require action != null
+     * @require map != null
+     * @require map.getBuilders().contains(builder)
+     * @require sink != null
+     */
+    public static void processAction(Action action, WorldMap map,
+                                     Builder builder,
+                                     ActionResultSink sink) {
+        synchronized (builder) {
+            processLockedAction(action, map, builder, sink);
+        }
+    }
+
+    /**
+     * Perform an action for a builder that the calling thread has already
+     * synchronized on, and give its results to a sink.
+     * @param action  the action to be done on the map
+     * @param map     the map to perform the action on
+     * @param builder the builder to perform the action
+     * @param sink    the sink to give the results to
+     */
+    private static void processLockedAction(Action action, WorldMap map,
+                                            Builder builder,
+                                            ActionResultSink sink) {
+        if (!action.valid) {
+            sink.invalidAction();
+            return;
+        }
+        performAction(action.primaryAction, action.direction, action.first,
+                action.second, map, builder, sink);
+    }
+
+    /**
+     * Read all the actions from a decoder and perform them on the given
+     * block world, in the same way as processActions(BufferedReader,
+     * WorldMap) does for a reader of the same input. <br>
+     * No objects are created for each action (apart from the route of a
+     * MOVE_TO action), so this is the faster way to replay long action
+     * files. The decoder can also read a binary {@link ActionLog action
+     * log}, which gives the same output as the file it was converted from.
+     *
+     * @param decoder the decoder to read actions from
+     * @param startingMap the starting map that actions will be applied to
+     * @throws ActionFormatException if decoder.next() throws an
+     *         ActionFormatException
+     * @require decoder != null
+     * @require startingMap != null
+     */
+    public static void processActions(ActionDecoder decoder,
+                                      WorldMap startingMap)
+            throws ActionFormatException {
+        processActions(decoder, startingMap, CONSOLE);
+    }
+
+    /**
+     * Read all the actions from a decoder and perform them on the given
+     * block world, in the same way as processActions(ActionDecoder,
+     * WorldMap), but giving their results to a sink rather than printing
+     * them. The sink is flushed before this method returns or throws.
+     * <br>
+     * With a {@link TextResultSink TextResultSink} the output is the same
+     * as printing it, but is written in large blocks; with
+     * ActionResultSink.SILENT only the map is changed.
+     *
+     * @param decoder the decoder to read actions from
+     * @param startingMap the starting map that actions will be applied to
+     * @param sink the sink to give the results to
+     * @throws ActionFormatException if decoder.next() throws an
+     *         ActionFormatException
+     * @require decoder != null
+     * @require startingMap != null
+     * @require sink != null
+     */
+    public static void processActions(ActionDecoder decoder,
+                                      WorldMap startingMap,
+                                      ActionResultSink sink)
+            throws ActionFormatException {
+        Builder builder = startingMap.getBuilder();
         try {
-            int primary = action.getPrimaryAction();
-            switch (primary) {
-                case Action.DIG:
-                    handleDig(map);
-                    System.out.println("Top block on current tile removed");
-                    break;
-                case Action.DROP:
-                    int secondaryAction;
-                    try {
-                        secondaryAction =
-                                Integer.parseInt(action.getSecondaryAction());
-                    } catch (NumberFormatException numberFormat) {
-                        System.out.println("Error: Invalid action");
-                        return;
-                    }
-                    handleDrop(map, secondaryAction);
-                    System.out.println("Dropped a block from inventory");
-                    break;
-                case Action.MOVE_BLOCK:
-                    if (!isValidDirection(action.getSecondaryAction())) {
-                        System.out.println("Error: Invalid action");
-                        return;
-                    }
-                    handleMoveBlock(map, action.getSecondaryAction());
-                    System.out.println("Moved block "
-                            + action.getSecondaryAction());
-                    break;
-                case Action.MOVE_BUILDER:
-                    if (!isValidDirection(action.getSecondaryAction())) {
-                        System.out.println("Error: Invalid action");
-                        return;
-                    }
-                    handleMoveBuilder(map, action.getSecondaryAction());
-                    System.out.println("Moved builder "
-                            + action.getSecondaryAction());
-                    break;
-                default:
-                    System.out.println("Error: Invalid action");
+            while (decoder.next()) {
+                if (!decoder.hasValidOperands()) {
+                    sink.invalidAction();
+                    continue;
+                }
+
+                int primary = decoder.getPrimaryAction();
+                int first = primary == MOVE_TO ? decoder.getX()
+                        : decoder.getIndex();
+                synchronized (builder) {
+                    performAction(primary, decoder.getDirection(), first,
+                            decoder.getY(), startingMap, builder, sink);
+                }
             }
-        } catch (NoExitException noExit) {
-            System.out.println("No exit this way");
-        } catch (TooHighException tooHigh) {
-            System.out.println("Too high");
-        } catch (TooLowException tooLow) {
-            System.out.println("Too low");
-        } catch (InvalidBlockException invalidBlock) {
-            System.out.println("Cannot use that block");
+        } finally {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Perform the given action on a compact world for its builder, in the
+     * same way as processAction(Action, WorldMap) does for a WorldMap of
+     * the same tiles, and give its results to a sink. <br>
+     * A compact world is not thread-safe, so no tiles are locked; the
+     * world must not be used by other threads while the action runs. The
+     * sink is not flushed.
+     *
+     * @param action the action to be done on the world
+     * @param world  the world to perform the action on
+     * @param sink   the sink to give the results to
+     * @require action != null
+     * @require world != null
+     * @require sink != null
+     */
+    public static void processAction(Action action, CompactWorld world,
+                                     ActionResultSink sink) {
+        if (!action.valid) {
+            sink.invalidAction();
+            return;
+        }
+        performAction(action.primaryAction, action.direction, action.first,
+                action.second, world, sink);
+    }
+
+    /**
+     * Read all the actions from a decoder and perform them on a compact
+     * world, in the same way as processActions(ActionDecoder, WorldMap,
+     * ActionResultSink) does for a WorldMap of the same tiles. The sink
+     * is flushed before this method returns or throws. <br>
+     * Combined with CompactWorld.snapshot(), this replays actions on
+     * several copies of a large world, e.g. to try out different action
+     * files from the same checkpoint.
+     *
+     * @param decoder the decoder to read actions from
+     * @param world the world that actions will be applied to
+     * @param sink the sink to give the results to
+     * @throws ActionFormatException if decoder.next() throws an
+     *         ActionFormatException
+     * @require decoder != null
+     * @require world != null
+     * @require sink != null
+     */
+    public static void processActions(ActionDecoder decoder,
+                                      CompactWorld world,
+                                      ActionResultSink sink)
+            throws ActionFormatException {
+        try {
+            while (decoder.next()) {
+                if (!decoder.hasValidOperands()) {
+                    sink.invalidAction();
+                    continue;
+                }
+
+                int primary = decoder.getPrimaryAction();
+                int first = primary == MOVE_TO ? decoder.getX()
+                        : decoder.getIndex();
+                performAction(primary, decoder.getDirection(), first,
+                        decoder.getY(), world, sink);
+            }
+        } finally {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Perform an action whose secondary action has been checked and
+     * converted, for a builder that the calling thread has already
+     * synchronized on, and give its results to a sink.
+     * @param primary the primary action
+     * @param direction the direction of a MOVE_BUILDER or MOVE_BLOCK
+     *                  action
+     * @param first the inventory index of a DROP action, or the x
+     *              coordinate of a MOVE_TO action
+     * @param second the y coordinate of a MOVE_TO action
+     * @param map the map to perform the action on
+     * @param builder the builder to perform the action
+     * @param sink the sink to give the results to
+     * @require 0 &lt;= primary &lt;= 4
+     */
+    static void performAction(int primary, Direction direction,
+                              int first, int second, WorldMap map,
+                              Builder builder, ActionResultSink sink) {
+        switch (primary) {
+            case Action.DIG:
+                report(handleDig(map, builder), DUG, sink);
+                break;
+            case Action.DROP:
+                report(handleDrop(map, builder, first), DROPPED, sink);
+                break;
+            case Action.MOVE_BLOCK:
+                report(handleMoveBlock(map, builder, direction),
+                        MOVED_BLOCK[direction.ordinal()], sink);
+                break;
+            case Action.MOVE_BUILDER:
+                report(handleMoveBuilder(map, builder, direction),
+                        MOVED_BUILDER[direction.ordinal()], sink);
+                break;
+            default:
+                // each step is reported as it is taken
+                report(handleMoveTo(map, builder, first, second, sink), null,
+                        sink);
+                break;
+        }
+    }
+
+    /**
+     * Perform an action whose secondary action has been checked and
+     * converted, for the builder of a compact world, and give its results
+     * to a sink. <br>
+     * The world is not locked, so the tiles are used directly.
+     * @param primary the primary action
+     * @param direction the direction of a MOVE_BUILDER or MOVE_BLOCK
+     *                  action
+     * @param first the inventory index of a DROP action, or the x
+     *              coordinate of a MOVE_TO action
+     * @param second the y coordinate of a MOVE_TO action
+     * @param world the world to perform the action on
+     * @param sink the sink to give the results to
+     * @require 0 &lt;= primary &lt;= 4
+     */
+    static void performAction(int primary, Direction direction,
+                              int first, int second, CompactWorld world,
+                              ActionResultSink sink) {
+        Builder builder = world.getBuilder();
+        switch (primary) {
+            case Action.DIG:
+                report(builder.tryDigOnCurrentTile(), DUG, sink);
+                break;
+            case Action.DROP:
+                report(builder.tryDropFromInventory(first), DROPPED, sink);
+                break;
+            case Action.MOVE_BLOCK:
+                report(builder.getCurrentTile().tryMoveBlock(
+                        direction.getName()),
+                        MOVED_BLOCK[direction.ordinal()], sink);
+                break;
+            case Action.MOVE_BUILDER:
+                report(builder.tryMoveTo(
+                        builder.getCurrentTile().getExit(direction)),
+                        MOVED_BUILDER[direction.ordinal()], sink);
+                break;
+            default:
+                // each step is reported as it is taken
+                report(handleMoveTo(world, builder, first, second, sink),
+                        null, sink);
+                break;
+        }
+    }
+
+    /**
+     * Give the result of an action to a sink.
+     * @param outcome the outcome of the action
+     * @param success the message of the action if it succeeded, or null
+     *                to report nothing
+     * @param sink the sink to give the result to
+     */
+    private static void report(Outcome outcome, String success,
+                               ActionResultSink sink) {
+        if (outcome != Outcome.SUCCESS) {
+            sink.failed(outcome);
+        } else if (success != null) {
+            sink.succeeded(success);
         }
     }
 
     /**
      * Handle moving the builder.
      * @param map the map to use
-     * @param direction the direction as a string
-     * @throws NoExitException if the builder cannot move that direction
+     * @param builder the builder to move
+     * @param direction the direction to move in
+     * @return the outcome of Builder.tryMoveTo()
+     */
+    private static Outcome handleMoveBuilder(WorldMap map, Builder builder,
+                                             Direction direction) {
+        int[] stripes = LOCK_STRIPES.get();
+        int locked = lockTiles(map, builder.getCurrentTile(), direction,
+                false, stripes);
+        try {
+            return builder.tryMoveTo(
+                    builder.getCurrentTile().getExit(direction));
+        } finally {
+            map.getTileLocks().unlock(stripes, locked);
+        }
+    }
+
+    /**
+     * Handle moving the builder along the shortest route to a tile,
+     * reporting each step as it is taken. <br>
+     * The route is found without locking the tiles the search reads, so
+     * it races with actions of other builders: the only state the search
+     * reads that actions change is the walkable mask of each tile, which
+     * another builder may change (under its tile locks) during the
+     * search. This race is accepted. Reading an int cannot give a torn
+     * value, so the search sees either the old or the new mask of each
+     * tile, and the worst result is a route that is out of date (or no
+     * route, when one has just opened up). Exits, tile indices and
+     * positions cannot change while actions run. Each step of the route is
+     * then taken with its tiles locked, through Builder.tryMoveTo(), which
+     * checks the step against the current heights, so a builder never
+     * takes a step that is no longer possible.
+     * @param map the map to use
+     * @param builder the builder to move
+     * @param x the x coordinate of the tile to move to
+     * @param y the y coordinate of the tile to move to
+     * @param sink the sink to report the steps to
+     * @return SUCCESS if the builder reached the tile, or NO_EXIT if there
+     *         is no tile at (x, y), or no route to it, or a step of the
+     *         route is no longer possible
+     */
+    private static Outcome handleMoveTo(WorldMap map, Builder builder,
+                                        int x, int y,
+                                        ActionResultSink sink) {
+        Tile goal = map.getTile(x, y);
+        if (goal == null) {
+            return Outcome.NO_EXIT;
+        }
+
+        // the path finder is shared by every builder of the map, so copy
+        // the route out of it before taking any steps
+        Direction[] route;
+        PathFinder pathFinder = map.getPathFinder();
+        synchronized (pathFinder) {
+            if (pathFinder.findPath(builder.getCurrentTile(), goal) < 0) {
+                return Outcome.NO_EXIT;
+            }
+            route = new Direction[pathFinder.getPathLength()];
+            for (int step = 0; step < route.length; step++) {
+                route[step] = pathFinder.getStep(step);
+            }
+        }
+
+        for (Direction direction : route) {
+            Outcome moved = handleMoveBuilder(map, builder, direction);
+            if (moved != Outcome.SUCCESS) {
+                return moved;
+            }
+            sink.succeeded(MOVED_BUILDER[direction.ordinal()]);
+        }
+        return Outcome.SUCCESS;
+    }
+
+    /**
+     * Handle moving the builder of a compact world along the shortest
+     * route to a tile, reporting each step as it is taken. <br>
+     * Nothing else changes the world while the builder moves, so the
+     * steps are read from the path finder as they are taken.
+     * @param world the world to use
+     * @param builder the builder to move
+     * @param x the x coordinate of the tile to move to
+     * @param y the y coordinate of the tile to move to
+     * @param sink the sink to report the steps to
+     * @return SUCCESS if the builder reached the tile, or NO_EXIT if there
+     *         is no tile at (x, y), or no route to it
      */
-    private static void handleMoveBuilder(WorldMap map, String direction)
-            throws NoExitException {
-        Tile movingTo = map.getBuilder().getCurrentTile().getExits()
-                .get(direction);
-        map.getBuilder().moveTo(movingTo);
+    private static Outcome handleMoveTo(CompactWorld world, Builder builder,
+                                        int x, int y,
+                                        ActionResultSink sink) {
+        Tile goal = world.getTile(x, y);
+        PathFinder pathFinder = world.getPathFinder();
+        if (goal == null
+                || pathFinder.findPath(builder.getCurrentTile(), goal) < 0) {
+            return Outcome.NO_EXIT;
+        }
 
+        for (int step = 0; step < pathFinder.getPathLength(); step++) {
+            Direction direction = pathFinder.getStep(step);
+            Outcome moved = builder.tryMoveTo(
+                    builder.getCurrentTile().getExit(direction));
+            if (moved != Outcome.SUCCESS) {
+                return moved;
+            }
+            sink.succeeded(MOVED_BUILDER[direction.ordinal()]);
+        }
+        return Outcome.SUCCESS;
     }
 
     /**
      * Handle moving a block.
      * @param map the map to use
-     * @param direction the direction as a string
-     * @throws TooHighException Tile.moveBlock() throws a TooHighException
-     * @throws InvalidBlockException the block on the builder's tile is not
-     *         moveable.
-     * @throws NoExitException if there is no exit in that direction.
+     * @param builder the builder whose tile the block is moved from
+     * @param direction the direction to move the block in
+     * @return the outcome of Tile.tryMoveBlock()
      */
-    private static void handleMoveBlock(WorldMap map, String direction)
-            throws TooHighException, InvalidBlockException, NoExitException {
-        map.getBuilder().getCurrentTile().moveBlock(direction);
+    private static Outcome handleMoveBlock(WorldMap map, Builder builder,
+                                           Direction direction) {
+        Tile tile = builder.getCurrentTile();
+        int[] stripes = LOCK_STRIPES.get();
+        int locked = lockTiles(map, tile, direction, true, stripes);
+        try {
+            return tile.tryMoveBlock(direction.getName());
+        } finally {
+            map.getTileLocks().unlock(stripes, locked);
+        }
     }
 
     /**
      * Handle dropping a block.
      * @param map the map to use
+     * @param builder the builder to drop the block
      * @param index the block index in the Builder's inventory
-     * @throws TooHighException if Builder.drop() would throw a
-     *         TooHighException
-     * @throws InvalidBlockException if Builder.drop() would throw an
-     *         InvalidBlockException
+     * @return the outcome of Builder.tryDropFromInventory()
      */
-    private static void handleDrop(WorldMap map, int index)
-            throws TooHighException, InvalidBlockException {
-        map.getBuilder().dropFromInventory(index);
+    private static Outcome handleDrop(WorldMap map, Builder builder,
+                                      int index) {
+        int[] stripes = LOCK_STRIPES.get();
+        int locked = lockTiles(map, builder.getCurrentTile(), null, true,
+                stripes);
+        try {
+            return builder.tryDropFromInventory(index);
+        } finally {
+            map.getTileLocks().unlock(stripes, locked);
+        }
     }
 
     /**
      * Handle digging a block.
      * @param map the map to use
-     * @throws TooLowException if Builder.digOnCurrentTIle() would throw a
-     *         TooLowException
-     * @throws InvalidBlockException if Builder.digOnCurrentTile() would throw
-     *         an InvalidBlockException
+     * @param builder the builder to dig
+     * @return the outcome of Builder.tryDigOnCurrentTile()
      */
-    private static void handleDig(WorldMap map)
-            throws TooLowException, InvalidBlockException {
-        map.getBuilder().digOnCurrentTile();
+    private static Outcome handleDig(WorldMap map, Builder builder) {
+        int[] stripes = LOCK_STRIPES.get();
+        int locked = lockTiles(map, builder.getCurrentTile(), null, true,
+                stripes);
+        try {
+            return builder.tryDigOnCurrentTile();
+        } finally {
+            map.getTileLocks().unlock(stripes, locked);
+        }
     }
 
     /**
-     * Takes a directional string (north, south, east, or west), and returns an
-     * integer representing that direction.
-     *
-     * @param direction the directional string to be parsed/converted
-     * @return the integer representation of the direction
-     * @throws ActionFormatException if the provided directional string does not
-     *                               match one of the given options
+     * Lock the positions of the map that an action on a tile reads or
+     * changes. <br>
+     * Exits always lead to the neighbouring position in their direction,
+     * so the positions can be found without reading the exits. A change
+     * to the height of a tile also changes the walkable masks of the tiles
+     * with exits to it, which are its neighbours, so they are locked too.
+     * @param map the map containing the tile
+     * @param tile the tile the builder is on
+     * @param direction the direction of the other tile the action uses, or
+     *                  null if it only uses tile
+     * @param heightChanges true if the action changes the height of the
+     *                      tiles
+     * @param stripes filled with the stripes locked, to pass to
+     *                TileLocks.unlock()
+     * @return the number of stripes locked
      */
-    private static boolean isValidDirection(String direction) {
-        return Arrays.asList(new String[]{"north", "south", "east", "west"})
-                .contains(direction);
+    private static int lockTiles(WorldMap map, Tile tile,
+                                 Direction direction, boolean heightChanges,
+                                 int[] stripes) {
+        long[] keys = LOCK_KEYS.get();
+        int count = 0;
+
+        Position position = map.getPosition(tile);
+        if (position != null) {
+            int x = position.getX();
+            int y = position.getY();
+            count = addKeys(keys, count, x, y, heightChanges);
+            if (direction != null) {
+                count = addKeys(keys, count, x + direction.getDx(),
+                        y + direction.getDy(), heightChanges);
+            }
+        }
+        return map.getTileLocks().lock(keys, count, stripes);
+    }
+
+    /**
+     * Add the key of a position, and optionally those of its four
+     * neighbours, to an array of keys to lock.
+     * @param keys the keys to lock
+     * @param count the number of keys already in keys
+     * @param x the x coordinate of the position
+     * @param y the y coordinate of the position
+     * @param neighbours true to add the neighbours as well
+     * @return the new number of keys in keys
+     */
+    private static int addKeys(long[] keys, int count, int x, int y,
+                               boolean neighbours) {
+        keys[count++] = Position.toKey(x, y);
+        if (neighbours) {
+            for (Direction direction : DIRECTIONS) {
+                keys[count++] = Position.toKey(x + direction.getDx(),
+                        y + direction.getDy());
+            }
+        }
+        return count;
     }
 }
@@ -0,0 +1,153 @@
+package csse2002.block.world;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs many {@link BatchJob jobs} (each an input map, an action file and
+ * an output map) in one program, so that starting the JVM and compiling
+ * the simulation is paid for once rather than once per job. <br>
+ * The jobs are independent, and run concurrently on a work-stealing
+ * ForkJoinPool: idle threads take queued jobs from busy ones, so a few
+ * long jobs do not hold up the short ones behind them. The report of each
+ * job is printed in the order of the jobs (as soon as it and the jobs
+ * before it have finished), followed by the totals for the batch, so the
+ * output does not depend on which jobs finish first.
+ * @serial exclude
+ */
+public final class ActionBatch {
+
+    private final List<BatchJob> jobs;
+
+    /**
+     * Construct a batch of jobs.
+     * @param jobs the jobs, in the order they are reported
+     * @require jobs != null &amp;&amp; !jobs.contains(null)
+     */
+    public ActionBatch(List<BatchJob> jobs) {
+        this.jobs = new ArrayList<>(jobs);
+    }
+
+    /**
+     * Get the jobs of the batch.
+     * @return the jobs, in the order they are reported
+     */
+    public List<BatchJob> getJobs() {
+        return Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * Load a batch from a manifest file. <br>
+     * Each line of the manifest is a job, given by the input map, the
+     * action file and the output map, separated by whitespace, e.g.:
+     * <pre>{@literal
+     * maps/town.txt actions/town.txt out/town.txt
+     * maps/hills.txt actions/hills.bin out/hills.txt
+     * }</pre>
+     * Blank lines, and lines starting with "#", are ignored.
+     * @param filename the manifest to load
+     * @return the batch of jobs
+     * @throws IOException if the manifest cannot be read
+     * @throws BlockWorldException if a line of the manifest does not have
+     *         exactly 3 fields
+     * @require filename != null
+     */
+    public static ActionBatch loadManifest(String filename)
+            throws IOException, BlockWorldException {
+        List<BatchJob> jobs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new FileReader(filename))) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new BlockWorldException("Line " + lineNumber
+                            + " of manifest should be: inputMap actions "
+                            + "outputMap");
+                }
+                jobs.add(new BatchJob(fields[0], fields[1], fields[2]));
+            }
+        }
+        return new ActionBatch(jobs);
+    }
+
+    /**
+     * Run the jobs with one thread for each processor, and print their
+     * reports.
+     * @param out the stream to print the reports to
+     * @return the number of jobs that failed
+     * @require out != null
+     */
+    public int run(PrintStream out) {
+        return run(out, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run the jobs concurrently, and print their reports. <br>
+     * Each job is reported with a line of the form <br>
+     * "Job {number}: {job}" <br>
+     * where {number} counts from 1, and {job} is given by
+     * BatchJob.toString(). Once every job has been reported, the totals
+     * are printed in the form <br>
+     * "Batch: {jobs} jobs in {time} ms ({ok} OK, {failedJobs} failed),
+     * {results} results ({succeeded} succeeded, {failed} failed, {invalid}
+     * invalid)"
+     * @param out the stream to print the reports to
+     * @param parallelism the number of threads to run the jobs on
+     * @return the number of jobs that failed
+     * @require out != null &amp;&amp; parallelism &gt; 0
+     */
+    public int run(PrintStream out, int parallelism) {
+        long start = System.nanoTime();
+        // asynchronous mode, as the jobs are never joined by the workers
+        ForkJoinPool pool = new ForkJoinPool(parallelism,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(jobs.size());
+            for (BatchJob job : jobs) {
+                tasks.add(pool.submit(job::run));
+            }
+
+            int failed = 0;
+            long total = 0;
+            long succeeded = 0;
+            long invalid = 0;
+            for (int i = 0; i < jobs.size(); i++) {
+                tasks.get(i).join();
+                BatchJob job = jobs.get(i);
+                out.println("Job " + (i + 1) + ": " + job);
+                if (job.getStatus() != 0) {
+                    failed++;
+                }
+                SummaryResultSink results = job.getResults();
+                total += results.getTotal();
+                succeeded += results.getCount(Outcome.SUCCESS);
+                invalid += results.getInvalidCount();
+            }
+
+            out.println("Batch: " + jobs.size() + " jobs in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms ("
+                    + (jobs.size() - failed) + " OK, " + failed
+                    + " failed), " + total + " results (" + succeeded
+                    + " succeeded, " + (total - succeeded - invalid)
+                    + " failed, " + invalid + " invalid)");
+            return failed;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package csse2002.block.world;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads actions from the bytes of an action file, without creating any
+ * objects for each action. <br>
+ * The input has the same format, and gives the same actions and errors,
+ * as reading it with {@link Action#loadAction(java.io.BufferedReader)
+ * Action.loadAction()}: each call to next() decodes one line into the
+ * fields of this decoder (the primary action, and the direction, index or
+ * coordinates of the secondary action), which are overwritten by the next
+ * call. The fields are read with the getters, or passed on by
+ * {@link Action#processActions(ActionDecoder, WorldMap)
+ * Action.processActions()}. <br>
+ * Lines are split and their tokens compared as bytes, in a single pass
+ * over a buffer that is reused for the whole input. A line that is not
+ * ASCII is decoded with the default character set (as a FileReader would
+ * decode it) and parsed as a string instead, so the result is the same
+ * either way. <br>
+ * If the input starts with ActionLog.MAGIC, it is read as a binary
+ * {@link ActionLog action log} instead, giving the same actions and
+ * errors as the action file it was converted from.
+ * @serial exclude
+ */
+public final class ActionDecoder {
+
+    // the initial size of the buffer holding the input being decoded
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the primary actions, as bytes
+    private static final byte[] DIG = bytes("DIG");
+    private static final byte[] DROP = bytes("DROP");
+    private static final byte[] MOVE_BLOCK = bytes("MOVE_BLOCK");
+    private static final byte[] MOVE_BUILDER = bytes("MOVE_BUILDER");
+    private static final byte[] MOVE_TO = bytes("MOVE_TO");
+
+    // every direction, and its name as bytes, indexed by ordinal
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final byte[][] DIRECTION_NAMES =
+            new byte[DIRECTIONS.length][];
+
+    static {
+        for (Direction direction : DIRECTIONS) {
+            DIRECTION_NAMES[direction.ordinal()] = bytes(direction.getName());
+        }
+    }
+
+    // the channel or the buffer to read input from (one of them is null)
+    private final ReadableByteChannel channel;
+    private final ByteBuffer source;
+
+    // the input that has been read, and a buffer that wraps it to read
+    // from channel. The bytes from position to limit have not been decoded
+    private byte[] bytes;
+    private ByteBuffer wrapper;
+    private int position;
+    private int limit;
+
+    // the number of spaces in the line found by lineEnd(), and the indices
+    // of the first two
+    private int spaces;
+    private int firstSpace;
+    private int secondSpace;
+
+    // true if the line found by lineEnd() is not ASCII
+    private boolean nonAscii;
+
+    // true once the start of the input has been checked for
+    // ActionLog.MAGIC, and true if it was found
+    private boolean started;
+    private boolean binary;
+
+    // true if the last line ended with '\r', so a '\n' that follows it is
+    // part of the same line terminator
+    private boolean skipLineFeed;
+
+    // the last action decoded: its primary action, and whether its
+    // secondary action is valid for it
+    private int primaryAction;
+    private boolean validOperands;
+
+    // the direction of a MOVE_BUILDER or MOVE_BLOCK action
+    private Direction direction;
+
+    // the index of a DROP action or x coordinate of a MOVE_TO action, and
+    // the y coordinate of a MOVE_TO action
+    private int first;
+    private int second;
+
+    // the value found by the last successful call to parseInt()
+    private int parsed;
+
+    /**
+     * Construct a decoder that reads actions from a channel, such as the
+     * FileChannel of an action file.
+     * @param channel the channel to read from
+     * @require channel != null
+     */
+    public ActionDecoder(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.source = null;
+        allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a decoder that reads actions from the remaining bytes of a
+     * buffer, such as a memory-mapped action file. <br>
+     * The bytes are copied out of the buffer in blocks as they are needed,
+     * advancing its position.
+     * @param buffer the buffer to read from
+     * @require buffer != null
+     */
+    public ActionDecoder(ByteBuffer buffer) {
+        this.channel = null;
+        this.source = buffer;
+        allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Decode the next action. <br>
+     * If there is a next line, it is decoded into the fields read by the
+     * getters. If the line cannot be loaded as an action, the same
+     * exception is thrown as Action.loadAction() throws for it (but the
+     * decoder moves past the line, so decoding can continue).
+     * @return true if an action was decoded, or false if the end of the
+     *         input has been reached
+     * @throws ActionFormatException if the line has invalid contents and
+     *                               the action cannot be created, or the
+     *                               input cannot be read
+     */
+    public boolean next() throws ActionFormatException {
+        if (!started) {
+            started = true;
+            binary = startsWithMagic();
+        }
+        if (binary) {
+            return nextRecord();
+        }
+
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            if (position == limit) {
+                fill();
+            }
+            if (position < limit && bytes[position] == '\n') {
+                position++;
+            }
+        }
+
+        int end = lineEnd();
+        while (end == limit) {
+            // filling moves the undecoded bytes, so the line is found again
+            boolean more = fill();
+            end = lineEnd();
+            if (!more) {
+                if (position == limit) {
+                    return false;
+                }
+                // the last line has no line terminator
+                break;
+            }
+        }
+
+        int start = position;
+        if (end < limit) {
+            skipLineFeed = bytes[end] == '\r';
+            position = end + 1;
+        } else {
+            position = end;
+        }
+
+        if (nonAscii) {
+            decodeString(start, end);
+        } else {
+            decodeLine(start, end);
+        }
+        return true;
+    }
+
+    /**
+     * Get the primary action of the last action decoded.
+     * @return one of Action.MOVE_BUILDER, Action.MOVE_BLOCK, Action.DIG,
+     *         Action.DROP or Action.MOVE_TO
+     */
+    public int getPrimaryAction() {
+        return primaryAction;
+    }
+
+    /**
+     * Check whether the secondary action of the last action decoded is
+     * valid for its primary action: a direction for MOVE_BUILDER and
+     * MOVE_BLOCK, a valid integer for DROP, or two valid integers for
+     * MOVE_TO. Action.processAction() prints "Error: Invalid action" for
+     * actions where it is not.
+     * @return true if the secondary action is valid
+     */
+    public boolean hasValidOperands() {
+        return validOperands;
+    }
+
+    /**
+     * Get the direction of the last action decoded.
+     * @return the direction of a MOVE_BUILDER or MOVE_BLOCK action, or
+     *         null if its secondary action is not a direction (or the
+     *         action is another action)
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Get the inventory index of the last action decoded, if it is a DROP
+     * action.
+     * @return the inventory index
+     * @require getPrimaryAction() == Action.DROP &amp;&amp;
+     *          hasValidOperands()
+     */
+    public int getIndex() {
+        return first;
+    }
+
+    /**
+     * Get the x coordinate of the last action decoded, if it is a MOVE_TO
+     * action.
+     * @return the x coordinate
+     * @require getPrimaryAction() == Action.MOVE_TO &amp;&amp;
+     *          hasValidOperands()
+     */
+    public int getX() {
+        return first;
+    }
+
+    /**
+     * Get the y coordinate of the last action decoded, if it is a MOVE_TO
+     * action.
+     * @return the y coordinate
+     * @require getPrimaryAction() == Action.MOVE_TO &amp;&amp;
+     *          hasValidOperands()
+     */
+    public int getY() {
+        return second;
+    }
+
+    /**
+     * Check whether the input starts with ActionLog.MAGIC, and if it does,
+     * move past it. <br>
+     * The first byte of the magic (0x89) is not ASCII, so it cannot start
+     * an action, and the input is taken to be text as soon as its first
+     * byte is read if that byte is anything else. The rest of the magic is
+     * only waited for after a first byte of 0x89, so the first line of an
+     * interactive input (e.g. "DIG" on System.in, which is shorter than
+     * the magic) is decoded as soon as it is typed.
+     * @return true if the input is an action log
+     * @throws ActionFormatException if the input cannot be read
+     */
+    private boolean startsWithMagic() throws ActionFormatException {
+        byte[] magic = ActionLog.MAGIC;
+        if (position == limit && !fill()) {
+            return false;
+        }
+        if (bytes[position] != magic[0]) {
+            return false;
+        }
+        while (limit - position < magic.length) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (bytes[position + i] != magic[i]) {
+                return false;
+            }
+        }
+        position += magic.length;
+        return true;
+    }
+
+    /**
+     * Decode the next record of an action log.
+     * @return true if an action was decoded, or false if the end of the
+     *         log has been reached
+     * @throws ActionFormatException if the record is of a line that could
+     *                               not be loaded as an action, or the
+     *                               log is not valid or cannot be read
+     */
+    private boolean nextRecord() throws ActionFormatException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+
+        int opcode = bytes[position++] & 0xFF;
+        if (opcode == ActionLog.ERROR) {
+            int length = readVarint();
+            while (limit - position < length) {
+                if (!fill()) {
+                    throw new ActionFormatException("Truncated action log");
+                }
+            }
+            String message = new String(bytes, position, length,
+                    StandardCharsets.UTF_8);
+            position += length;
+            throw new ActionFormatException(message);
+        }
+
+        primaryAction = opcode >>> 4;
+        int operand = opcode & 0xF;
+        direction = null;
+        validOperands = operand != ActionLog.INVALID;
+        if (primaryAction > Action.MOVE_TO) {
+            throw new ActionFormatException("Invalid action log record");
+        } else if (!validOperands) {
+            return true;
+        }
+
+        switch (primaryAction) {
+            case Action.MOVE_BUILDER:
+            case Action.MOVE_BLOCK:
+                if (operand >= DIRECTIONS.length) {
+                    throw new ActionFormatException(
+                            "Invalid action log record");
+                }
+                direction = DIRECTIONS[operand];
+                break;
+            case Action.DROP:
+                first = readVarint();
+                break;
+            case Action.MOVE_TO:
+                first = readVarint();
+                second = readVarint();
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Read a zigzag encoded varint from an action log.
+     * @return the value read
+     * @throws ActionFormatException if the varint is not valid, or the
+     *                               log cannot be read
+     */
+    private int readVarint() throws ActionFormatException {
+        int zigzag = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            if (position == limit && !fill()) {
+                throw new ActionFormatException("Truncated action log");
+            }
+            byte b = bytes[position++];
+            zigzag |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new ActionFormatException("Invalid action log record");
+    }
+
+    /**
+     * Find the end of the line starting at position, and the spaces in
+     * it.
+     * @return the index of the line terminator, or limit if there is none
+     */
+    private int lineEnd() {
+        byte[] input = bytes;
+        int count = 0;
+        boolean other = false;
+        for (int i = position; i < limit; i++) {
+            byte b = input[i];
+            if (b == ' ') {
+                if (count == 0) {
+                    firstSpace = i;
+                } else if (count == 1) {
+                    secondSpace = i;
+                }
+                count++;
+            } else if (b == '\n' || b == '\r') {
+                spaces = count;
+                nonAscii = other;
+                return i;
+            } else if (b < 0) {
+                other = true;
+            }
+        }
+        spaces = count;
+        nonAscii = other;
+        return limit;
+    }
+
+    /**
+     * Read more input into the buffer, keeping the bytes that have not
+     * been decoded, and making the buffer larger if they fill it.
+     * @return true if more input was read, or false at the end of the
+     *         input
+     * @throws ActionFormatException if the channel cannot be read
+     */
+    private boolean fill() throws ActionFormatException {
+        int kept = limit - position;
+        if (kept == bytes.length) {
+            // a line longer than the buffer
+            byte[] old = bytes;
+            allocate(old.length * 2);
+            System.arraycopy(old, position, bytes, 0, kept);
+        } else {
+            System.arraycopy(bytes, position, bytes, 0, kept);
+        }
+        position = 0;
+        limit = kept;
+
+        int read;
+        if (channel == null) {
+            read = Math.min(source.remaining(), bytes.length - limit);
+            source.get(bytes, limit, read);
+        } else {
+            wrapper.clear();
+            wrapper.position(limit);
+            try {
+                read = 0;
+                while (read == 0) {
+                    read = channel.read(wrapper);
+                }
+            } catch (IOException e) {
+                throw new ActionFormatException(e.toString());
+            }
+        }
+
+        if (read <= 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Replace the buffer with an empty buffer.
+     * @param capacity the size of the new buffer
+     */
+    private void allocate(int capacity) {
+        bytes = new byte[capacity];
+        wrapper = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Decode an ASCII line into the fields of this decoder, using the
+     * spaces found by lineEnd().
+     * @param start the index of the first byte of the line
+     * @param end the index after the last byte of the line
+     * @throws ActionFormatException if the line cannot be loaded as an
+     *                               action
+     */
+    private void decodeLine(int start, int end) throws ActionFormatException {
+        // up to four tokens are separated by up to three spaces (as the
+        // line is split by Action.loadAction())
+        direction = null;
+        validOperands = true;
+        if (spaces > 2
+                || (spaces == 2 && !matches(start, firstSpace, MOVE_TO))) {
+            throw new ActionFormatException("Too many tokens on line.");
+        } else if (spaces == 2) {
+            primaryAction = Action.MOVE_TO;
+            validOperands = parseInt(firstSpace + 1, secondSpace);
+            first = parsed;
+            validOperands &= parseInt(secondSpace + 1, end);
+            second = parsed;
+        } else if (spaces == 0 && matches(start, end, DIG)) {
+            primaryAction = Action.DIG;
+        } else if (spaces == 1 && matches(start, firstSpace, MOVE_BUILDER)) {
+            primaryAction = Action.MOVE_BUILDER;
+            direction = matchDirection(firstSpace + 1, end);
+            validOperands = direction != null;
+        } else if (spaces == 1 && matches(start, firstSpace, MOVE_BLOCK)) {
+            primaryAction = Action.MOVE_BLOCK;
+            direction = matchDirection(firstSpace + 1, end);
+            validOperands = direction != null;
+        } else if (spaces == 1 && matches(start, firstSpace, DROP)) {
+            primaryAction = Action.DROP;
+            validOperands = parseInt(firstSpace + 1, end);
+            first = parsed;
+        } else {
+            throw new ActionFormatException("Unrecognised action given");
+        }
+    }
+
+    /**
+     * Decode a line that is not ASCII into the fields of this decoder, by
+     * decoding it as a string and parsing it as Action.loadAction() does.
+     * @param start the index of the first byte of the line
+     * @param end the index after the last byte of the line
+     * @throws ActionFormatException if the line cannot be loaded as an
+     *                               action
+     */
+    private void decodeString(int start, int end)
+            throws ActionFormatException {
+        Action action = Action.parseAction(new String(bytes, start,
+                end - start, Charset.defaultCharset()));
+
+        primaryAction = action.getPrimaryAction();
+        String secondary = action.getSecondaryAction();
+        direction = null;
+        validOperands = true;
+        try {
+            if (primaryAction == Action.DROP) {
+                first = Integer.parseInt(secondary);
+            } else if (primaryAction == Action.MOVE_TO) {
+                String[] target = secondary.split(" ");
+                if (target.length != 2) {
+                    throw new NumberFormatException();
+                }
+                first = Integer.parseInt(target[0]);
+                second = Integer.parseInt(target[1]);
+            } else if (primaryAction != Action.DIG) {
+                direction = Direction.fromName(secondary);
+                validOperands = direction != null;
+            }
+        } catch (NumberFormatException numberFormat) {
+            validOperands = false;
+        }
+    }
+
+    /**
+     * Check whether the bytes of a token are a given word.
+     * @param start the index of the first byte of the token
+     * @param end the index after the last byte of the token
+     * @param word the word to compare with
+     * @return true if the token is the word
+     */
+    private boolean matches(int start, int end, byte[] word) {
+        if (end - start != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (bytes[start + i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the direction whose name is a token.
+     * @param start the index of the first byte of the token
+     * @param end the index after the last byte of the token
+     * @return the direction, or null if the token is not the name of a
+     *         direction
+     */
+    private Direction matchDirection(int start, int end) {
+        for (Direction each : DIRECTIONS) {
+            if (matches(start, end, DIRECTION_NAMES[each.ordinal()])) {
+                return each;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a token as a decimal integer, accepting the same (ASCII)
+     * tokens as Integer.parseInt(). <br>
+     * If the token is valid, its value is stored in parsed.
+     * @param start the index of the first byte of the token
+     * @param end the index after the last byte of the token
+     * @return true if the token is a valid integer
+     */
+    private boolean parseInt(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+
+        // the magnitude of Integer.MIN_VALUE is the largest allowed
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return false;
+            }
+        }
+
+        parsed = (int) (negative ? -value : value);
+        return true;
+    }
+
+    /**
+     * Get the ASCII bytes of a word.
+     * @param word the word
+     * @return its bytes
+     */
+    private static byte[] bytes(String word) {
+        byte[] result = new byte[word.length()];
+        for (int i = 0; i < word.length(); i++) {
+            result[i] = (byte) word.charAt(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,198 @@
+package csse2002.block.world;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts action files to a compact binary action log, which an
+ * {@link ActionDecoder ActionDecoder} (and so Main and
+ * Action.processActions()) reads in place of the text file, giving the same
+ * output. <br>
+ * A log starts with the five bytes of MAGIC, followed by one record for
+ * each line of the action file:
+ * <ul>
+ *     <li> An opcode byte, whose high 4 bits are the primary action (e.g.
+ *          Action.MOVE_BUILDER), and whose low 4 bits are the ordinal of
+ *          the direction for MOVE_BUILDER and MOVE_BLOCK, 0 for the other
+ *          actions, or INVALID if the secondary action is not valid for
+ *          the primary action (so "Error: Invalid action" is printed).
+ *          </li>
+ *     <li> For a valid DROP action, the inventory index as a varint. </li>
+ *     <li> For a valid MOVE_TO action, the x and y coordinates as
+ *          varints. </li>
+ * </ul>
+ * A line that cannot be loaded as an action is recorded as the opcode
+ * ERROR, followed by the length of the message of its exception as a
+ * varint and the message in UTF-8. Reading the record throws the
+ * exception again, so (as for the text file) nothing after it is read.
+ * <br>
+ * Varints hold an int in 1 to 5 bytes: the value is zigzag encoded (so
+ * small negative values are small), then written 7 bits at a time, lowest
+ * first, with the top bit set on every byte but the last. <br>
+ * A typical action takes 1 byte instead of the 4 to 19 bytes of its line.
+ * @serial exclude
+ */
+public final class ActionLog {
+
+    /**
+     * The bytes at the start of every action log. The first byte is not
+     * ASCII, so a text action file never starts with them (and would not
+     * be valid if it did).
+     */
+    static final byte[] MAGIC = {(byte) 0x89, 'B', 'W', 'A', 1};
+
+    /**
+     * The low 4 bits of the opcode of an action whose secondary action is
+     * not valid.
+     */
+    static final int INVALID = 0xF;
+
+    /**
+     * The opcode of a line that could not be loaded as an action.
+     */
+    static final int ERROR = 0xFF;
+
+    // the output, and the number of records written to it
+    private final OutputStream out;
+    private long count;
+
+    /**
+     * Construct a log that writes to an output stream, and write the
+     * start of the log.
+     * @param out the stream to write to (which should be buffered)
+     * @throws IOException if the stream cannot be written
+     * @require out != null
+     */
+    public ActionLog(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(MAGIC);
+    }
+
+    /**
+     * Write the last action decoded by a decoder to the log.
+     * @param decoder the decoder
+     * @throws IOException if the stream cannot be written
+     * @require decoder != null &amp;&amp; decoder.next() returned true
+     */
+    public void write(ActionDecoder decoder) throws IOException {
+        int primary = decoder.getPrimaryAction();
+        count++;
+        if (!decoder.hasValidOperands()) {
+            out.write(primary << 4 | INVALID);
+            return;
+        }
+
+        switch (primary) {
+            case Action.MOVE_BUILDER:
+            case Action.MOVE_BLOCK:
+                out.write(primary << 4 | decoder.getDirection().ordinal());
+                break;
+            case Action.DROP:
+                out.write(primary << 4);
+                writeVarint(decoder.getIndex());
+                break;
+            case Action.MOVE_TO:
+                out.write(primary << 4);
+                writeVarint(decoder.getX());
+                writeVarint(decoder.getY());
+                break;
+            default:
+                out.write(primary << 4);
+                break;
+        }
+    }
+
+    /**
+     * Write a line that could not be loaded as an action to the log.
+     * @param error the exception thrown for the line
+     * @throws IOException if the stream cannot be written
+     * @require error != null
+     */
+    public void write(ActionFormatException error) throws IOException {
+        String message = error.getMessage() == null ? "" : error.getMessage();
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        count++;
+        out.write(ERROR);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Get the number of records written to the log.
+     * @return the number of records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Convert all the actions read by a decoder to records of a log. <br>
+     * Conversion stops after a line that cannot be loaded as an action,
+     * as Action.processActions() would.
+     * @param decoder the decoder to read actions from
+     * @param log the log to write to
+     * @throws IOException if the log cannot be written
+     * @require decoder != null
+     * @require log != null
+     */
+    public static void convert(ActionDecoder decoder, ActionLog log)
+            throws IOException {
+        try {
+            while (decoder.next()) {
+                log.write(decoder);
+            }
+        } catch (ActionFormatException format) {
+            log.write(format);
+        }
+    }
+
+    /**
+     * Convert an action file to an action log. <br>
+     * Takes 2 parameters: the action file (args[0]), which can be a
+     * filename or the string "System.in", and the log file to write
+     * (args[1]). The action file can itself be a log, which is copied. If
+     * there are not 2 parameters, prints a usage message and exits with
+     * status 1, and if a file cannot be read or written, prints the
+     * exception and exits with status 2.
+     * @param args the input arguments to the program
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: program actions actionLog");
+            System.exit(1);
+        }
+
+        try (OutputStream file = new BufferedOutputStream(
+                new FileOutputStream(args[1]))) {
+            ActionDecoder decoder = args[0].equals("System.in")
+                    ? new ActionDecoder(Channels.newChannel(System.in))
+                    : new ActionDecoder(
+                            new FileInputStream(args[0]).getChannel());
+            ActionLog log = new ActionLog(file);
+            convert(decoder, log);
+            System.out.println("Wrote " + log.getCount() + " records");
+        } catch (IOException io) {
+            System.err.println(io);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Write an int as a zigzag encoded varint.
+     * @param value the value to write
+     * @throws IOException if the stream cannot be written
+     */
+    private void writeVarint(int value) throws IOException {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            out.write((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write(zigzag);
+    }
+}
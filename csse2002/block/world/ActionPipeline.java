@@ -0,0 +1,344 @@
+package csse2002.block.world;
+
+/**
+ * Processes actions in three stages on separate threads, so that reading
+ * and decoding the actions, and writing their results, overlap with
+ * performing them on the map. <br>
+ * A parser thread decodes actions with an {@link ActionDecoder
+ * ActionDecoder} into a bounded ring. The calling thread takes them from
+ * the ring in order and performs them on the map, passing their results
+ * through a second ring to a reporter thread, which gives them to an
+ * {@link ActionResultSink ActionResultSink} in order. Each stage has a
+ * single thread, so actions are performed in the order they are read, and
+ * the sink receives exactly the results (in the same order) that
+ * Action.processActions() would give it. <br>
+ * The rings hold decoded actions and results in slots that are reused, so
+ * the pipeline allocates nothing per action (apart from the route of a
+ * MOVE_TO action). When the actions are read faster than they can be
+ * performed (or the reverse), the faster stage waits for the ring between
+ * them to have room. <br>
+ * With only one processor, the stages could not run at the same time, so
+ * the actions are processed on the calling thread instead.
+ * @serial exclude
+ */
+public final class ActionPipeline {
+
+    // the number of slots in the ring of decoded actions, and of results
+    private static final int ACTION_CAPACITY = 4096;
+    private static final int RESULT_CAPACITY = 8192;
+
+    // the kinds of slot in the ring of decoded actions
+    private static final int ACTION = 0;
+    private static final int INVALID = 1;
+    private static final int END = 2;
+    private static final int ERROR = 3;
+    private static final int FAILED = 4;
+
+    // the values of result slots for an invalid action, and after the last
+    // result (other results are a String message or an Outcome)
+    private static final Object INVALID_RESULT = new Object();
+    private static final Object END_RESULT = new Object();
+
+    private final ActionDecoder decoder;
+    private final WorldMap map;
+    private final ActionResultSink sink;
+
+    private final SlotRing<Decoded> actions =
+            new SlotRing<>(ACTION_CAPACITY, Decoded::new);
+    private final SlotRing<Result> results =
+            new SlotRing<>(RESULT_CAPACITY, Result::new);
+
+    // what the reporter thread threw, if anything
+    private volatile Throwable reporterFailure;
+
+    /**
+     * Construct a pipeline for one run of actions.
+     * @param decoder the decoder to read actions from
+     * @param map the map to perform the actions on
+     * @param sink the sink to give the results to
+     */
+    private ActionPipeline(ActionDecoder decoder, WorldMap map,
+                           ActionResultSink sink) {
+        this.decoder = decoder;
+        this.map = map;
+        this.sink = sink;
+    }
+
+    /**
+     * Read all the actions from a decoder and perform them on the given
+     * block world, in the same way as Action.processActions(ActionDecoder,
+     * WorldMap, ActionResultSink), but with the decoder read on one new
+     * thread and the sink called on another. <br>
+     * The sink is only called by one thread at a time, and is flushed by
+     * the calling thread before this method returns or throws (after every
+     * result has been given to it). The decoder and sink must not be used
+     * by other threads while this method runs, and nor may the map.
+     *
+     * @param decoder the decoder to read actions from
+     * @param startingMap the starting map that actions will be applied to
+     * @param sink the sink to give the results to
+     * @throws ActionFormatException if decoder.next() throws an
+     *         ActionFormatException (after the actions before it have
+     *         been performed and their results given to the sink)
+     * @require decoder != null
+     * @require startingMap != null
+     * @require sink != null
+     */
+    public static void processActions(ActionDecoder decoder,
+                                      WorldMap startingMap,
+                                      ActionResultSink sink)
+            throws ActionFormatException {
+        processActions(decoder, startingMap, sink,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Read all the actions from a decoder and perform them on the given
+     * block world, as processActions(ActionDecoder, WorldMap,
+     * ActionResultSink) does on a machine with the given number of
+     * processors: with the pipeline's threads if there are at least 2, and
+     * otherwise on the calling thread. <br>
+     * Used to test the threaded path on any machine.
+     *
+     * @param decoder the decoder to read actions from
+     * @param startingMap the starting map that actions will be applied to
+     * @param sink the sink to give the results to
+     * @param processors the number of processors to assume
+     * @throws ActionFormatException if decoder.next() throws an
+     *         ActionFormatException
+     */
+    static void processActions(ActionDecoder decoder, WorldMap startingMap,
+                               ActionResultSink sink, int processors)
+            throws ActionFormatException {
+        if (processors < 2) {
+            Action.processActions(decoder, startingMap, sink);
+        } else {
+            new ActionPipeline(decoder, startingMap, sink).run();
+        }
+    }
+
+    /**
+     * Start the parser and reporter threads, and perform the actions on
+     * the calling thread.
+     * @throws ActionFormatException if the decoder throws one
+     */
+    private void run() throws ActionFormatException {
+        Thread parser = new Thread(this::parse, "action-parser");
+        Thread reporter = new Thread(this::report, "action-reporter");
+        // the parser may be blocked reading System.in when the actions stop
+        parser.setDaemon(true);
+        reporter.setDaemon(true);
+        parser.start();
+        reporter.start();
+
+        try {
+            simulate();
+        } finally {
+            actions.abort();
+            Result last = results.claim();
+            if (last != null) {
+                last.value = END_RESULT;
+                results.publish();
+            }
+            joinUninterruptibly(reporter);
+            Throwable failure = reporterFailure;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw (Error) failure;
+            }
+            sink.flush();
+        }
+    }
+
+    /**
+     * Decode actions into the ring of decoded actions until the last
+     * action, or a line that cannot be decoded. Run by the parser thread.
+     */
+    private void parse() {
+        while (true) {
+            Decoded slot = actions.claim();
+            if (slot == null || actions.isAborted()) {
+                return;
+            }
+
+            try {
+                if (!decoder.next()) {
+                    slot.kind = END;
+                } else if (!decoder.hasValidOperands()) {
+                    slot.kind = INVALID;
+                } else {
+                    slot.kind = ACTION;
+                    slot.primary = decoder.getPrimaryAction();
+                    slot.direction = decoder.getDirection();
+                    slot.first = slot.primary == Action.MOVE_TO
+                            ? decoder.getX() : decoder.getIndex();
+                    slot.second = decoder.getY();
+                }
+            } catch (ActionFormatException format) {
+                slot.kind = ERROR;
+                slot.failure = format;
+            } catch (RuntimeException | Error unexpected) {
+                slot.kind = FAILED;
+                slot.failure = unexpected;
+            }
+
+            actions.publish();
+            if (slot.kind >= END) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Perform the decoded actions in order, until the last one. Run by the
+     * calling thread.
+     * @throws ActionFormatException if the parser could not decode a line
+     */
+    private void simulate() throws ActionFormatException {
+        Builder builder = map.getBuilder();
+        ActionResultSink out = new RingSink();
+        while (!results.isAborted()) {
+            Decoded slot = actions.take();
+            if (slot == null) {
+                return;
+            }
+            switch (slot.kind) {
+                case ACTION:
+                    synchronized (builder) {
+                        Action.performAction(slot.primary, slot.direction,
+                                slot.first, slot.second, map, builder, out);
+                    }
+                    break;
+                case INVALID:
+                    out.invalidAction();
+                    break;
+                case END:
+                    return;
+                case ERROR:
+                    throw (ActionFormatException) slot.failure;
+                default:
+                    if (slot.failure instanceof RuntimeException) {
+                        throw (RuntimeException) slot.failure;
+                    }
+                    throw (Error) slot.failure;
+            }
+            actions.release();
+        }
+    }
+
+    /**
+     * Give the results in the ring of results to the sink in order, until
+     * the last one. Run by the reporter thread.
+     */
+    private void report() {
+        try {
+            while (true) {
+                Result slot = results.take();
+                if (slot == null) {
+                    return;
+                }
+
+                Object value = slot.value;
+                if (value == END_RESULT) {
+                    return;
+                } else if (value == INVALID_RESULT) {
+                    sink.invalidAction();
+                } else if (value instanceof Outcome) {
+                    sink.failed((Outcome) value);
+                } else {
+                    sink.succeeded((String) value);
+                }
+                results.release();
+            }
+        } catch (RuntimeException | Error failure) {
+            reporterFailure = failure;
+            results.abort();
+        }
+    }
+
+    /**
+     * Wait for a thread to finish, even if the calling thread is
+     * interrupted (which is passed on once the thread has finished).
+     * @param thread the thread to wait for
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException interruption) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A decoded action, or the end of the actions, in the ring of decoded
+     * actions.
+     */
+    private static final class Decoded {
+        // one of ACTION, INVALID, END, ERROR or FAILED
+        private int kind;
+
+        // the action and its operands, for ACTION
+        private int primary;
+        private Direction direction;
+        private int first;
+        private int second;
+
+        // what the decoder threw, for ERROR and FAILED
+        private Throwable failure;
+    }
+
+    /**
+     * A result in the ring of results.
+     */
+    private static final class Result {
+        // a success message, an Outcome, INVALID_RESULT or END_RESULT
+        private Object value;
+    }
+
+    /**
+     * The sink that the calling thread gives results to, which passes
+     * them to the reporter thread. <br>
+     * If the reporter thread has failed, results are dropped.
+     */
+    private final class RingSink implements ActionResultSink {
+
+        @Override
+        public void succeeded(String message) {
+            put(message);
+        }
+
+        @Override
+        public void failed(Outcome outcome) {
+            put(outcome);
+        }
+
+        @Override
+        public void invalidAction() {
+            put(INVALID_RESULT);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * Pass a result to the reporter thread.
+         * @param value the value of the result slot
+         */
+        private void put(Object value) {
+            Result slot = results.claim();
+            if (slot != null) {
+                slot.value = value;
+                results.publish();
+            }
+        }
+    }
+}
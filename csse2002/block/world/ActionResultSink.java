@@ -0,0 +1,65 @@
+package csse2002.block.world;
+
+/**
+ * Receives the results of the actions performed by
+ * {@link Action Action}.processAction() and Action.processActions(), in
+ * place of them being printed to System.out. <br>
+ * Each method corresponds to one line of the text output described in
+ * Action.processAction(), so a {@link TextResultSink TextResultSink} gives
+ * the same output as printing each line. Other sinks can count the results
+ * ({@link SummaryResultSink SummaryResultSink}) or ignore them
+ * ({@link #SILENT SILENT}), which is much faster when replaying long
+ * action files whose output is not needed. <br>
+ * Sinks given to actions for several builders at once are called from
+ * several threads, so must be thread-safe.
+ * @serial exclude
+ */
+public interface ActionResultSink {
+
+    /**
+     * A sink that ignores every result.
+     */
+    ActionResultSink SILENT = new ActionResultSink() {
+        @Override
+        public void succeeded(String message) {
+        }
+
+        @Override
+        public void failed(Outcome outcome) {
+        }
+
+        @Override
+        public void invalidAction() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    /**
+     * Called when an action (or one step of a MOVE_TO action) succeeds.
+     * @param message the line printed for it, such as "Moved builder north"
+     *                or "Top block on current tile removed"
+     */
+    void succeeded(String message);
+
+    /**
+     * Called when an action cannot be performed on the map.
+     * @param outcome why the action failed (never SUCCESS)
+     */
+    void failed(Outcome outcome);
+
+    /**
+     * Called for an action whose primary action is not known, or whose
+     * secondary action is not valid for its primary action (for which
+     * "Error: Invalid action" is printed).
+     */
+    void invalidAction();
+
+    /**
+     * Write out any results that the sink has buffered. <br>
+     * Action.processActions() calls this before it returns or throws.
+     */
+    void flush();
+}
@@ -0,0 +1,208 @@
+package csse2002.block.world;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * One job of an {@link ActionBatch ActionBatch}: an input map, a file of
+ * actions to perform on it, and the file to save the resulting map to.
+ * <br>
+ * Running a job does what Main does for the same three parameters, except
+ * that the results of the actions are counted by a
+ * {@link SummaryResultSink SummaryResultSink} rather than printed, and a
+ * failure is recorded as the status (and exception) of the job rather
+ * than ending the program. The statuses are the exit statuses of Main,
+ * and one more for a job that crashed:
+ * <ul>
+ *     <li> 0 if the map was saved. </li>
+ *     <li> 2 if the input map could not be loaded. </li>
+ *     <li> 3 if the action file could not be opened. </li>
+ *     <li> 4 if a line of the action file could not be loaded as an
+ *          action (the actions before it were performed, but the map is
+ *          not saved). </li>
+ *     <li> 5 if the map could not be saved. </li>
+ *     <li> 7 if the job threw an unexpected exception or error (such as a
+ *          RuntimeException from an action, or an OutOfMemoryError on a
+ *          large map), where Main would have ended with a stack trace.
+ *          The job stops there, and the map is not saved. </li>
+ * </ul>
+ * @serial exclude
+ */
+public class BatchJob {
+
+    // the files of the job
+    private final String inputMap;
+    private final String actions;
+    private final String outputMap;
+
+    // the results of the actions, set by run()
+    private final SummaryResultSink results = new SummaryResultSink();
+
+    // the status of the job (or -1 if it has not been run), the exception
+    // that caused a failure, and the time run() took in nanoseconds
+    private int status = -1;
+    private Throwable failure;
+    private long elapsedNanos;
+
+    /**
+     * Construct a job that has not been run.
+     * @param inputMap the filename of the map to load
+     * @param actions the filename of the actions (an action file or an
+     *                action log)
+     * @param outputMap the filename to save the map to
+     * @require inputMap != null &amp;&amp; actions != null
+     *          &amp;&amp; outputMap != null
+     */
+    public BatchJob(String inputMap, String actions, String outputMap) {
+        this.inputMap = inputMap;
+        this.actions = actions;
+        this.outputMap = outputMap;
+    }
+
+    /**
+     * Get the filename of the map the job loads.
+     * @return the input map
+     */
+    public String getInputMap() {
+        return inputMap;
+    }
+
+    /**
+     * Get the filename of the actions the job performs.
+     * @return the action file
+     */
+    public String getActions() {
+        return actions;
+    }
+
+    /**
+     * Get the filename the job saves the map to.
+     * @return the output map
+     */
+    public String getOutputMap() {
+        return outputMap;
+    }
+
+    /**
+     * Get the status of the job, as described above.
+     * @return the status, or -1 if the job has not been run
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the exception (or, for status 7, the error) that caused the job
+     * to fail.
+     * @return the exception, or null if the job succeeded or has not been
+     *         run
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the counts of the results of the actions performed by the job.
+     * @return the results
+     */
+    public SummaryResultSink getResults() {
+        return results;
+    }
+
+    /**
+     * Get the time the job took to run.
+     * @return the time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * Load the map, perform the actions on it and save it, recording the
+     * status of the job. <br>
+     * This does not throw: an unexpected exception or error is recorded as
+     * the failure of the job, with status 7, so that one job cannot stop
+     * the rest of a batch from being reported. <br>
+     * A job should only be run once.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            status = process();
+        } catch (RuntimeException | Error crash) {
+            failure = crash;
+            status = 7;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Return a string representation of the job. <br>
+     * The format of the string is: <br>
+     * "{inputMap} {actions} {outputMap}: {outcome}, {results} results in
+     * {time} ms ({succeeded} succeeded, {failed} failed, {invalid}
+     * invalid)" <br>
+     * Where {outcome} is "OK" if the job succeeded, or "status {status}
+     * ({failure})" if it failed, where {failure} is the exception as given
+     * by its toString().
+     * @return a string representation of the job
+     */
+    @Override
+    public String toString() {
+        String outcome = status == 0 ? "OK"
+                : "status " + status + " (" + failure + ")";
+        long succeeded = results.getCount(Outcome.SUCCESS);
+        long invalid = results.getInvalidCount();
+        long total = results.getTotal();
+        return inputMap + " " + actions + " " + outputMap + ": " + outcome
+                + ", " + total + " results in " + getElapsedMillis()
+                + " ms (" + succeeded + " succeeded, "
+                + (total - succeeded - invalid) + " failed, " + invalid
+                + " invalid)";
+    }
+
+    /**
+     * Do the work of the job.
+     * @return the status of the job
+     */
+    private int process() {
+        WorldMap map;
+        try {
+            map = new WorldMap(inputMap);
+        } catch (BlockWorldException | IOException e) {
+            failure = e;
+            return 2;
+        }
+
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(actions);
+        } catch (IOException io) {
+            failure = io;
+            return 3;
+        }
+
+        try {
+            Action.processActions(new ActionDecoder(stream.getChannel()), map,
+                    results);
+        } catch (ActionFormatException format) {
+            failure = format;
+            return 4;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException io) {
+                // the actions have been read, so nothing is lost
+            }
+        }
+
+        try {
+            map.saveMap(outputMap);
+        } catch (IOException io) {
+            failure = io;
+            return 5;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,193 @@
+package csse2002.block.world;
+
+/**
+ * The types of {@link Block Block} that can be stored in a world map
+ * file. <br>
+ * Blocks have no state, so each type has a single shared Block instance
+ * (given by getBlock()) that can be used wherever a block of that type is
+ * needed, instead of constructing a new one. <br>
+ * Each type also has a small integer code (its ordinal), and its
+ * properties precomputed as flag bits, so that code which handles many
+ * blocks can look them up in a table instead of calling the Block
+ * methods or comparing type names.
+ * @serial exclude
+ */
+public enum BlockType {
+
+    /**
+     * The type of a {@link GrassBlock GrassBlock}, named "grass".
+     */
+    GRASS(new GrassBlock()),
+
+    /**
+     * The type of a {@link SoilBlock SoilBlock}, named "soil".
+     */
+    SOIL(new SoilBlock()),
+
+    /**
+     * The type of a {@link StoneBlock StoneBlock}, named "stone".
+     */
+    STONE(new StoneBlock()),
+
+    /**
+     * The type of a {@link WoodBlock WoodBlock}, named "wood".
+     */
+    WOOD(new WoodBlock());
+
+    /**
+     * Flag bit set if blocks of a type are diggable.
+     */
+    public static final int DIGGABLE = 1;
+
+    /**
+     * Flag bit set if blocks of a type are moveable.
+     */
+    public static final int MOVEABLE = 1 << 1;
+
+    /**
+     * Flag bit set if blocks of a type are carryable.
+     */
+    public static final int CARRYABLE = 1 << 2;
+
+    /**
+     * Flag bit set if blocks of a type are {@link GroundBlock GroundBlock}s.
+     */
+    public static final int GROUND = 1 << 3;
+
+    // values(), without copying it each time
+    private static final BlockType[] VALUES = values();
+
+    // the shared block of this type
+    private final Block block;
+
+    // block.getBlockType()
+    private final String name;
+
+    // the flag bits of block
+    private final int flags;
+
+    /**
+     * Construct a block type.
+     * @param block the shared block of this type
+     */
+    BlockType(Block block) {
+        this.block = block;
+        this.name = block.getBlockType();
+        this.flags = computeFlags(block);
+    }
+
+    /**
+     * Get the name of this type, as used in world map files.
+     * @return the same as getBlock().getBlockType()
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the shared block of this type.
+     * @return a block of this type
+     */
+    public Block getBlock() {
+        return block;
+    }
+
+    /**
+     * Get the code of this type, which can be used to index tables.
+     * @return ordinal(), between 0 and values().length - 1
+     */
+    public int getCode() {
+        return ordinal();
+    }
+
+    /**
+     * Get the properties of blocks of this type.
+     * @return a combination of DIGGABLE, MOVEABLE, CARRYABLE and GROUND
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the type with the given code.
+     * @param code the code of the type
+     * @return the type with getCode() == code
+     * @require 0 &lt;= code &lt; values().length
+     */
+    public static BlockType fromCode(int code) {
+        return VALUES[code];
+    }
+
+    /**
+     * Get the type with the given name.
+     * @param name the name of the type (e.g. "grass")
+     * @return the type, or null if name is not the name of a type (or is
+     *         null)
+     */
+    public static BlockType fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        switch (name) {
+            case "grass":
+                return GRASS;
+            case "soil":
+                return SOIL;
+            case "stone":
+                return STONE;
+            case "wood":
+                return WOOD;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the type of a block. <br>
+     * Only blocks of exactly the classes GrassBlock, SoilBlock, StoneBlock
+     * and WoodBlock have a type, since subclasses (or other Block
+     * implementations) may behave differently.
+     * @param block the block
+     * @return the type of block, or null if it does not have one
+     * @require block != null
+     */
+    public static BlockType of(Block block) {
+        // blocks loaded from files are the shared blocks
+        for (BlockType type : VALUES) {
+            if (block == type.block) {
+                return type;
+            }
+        }
+
+        for (BlockType type : VALUES) {
+            if (block.getClass() == type.block.getClass()) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the properties of a block, using its type if it has one.
+     * @param block the block
+     * @return a combination of DIGGABLE, MOVEABLE, CARRYABLE and GROUND
+     * @require block != null
+     */
+    public static int flagsOf(Block block) {
+        BlockType type = of(block);
+        return type == null ? computeFlags(block) : type.flags;
+    }
+
+    /**
+     * Get the properties of a block by calling its methods.
+     * @param block the block
+     * @return a combination of DIGGABLE, MOVEABLE, CARRYABLE and GROUND
+     */
+    private static int computeFlags(Block block) {
+        return (block.isDiggable() ? DIGGABLE : 0)
+                | (block.isMoveable() ? MOVEABLE : 0)
+                | (block.isCarryable() ? CARRYABLE : 0)
+                | (block instanceof GroundBlock ? GROUND : 0);
+    }
+}
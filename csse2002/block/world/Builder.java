@@ -1,9 +1,6 @@
 package csse2002.block.world;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A Player who modifies the map. <br>
@@ -13,8 +10,11 @@ import java.util.Map;
  * @serial exclude
  */
 public class Builder {
+    /* Every direction, without copying Direction.values() */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     /* Our inventory */
-    private List<Block> contents;
+    private Inventory contents;
 
     /* Where the builder currently is */
     private Tile currentTile;
@@ -22,6 +22,9 @@ public class Builder {
     /* Name of the builder*/
     String name;
 
+    /* Notified when the builder moves, or null */
+    private WorldListener listener;
+
     /**
      * Create a builder. <br>
      * Set the name of the Builder (such that getName() == name) and the
@@ -33,7 +36,7 @@ public class Builder {
     public Builder(String name, Tile startingTile) {
         this.name = name;
         currentTile = startingTile;
-        contents = new LinkedList<Block>();
+        contents = new Inventory();
     }
 
     /**
@@ -58,15 +61,32 @@ public class Builder {
             List<Block> startingInventory) throws InvalidBlockException {
         this.name = name;
         currentTile = startingTile;
-        contents = new LinkedList<Block>();
+        contents = new Inventory();
 
         // copy starting inventory into contents
         for (Block block: startingInventory) {
-            if (!block.isCarryable()) {
+            if ((BlockType.flagsOf(block) & BlockType.CARRYABLE) == 0) {
                 throw new InvalidBlockException();
             }
 
-            contents.add(block);
+            contents.addBlock(block);
+        }
+    }
+
+    /**
+     * Create a copy of a builder on another tile, with its name and a copy
+     * of its inventory (but not its listener). <br>
+     * Used to copy the builder of a world to a copy of the world, on the
+     * copy of its current tile.
+     * @param builder the builder to copy
+     * @param startingTile the tile the copy starts in
+     */
+    Builder(Builder builder, Tile startingTile) {
+        name = builder.name;
+        currentTile = startingTile;
+        contents = new Inventory();
+        for (Block block : builder.contents) {
+            contents.addBlock(block);
         }
     }
 
@@ -91,7 +111,19 @@ public class Builder {
      * @return blocks in the inventory
      */
     public List<Block> getInventory() {
-        return Collections.unmodifiableList(this.contents);
+        return contents;
+    }
+
+    /**
+     * How many blocks of a type are in the inventory? <br>
+     * The same as counting the blocks in getInventory() with that type,
+     * without going through the list.
+     * @param type the type of block to count
+     * @return the number of blocks of that type in the inventory
+     * @require type != null
+     */
+    public int getInventoryCount(BlockType type) {
+        return contents.count(type);
     }
 
     /**
@@ -123,16 +155,69 @@ public class Builder {
      */
     public void dropFromInventory(int inventoryIndex) throws
             InvalidBlockException, TooHighException {
+        switch (tryDropFromInventory(inventoryIndex)) {
+            case INVALID_BLOCK:
+                throw new InvalidBlockException();
+            case TOO_HIGH:
+                throw new TooHighException();
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Attempt to drop a block from inventory on the top of the current
+     * tile, as dropFromInventory() does, but return the outcome instead of
+     * throwing an exception.
+     * @param inventoryIndex the index in the inventory to place
+     * @return SUCCESS if the block was dropped, INVALID_BLOCK if the
+     *         inventoryIndex is out of the inventory range, or TOO_HIGH if
+     *         the current tile has too many blocks for the block
+     */
+    public Outcome tryDropFromInventory(int inventoryIndex) {
         if (inventoryIndex < 0 || inventoryIndex >= contents.size()) {
-            throw new InvalidBlockException();
+            return Outcome.INVALID_BLOCK;
         }
 
-        Block block = contents.get(inventoryIndex);
+        Outcome placed = currentTile.tryPlaceBlock(
+                contents.get(inventoryIndex));
+        if (placed == Outcome.SUCCESS) {
+            contents.removeBlockAt(inventoryIndex);
+        }
+        return placed;
+    }
 
-        // should handle the TooHighException
-        currentTile.placeBlock(block);
+    /**
+     * Drop a block of a type from inventory on the top of the current tile.
+     * <br>
+     * The last block of that type in the inventory (given by
+     * getInventory()) is dropped, as if by
+     * dropFromInventory(index) for its index. <br>
+     * Handle the following cases:
+     * <ol>
+     * <li> If there are no blocks of that type in the inventory, throw an
+     * InvalidBlockException. </li>
+     * <li> If there are 8 blocks on the current tile, or the block is a
+     * GroundBlock and there are 3 or more blocks on the current tile,
+     * throw a TooHighException. </li>
+     * </ol>
+     * @param type the type of block to drop
+     * @throws InvalidBlockException if there are no blocks of that type in
+     *                               the inventory
+     * @throws TooHighException if there are 8 blocks on the current tile
+     *                          already, or if the block is an instance of
+     *                          GroundBlock and there are already 3 or more
+     *                          blocks on the current tile.
+     * @require type != null
+     */
+    public void dropByType(BlockType type) throws InvalidBlockException,
+            TooHighException {
+        int inventoryIndex = contents.lastIndexOfType(type);
+        if (inventoryIndex == -1) {
+            throw new InvalidBlockException();
+        }
 
-        contents.remove(inventoryIndex);
+        dropFromInventory(inventoryIndex);
     }
 
     /**
@@ -156,15 +241,36 @@ public class Builder {
      */
     public void digOnCurrentTile() throws TooLowException,
             InvalidBlockException {
+        switch (tryDigOnCurrentTile()) {
+            case TOO_LOW:
+                throw new TooLowException();
+            case INVALID_BLOCK:
+                throw new InvalidBlockException();
+            default:
+                break;
+        }
+    }
 
-        // throws TooLowException if no blocks, and InvalidBlockException if
-        // not diggable.
-        Block block = currentTile.dig();
+    /**
+     * Attempt to dig in the current tile and add the block to the
+     * inventory, as digOnCurrentTile() does, but return the outcome
+     * instead of throwing an exception.
+     * @return SUCCESS if the top block was removed, TOO_LOW if there are
+     *         no blocks on the current tile, or INVALID_BLOCK if the top
+     *         block is not diggable
+     */
+    public Outcome tryDigOnCurrentTile() {
+        int height = currentTile.getHeight();
+        Block block = height == 0 ? null : currentTile.blockAt(height - 1);
+
+        Outcome dug = currentTile.tryDig();
 
         // only add the block to the inventory if it is carryable.
-        if (block.isCarryable()) {
-            contents.add(block);
+        if (dug == Outcome.SUCCESS
+                && (BlockType.flagsOf(block) & BlockType.CARRYABLE) != 0) {
+            contents.addBlock(block);
         }
+        return dug;
     }
 
     /**
@@ -187,19 +293,23 @@ public class Builder {
             return false;
         }
 
+        // exits in a direction are covered by the walkable mask
+        for (Direction direction : DIRECTIONS) {
+            if (currentTile.getExit(direction) == newTile) {
+                return (currentTile.getWalkableMask()
+                        & direction.getBit()) != 0;
+            }
+        }
+
         boolean tilesAreConnected = false;
         boolean heightsAreCompatible = false;
 
-        for (Map.Entry<String,
-                       Tile> entry : currentTile.getExits().entrySet()) {
-            if (entry.getValue() == newTile) {
-                tilesAreConnected = true;
-                break;
-            }
+        if (currentTile.hasExitTo(newTile)) {
+            tilesAreConnected = true;
         }
 
-        if (Math.abs(newTile.getBlocks().size()
-                     - currentTile.getBlocks().size()) <= 1) {
+        if (Math.abs(newTile.getHeight()
+                     - currentTile.getHeight()) <= 1) {
             heightsAreCompatible = true;
         }
 
@@ -218,11 +328,38 @@ public class Builder {
      * @throws NoExitException if canEnter(newTile) == false
      */
     public void moveTo(Tile newTile) throws NoExitException {
-        if (!canEnter(newTile)) {
+        if (tryMoveTo(newTile) != Outcome.SUCCESS) {
             throw new NoExitException();
         }
+    }
+
+    /**
+     * Attempt to move the builder to a new tile, as moveTo() does, but
+     * return the outcome instead of throwing an exception.
+     * @param newTile the tile to move to
+     * @return SUCCESS if the builder moved, or NO_EXIT if
+     *         canEnter(newTile) == false
+     */
+    public Outcome tryMoveTo(Tile newTile) {
+        if (!canEnter(newTile)) {
+            return Outcome.NO_EXIT;
+        }
 
+        Tile from = currentTile;
         currentTile = newTile;
+        if (listener != null) {
+            listener.builderMoved(this, from, newTile);
+        }
+        return Outcome.SUCCESS;
+    }
+
+    /**
+     * Set the listener notified when this builder moves (see
+     * WorldMap.addWorldListener()).
+     * @param listener the listener, or null to stop notifying
+     */
+    void setListener(WorldListener listener) {
+        this.listener = listener;
     }
 
 }
@@ -0,0 +1,109 @@
+package csse2002.block.world;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the changes to a {@link WorldMap WorldMap} into sets of what
+ * has changed since the tracker was last cleared, so that a batch of
+ * changes can be handled together. <br>
+ * Several changes to the same tile are recorded once, so work done per
+ * batch (such as redrawing or saving the changed tiles) is proportional
+ * to the number of tiles that changed, not to the number of changes.
+ * Positions are recorded for tiles whose height or exits changed, along
+ * with the chunks containing them (in chunk coordinates, as used by
+ * {@link WorldMap#getChunk(int, int) WorldMap.getChunk()}), and the
+ * builders that moved. <br>
+ * A tracker is added to a map with WorldMap.addWorldListener(). Its
+ * methods are synchronized, so it can record changes made by builders
+ * acting on the map from several threads.
+ * @serial exclude
+ */
+public class ChangeTracker implements WorldListener {
+
+    // the positions of the tiles that changed, in the order of their first
+    // change
+    private final Set<Position> dirtyPositions = new LinkedHashSet<>();
+
+    // the chunk coordinates of the chunks containing dirtyPositions
+    private final Set<Position> dirtyChunks = new LinkedHashSet<>();
+
+    // the builders that moved
+    private final Set<Builder> movedBuilders = new LinkedHashSet<>();
+
+    @Override
+    public synchronized void tileHeightChanged(Position position,
+                                               Tile tile) {
+        markDirty(position);
+    }
+
+    @Override
+    public synchronized void exitChanged(Position position, Tile tile,
+                                         Direction direction) {
+        markDirty(position);
+    }
+
+    @Override
+    public synchronized void builderMoved(Builder builder, Tile from,
+                                          Tile to) {
+        movedBuilders.add(builder);
+    }
+
+    /**
+     * Check whether anything has changed since the tracker was cleared.
+     * @return true if no changes have been recorded
+     */
+    public synchronized boolean isEmpty() {
+        return dirtyPositions.isEmpty() && movedBuilders.isEmpty();
+    }
+
+    /**
+     * Get the positions of the tiles whose height or exits have changed
+     * since the tracker was cleared, in the order they first changed.
+     * @return a copy of the changed positions
+     */
+    public synchronized List<Position> getDirtyPositions() {
+        return new ArrayList<>(dirtyPositions);
+    }
+
+    /**
+     * Get the chunks containing the tiles whose height or exits have
+     * changed since the tracker was cleared. <br>
+     * Each chunk is given by its chunk coordinates (so position.getX() and
+     * position.getY() are the arguments to WorldMap.getChunk()).
+     * @return a copy of the chunk coordinates of the changed chunks
+     */
+    public synchronized List<Position> getDirtyChunks() {
+        return new ArrayList<>(dirtyChunks);
+    }
+
+    /**
+     * Get the builders that have moved since the tracker was cleared.
+     * @return a copy of the builders that moved
+     */
+    public synchronized List<Builder> getMovedBuilders() {
+        return new ArrayList<>(movedBuilders);
+    }
+
+    /**
+     * Forget all changes recorded so far, to start a new batch.
+     */
+    public synchronized void clear() {
+        dirtyPositions.clear();
+        dirtyChunks.clear();
+        movedBuilders.clear();
+    }
+
+    /**
+     * Record that the tile at a position has changed.
+     * @param position the position of the tile
+     */
+    private void markDirty(Position position) {
+        if (dirtyPositions.add(position)) {
+            dirtyChunks.add(new Position(TileChunk.toChunk(position.getX()),
+                    TileChunk.toChunk(position.getY())));
+        }
+    }
+}
@@ -0,0 +1,1028 @@
+package csse2002.block.world;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+/**
+ * A compact, read-mostly copy of the tiles of a {@link WorldMap WorldMap},
+ * for maps with millions of tiles. <br>
+ * Instead of one Tile object (with its own exit map, block list and block
+ * objects) per tile, the state of every tile is kept in primitive arrays
+ * indexed by tile id:
+ * <ul>
+ *     <li> the packed (x, y) position of the tile </li>
+ *     <li> the number of blocks on the tile </li>
+ *     <li> the types of those blocks, as 4-bit codes packed into an int
+ *          (the lowest 4 bits are the bottom block) </li>
+ *     <li> a 4-bit mask of the compass exits of the tile, where the bit
+ *          direction.getBit() is set if the exit in that direction leads
+ *          to the adjacent tile </li>
+ * </ul>
+ * which is about 20 bytes per tile, compared with several hundred bytes
+ * for a Tile in a WorldMap. <br>
+ * Tile ids are the indices of the tiles in WorldMap.getTiles() when the
+ * compact world was created (and so also the ids used by
+ * WorldMap.saveMap()). <br>
+ * The Tile objects returned by getTile() are lightweight views of the
+ * arrays, created on first use. They behave like any other Tile (they can
+ * be dug, built on, linked and used by a Builder), with one difference:
+ * blocks are stored by type, so a block taken from a view is a shared
+ * block of the same class, not necessarily the instance that was placed.
+ * <br>
+ * Views are only kept while they are in use. The world refers to the
+ * views of each page of 256 tiles (see below) weakly, and each view refers
+ * to the views of its page, so once nothing else refers to any view of a
+ * page, the views of that page are discarded, and later calls to getTile()
+ * create new ones. Visiting every tile (with getTiles() or
+ * forEachTileIn()) therefore does not leave a view on every tile, and the
+ * world stays at about 20 bytes per tile however it is read. <br>
+ * Exits that cannot be stored in the exit mask (exits with names other
+ * than "north", "east", "south" and "west", or exits that do not lead to
+ * the adjacent tile of this world) are kept separately, so views keep the
+ * full behaviour of Tile. <br>
+ * A compact world can be copied in constant time with snapshot(), to
+ * checkpoint it or to try out several changes to it. The copies share
+ * their state until one of them changes it: the per-tile state is split
+ * into pages of 256 tiles, and changing a tile copies only its page (see
+ * snapshot()). A compact world is not thread-safe, but different
+ * snapshots can be used from different threads. <br>
+ * Like a WorldMap, a compact world has a builder and a starting position,
+ * and can be loaded from and saved to the files of WorldMap. A large
+ * world can therefore be loaded, changed with Action.processAction() or
+ * Action.processActions(), checkpointed with snapshot() and saved,
+ * without keeping a WorldMap of it.
+ * @serial exclude
+ */
+public final class CompactWorld {
+
+    // every direction, in the order of the bits in an exit mask
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // the number of bits used by each block code, and the mask for one code
+    private static final int CODE_BITS = 4;
+    private static final int CODE_MASK = (1 << CODE_BITS) - 1;
+
+    // the number of distinct block classes that can be stored, since
+    // code 0 is not used
+    private static final int MAX_BLOCK_TYPES = CODE_MASK;
+
+    // the number of tiles in each page of per-tile state, and the shift
+    // and mask that find the page of a tile id and its index in the page
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // flips the sign bit of the y coordinate of a Position.toKey() key, so
+    // that comparing keys as longs orders them as Position.compareTo()
+    // does (by x, then y)
+    private static final long Y_SIGN = 0x80000000L;
+
+    // the number of tiles
+    private final int tileCount;
+
+    // the packed position of each tile, indexed by tile id (never changed,
+    // so shared with snapshots)
+    private final long[] positions;
+
+    // the rest of the per-tile state, in pages of PAGE_SIZE tiles, so that
+    // the state of tile id is at index (id & PAGE_MASK) of
+    // pages[id >>> PAGE_SHIFT]
+    private Page[] pages;
+
+    // true if pages is shared with a snapshot, so must be copied before it
+    // is changed
+    private boolean pagesShared;
+
+    // identifies the pages that this world can change without copying
+    // them. Replaced whenever a snapshot is taken, so that the pages then
+    // shared are copied before either world changes them
+    private Object owner = new Object();
+
+    // lookup tile ids by chunk, keyed by Position.toKey(cx, cy). Each
+    // array holds tile id + 1 in row-major order, or 0 where there is no
+    // tile (never changed, so shared with snapshots)
+    private final LongHashMap<int[]> chunkIds;
+
+    // the chunks that contain tiles, as Position.toKey(cx, cy) ^ Y_SIGN,
+    // sorted (in the first chunkCount elements), and the ids of the tiles
+    // of each, as in chunkIds. Built by the constructor and then never
+    // changed, so shared with snapshots
+    private long[] sortedChunks;
+    private int[][] sortedChunkIds;
+    private int chunkCount;
+
+    // the block stored for each code, i.e. palette[code - 1]. The first
+    // codes are the shared blocks of each BlockType, so the code of a
+    // BlockType is type.getCode() + 1
+    private final Block[] palette;
+    private int paletteSize;
+
+    // exits that do not fit in the exit masks, by tile id (created on
+    // demand)
+    private Map<Integer, Map<String, Tile>> irregularExits;
+
+    // true if irregularExits is shared with a snapshot, so must be copied
+    // before it is changed
+    private boolean irregularExitsShared;
+
+    // weak references to the views of the tiles of each page, by index in
+    // the page, created on demand
+    private WeakReference<TileView[]>[] views;
+
+    // read-only list of every tile (created on demand)
+    private List<Tile> tilesView;
+
+    // the starting position (never changed, so shared with snapshots)
+    private final Position startPosition;
+
+    // the builder of this world, on a view of this world (each snapshot
+    // has its own copy)
+    private Builder builder;
+
+    // finds routes in this world for MOVE_TO actions (created on demand)
+    private PathFinder pathFinder;
+
+    /**
+     * Construct a compact world from a map file, in the format read by
+     * WorldMap(String). <br>
+     * The file is loaded as a WorldMap and then copied, so loading needs
+     * the memory of both for a moment; the WorldMap is discarded
+     * afterwards.
+     *
+     * @param filename the name of the file to load
+     * @throws WorldMapFormatException if the file is incorrectly formatted
+     * @throws WorldMapInconsistentException if the file is correctly
+     *         formatted, but has inconsistencies
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IllegalArgumentException if the tiles contain blocks of more
+     *         than 15 different classes
+     * @require filename != null
+     */
+    public CompactWorld(String filename)
+            throws WorldMapFormatException, WorldMapInconsistentException,
+            FileNotFoundException {
+        this(new WorldMap(filename));
+    }
+
+    /**
+     * Construct a compact copy of the tiles in a world map. <br>
+     * The world map is not changed, and the two do not share any state,
+     * so the world map (and its tiles) can be discarded afterwards to
+     * release their memory. The builder of this world is a copy of the
+     * builder of the world map (with the same name and inventory), on the
+     * same tile.
+     *
+     * @param worldMap the world map to copy
+     * @throws IllegalArgumentException if the tiles of worldMap contain
+     *         blocks of more than 15 different classes
+     * @require worldMap != null
+     */
+    public CompactWorld(WorldMap worldMap) {
+        List<Tile> tiles = worldMap.getTiles();
+
+        tileCount = tiles.size();
+        positions = new long[tileCount];
+        pages = new Page[(tileCount + PAGE_MASK) >>> PAGE_SHIFT];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new Page(owner);
+        }
+        chunkIds = new LongHashMap<>(tileCount / TileChunk.SIZE + 1);
+
+        palette = new Block[MAX_BLOCK_TYPES];
+        for (BlockType type : BlockType.values()) {
+            palette[paletteSize++] = type.getBlock();
+        }
+
+        // positions first, so exits can be checked against them
+        worldMap.forEachTileIn(Integer.MIN_VALUE, Integer.MIN_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE,
+                (x, y, tile) -> placeId(worldMap.getTileIndex(tile), x, y));
+        sortChunks();
+
+        for (int id = 0; id < tileCount; id++) {
+            Tile tile = tiles.get(id);
+
+            int height = tile.height();
+            int codes = 0;
+            for (int level = 0; level < height; level++) {
+                int code = codeFor(tile.blockAt(level));
+                if (code == 0) {
+                    throw new IllegalArgumentException(
+                            "Too many block types to store");
+                }
+                codes |= code << (level * CODE_BITS);
+            }
+            Page page = pages[id >>> PAGE_SHIFT];
+            page.heights[id & PAGE_MASK] = (byte) height;
+            page.blockCodes[id & PAGE_MASK] = codes;
+
+            for (Direction direction : DIRECTIONS) {
+                Tile target = tile.getExit(direction);
+                int targetId = worldMap.getTileIndex(target);
+                if (target == null) {
+                    continue;
+                } else if (targetId != -1
+                        && targetId == neighbourId(id, direction)) {
+                    // the usual case, which does not need a view
+                    page.exitMasks[id & PAGE_MASK] |= direction.getBit();
+                } else {
+                    putExit(id, direction.getName(), targetId == -1
+                            ? target : getTile(targetId));
+                }
+            }
+
+            Map<String, Tile> others = tile.otherExits();
+            if (others != null) {
+                for (Map.Entry<String, Tile> exit : others.entrySet()) {
+                    int targetId = worldMap.getTileIndex(exit.getValue());
+                    putExit(id, exit.getKey(), targetId == -1
+                            ? exit.getValue() : getTile(targetId));
+                }
+            }
+        }
+
+        startPosition = worldMap.getStartPosition();
+        Builder original = worldMap.getBuilder();
+        int builderId = worldMap.getTileIndex(original.getCurrentTile());
+        builder = new Builder(original, builderId == -1
+                ? original.getCurrentTile() : getTile(builderId));
+    }
+
+    /**
+     * Construct a snapshot of a world, which shares all of its state.
+     * @param world the world to copy
+     */
+    private CompactWorld(CompactWorld world) {
+        tileCount = world.tileCount;
+        positions = world.positions;
+        pages = world.pages;
+        pagesShared = true;
+        chunkIds = world.chunkIds;
+        sortedChunks = world.sortedChunks;
+        sortedChunkIds = world.sortedChunkIds;
+        chunkCount = world.chunkCount;
+        palette = world.palette.clone();
+        paletteSize = world.paletteSize;
+        irregularExits = world.irregularExits;
+        irregularExitsShared = true;
+        startPosition = world.startPosition;
+        builder = new Builder(world.builder,
+                localize(world.builder.getCurrentTile()));
+    }
+
+    /**
+     * Take a snapshot of this world, in constant time. <br>
+     * The snapshot has the same tiles, with the same ids, positions,
+     * blocks and exits as this world. Afterwards either world can be
+     * changed (through the views of its tiles) without changing the other.
+     * <br>
+     * The two worlds share their state until it is changed. The first
+     * change to a tile of either world after the snapshot copies the page
+     * of 256 tiles containing it (and, for the first change of all, the
+     * table of pages, which has one entry per page), so the cost of a
+     * snapshot is proportional to how much is changed after it rather than
+     * to the size of the world. Exits that are not stored in the exit
+     * masks are copied together, the first time one of them is changed.
+     * <br>
+     * The snapshot has its own copy of the builder (with a copy of its
+     * inventory), on the same tile of the snapshot. <br>
+     * The snapshot has its own views of its tiles, so
+     * snapshot.getTile(id) is a different object from getTile(id). An exit
+     * of one world that leads to a view of the other is followed to the
+     * view of the same tile in its own world. Views are not copied: the
+     * snapshot creates a view only when one of its tiles is used as a
+     * Tile, and (as in any compact world) keeps it only while it is in
+     * use. Actions on the snapshot find routes, and saveMap() reads exits,
+     * from the arrays by tile id, so replaying actions on a snapshot only
+     * creates views of the tiles the builder uses, not of every tile.
+     *
+     * @return a copy of this world
+     */
+    public CompactWorld snapshot() {
+        CompactWorld snapshot = new CompactWorld(this);
+
+        // the pages are now shared, so this world must copy them too
+        // before changing them
+        owner = new Object();
+        pagesShared = true;
+        irregularExitsShared = true;
+        return snapshot;
+    }
+
+    /**
+     * Get the builder of this world.
+     * @return the builder, which is on a tile of this world
+     */
+    public Builder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * Get the starting position of this world.
+     * @return the starting position
+     */
+    public Position getStartPosition() {
+        return startPosition;
+    }
+
+    /**
+     * Save this world to a file, in the format written by
+     * WorldMap.saveMap(), with the tiles in the order of their ids. <br>
+     * Saving a compact world gives the same file as saving the world map
+     * it was copied from after the same changes.
+     *
+     * @param filename the filename to be written to
+     * @throws IOException if the file cannot be opened or written to
+     * @require filename != null
+     */
+    public void saveMap(String filename) throws IOException {
+        WorldMap.writeMap(filename, startPosition, builder, getTiles(),
+                this::getTileIndex);
+    }
+
+    /**
+     * Get the path finder for this world. <br>
+     * Like the world, the path finder is not thread-safe.
+     * @return the path finder
+     */
+    public PathFinder getPathFinder() {
+        if (pathFinder == null) {
+            pathFinder = new PathFinder(this);
+        }
+        return pathFinder;
+    }
+
+    /**
+     * Get the number of tiles in this world.
+     * @return the number of tiles
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Get the id of the tile at (x, y).
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the id of the tile, or -1 if there is no tile at (x, y)
+     */
+    public int getTileId(int x, int y) {
+        int[] ids = chunkIds.get(Position.toKey(TileChunk.toChunk(x),
+                TileChunk.toChunk(y)));
+        if (ids == null) {
+            return -1;
+        }
+        return ids[((y & TileChunk.MASK) << TileChunk.SHIFT)
+                | (x & TileChunk.MASK)] - 1;
+    }
+
+    /**
+     * Get the tile at (x, y).
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return a view of the tile, or null if there is no tile at (x, y)
+     */
+    public Tile getTile(int x, int y) {
+        int id = getTileId(x, y);
+        return id == -1 ? null : getTile(id);
+    }
+
+    /**
+     * Get the tile with the given id. <br>
+     * The same view is returned each time for the same id, for as long as
+     * it (or another view of the same page) is referred to from outside
+     * this world, so views can be compared with ==, and used as keys of
+     * maps and exits of tiles.
+     * @param id the id of the tile
+     * @return a view of the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    @SuppressWarnings("unchecked")
+    public Tile getTile(int id) {
+        if (views == null) {
+            views = (WeakReference<TileView[]>[])
+                    new WeakReference<?>[pages.length];
+        }
+
+        int page = id >>> PAGE_SHIFT;
+        TileView[] pageViews = views[page] == null ? null
+                : views[page].get();
+        if (pageViews == null) {
+            pageViews = new TileView[PAGE_SIZE];
+            views[page] = new WeakReference<>(pageViews);
+        }
+
+        TileView view = pageViews[id & PAGE_MASK];
+        if (view == null) {
+            view = new TileView(this, id, pageViews);
+            pageViews[id & PAGE_MASK] = view;
+        }
+        return view;
+    }
+
+    /**
+     * Get every tile in this world, ordered by id. <br>
+     * The list is a read-only view, and its elements are only created
+     * when they are read.
+     * @return a list of the tiles in this world
+     */
+    public List<Tile> getTiles() {
+        if (tilesView == null) {
+            tilesView = new TileListView();
+        }
+        return tilesView;
+    }
+
+    /**
+     * Get the id of a tile in this world.
+     * @param tile the tile to look up
+     * @return the id of tile, or -1 if tile is not a tile of this world
+     */
+    public int getTileIndex(Tile tile) {
+        if (tile instanceof TileView && ((TileView) tile).world == this) {
+            return ((TileView) tile).id;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the x coordinate of a tile.
+     * @param id the id of the tile
+     * @return the x coordinate of the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    public int getX(int id) {
+        return Position.keyX(positions[id]);
+    }
+
+    /**
+     * Get the y coordinate of a tile.
+     * @param id the id of the tile
+     * @return the y coordinate of the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    public int getY(int id) {
+        return Position.keyY(positions[id]);
+    }
+
+    /**
+     * Get the number of blocks on a tile, without creating a view.
+     * @param id the id of the tile
+     * @return the number of blocks on the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    public int getHeight(int id) {
+        return pages[id >>> PAGE_SHIFT].heights[id & PAGE_MASK];
+    }
+
+    /**
+     * Get a block on a tile, without creating a view.
+     * @param id the id of the tile
+     * @param level the level of the block, where 0 is the bottom block
+     * @return a block of the type at that level
+     * @require 0 &lt;= id &lt; getTileCount()
+     * @require 0 &lt;= level &lt; getHeight(id)
+     */
+    public Block getBlockAt(int id, int level) {
+        int codes = pages[id >>> PAGE_SHIFT].blockCodes[id & PAGE_MASK];
+        return palette[((codes >>> (level * CODE_BITS)) & CODE_MASK) - 1];
+    }
+
+    /**
+     * Get the compass exits of a tile, without creating a view. <br>
+     * The bit direction.getBit() is set if the tile has an exit in that
+     * direction to the adjacent tile (exits that lead anywhere else are
+     * not included).
+     * @param id the id of the tile
+     * @return the exit mask of the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    public int getExitMask(int id) {
+        return pages[id >>> PAGE_SHIFT].exitMasks[id & PAGE_MASK];
+    }
+
+    /**
+     * Get the exits of a tile that a Builder can move through, without
+     * creating a view (see {@link Tile#getWalkableMask()
+     * Tile.getWalkableMask()}).
+     * @param id the id of the tile
+     * @return the walkable mask of the tile
+     * @require 0 &lt;= id &lt; getTileCount()
+     */
+    public int getWalkableMask(int id) {
+        Map<String, Tile> irregular = irregularExitsOf(id);
+        int exitMask = getExitMask(id);
+        int height = getHeight(id);
+        int mask = 0;
+
+        for (Direction direction : DIRECTIONS) {
+            Tile target = irregular == null
+                    ? null : irregular.get(direction.getName());
+            int targetHeight;
+            if (target != null) {
+                targetHeight = localize(target).getHeight();
+            } else if ((exitMask & direction.getBit()) != 0) {
+                targetHeight = getHeight(neighbourId(id, direction));
+            } else {
+                continue;
+            }
+
+            if (Math.abs(targetHeight - height) <= 1) {
+                mask |= direction.getBit();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Visit every tile in the rectangle from (minX, minY) to (maxX, maxY)
+     * inclusive. <br>
+     * Only chunks that contain tiles are visited: the sorted chunks are
+     * walked column by column, skipping straight to the next column in
+     * range whenever a chunk falls outside the rectangle (as
+     * SparseTileArray.getChunks() does). The time taken is therefore
+     * proportional to the number of tiles near the rectangle (plus a
+     * binary search for each column of chunks in it that has tiles), not
+     * to its area. Tiles are visited chunk by chunk, in order of their
+     * chunk coordinates (see Position.compareTo()), and in row-major order
+     * within each chunk.
+     *
+     * @param minX the smallest x coordinate of the rectangle
+     * @param minY the smallest y coordinate of the rectangle
+     * @param maxX the largest x coordinate of the rectangle
+     * @param maxY the largest y coordinate of the rectangle
+     * @param visitor the visitor to call for each tile
+     * @require visitor != null
+     */
+    public void forEachTileIn(int minX, int minY, int maxX, int maxY,
+                              TileVisitor visitor) {
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        int fromCx = TileChunk.toChunk(minX);
+        int fromCy = TileChunk.toChunk(minY);
+        int toCx = TileChunk.toChunk(maxX);
+        int toCy = TileChunk.toChunk(maxY);
+
+        int index = ceilingChunk(fromCx, fromCy);
+        while (index < chunkCount) {
+            long key = sortedChunks[index] ^ Y_SIGN;
+            int cx = Position.keyX(key);
+            int cy = Position.keyY(key);
+            if (cx > toCx) {
+                break;
+            }
+
+            if (cy < fromCy) {
+                index = ceilingChunk(cx, fromCy);
+            } else if (cy > toCy) {
+                if (cx == toCx) {
+                    break;
+                }
+                index = ceilingChunk(cx + 1, fromCy);
+            } else {
+                visitChunk(sortedChunkIds[index], cx, cy,
+                        minX, minY, maxX, maxY, visitor);
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Find the first chunk with tiles at or after (cx, cy) in the order of
+     * Position.compareTo().
+     * @return the index of the chunk in sortedChunks, or chunkCount if
+     *         there is none
+     */
+    private int ceilingChunk(int cx, int cy) {
+        int index = Arrays.binarySearch(sortedChunks, 0, chunkCount,
+                Position.toKey(cx, cy) ^ Y_SIGN);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * Visit the tiles of one chunk that are in the given rectangle.
+     */
+    private void visitChunk(int[] ids, int cx, int cy, int minX, int minY,
+                            int maxX, int maxY, TileVisitor visitor) {
+        long baseX = (long) cx << TileChunk.SHIFT;
+        long baseY = (long) cy << TileChunk.SHIFT;
+        int fromX = (int) Math.max(minX - baseX, 0);
+        int fromY = (int) Math.max(minY - baseY, 0);
+        int toX = (int) Math.min(maxX - baseX, TileChunk.MASK);
+        int toY = (int) Math.min(maxY - baseY, TileChunk.MASK);
+
+        for (int localY = fromY; localY <= toY; localY++) {
+            for (int localX = fromX; localX <= toX; localX++) {
+                int id = ids[(localY << TileChunk.SHIFT) | localX] - 1;
+                if (id != -1) {
+                    visitor.visit((int) baseX + localX, (int) baseY + localY,
+                            getTile(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the position of a tile, and index it by position.
+     */
+    private void placeId(int id, int x, int y) {
+        positions[id] = Position.toKey(x, y);
+
+        int cx = TileChunk.toChunk(x);
+        int cy = TileChunk.toChunk(y);
+        long chunkKey = Position.toKey(cx, cy);
+        int[] ids = chunkIds.get(chunkKey);
+        if (ids == null) {
+            ids = new int[TileChunk.SIZE * TileChunk.SIZE];
+            chunkIds.put(chunkKey, ids);
+
+            if (sortedChunks == null) {
+                sortedChunks = new long[16];
+            } else if (chunkCount == sortedChunks.length) {
+                sortedChunks = Arrays.copyOf(sortedChunks, chunkCount * 2);
+            }
+            sortedChunks[chunkCount++] = chunkKey ^ Y_SIGN;
+        }
+        ids[((y & TileChunk.MASK) << TileChunk.SHIFT)
+                | (x & TileChunk.MASK)] = id + 1;
+    }
+
+    /**
+     * Sort the chunks recorded by placeId(), and look up their tile ids.
+     */
+    private void sortChunks() {
+        if (sortedChunks == null) {
+            sortedChunks = new long[0];
+        }
+        sortedChunks = Arrays.copyOf(sortedChunks, chunkCount);
+        Arrays.sort(sortedChunks);
+
+        sortedChunkIds = new int[chunkCount][];
+        for (int i = 0; i < chunkCount; i++) {
+            sortedChunkIds[i] = chunkIds.get(sortedChunks[i] ^ Y_SIGN);
+        }
+    }
+
+    /**
+     * Get the code for the class of a block, adding it to the palette if
+     * it has not been seen before.
+     * @return the code (from 1 to 15), or 0 if the palette is full
+     */
+    private int codeFor(Block block) {
+        BlockType type = BlockType.of(block);
+        if (type != null) {
+            return type.getCode() + 1;
+        }
+
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i].getClass() == block.getClass()) {
+                return i + 1;
+            }
+        }
+
+        if (paletteSize == MAX_BLOCK_TYPES) {
+            return 0;
+        }
+        palette[paletteSize++] = block;
+        return paletteSize;
+    }
+
+    /**
+     * Get the id of the tile adjacent to a tile in a direction.
+     * @return the id, or -1 if there is no tile there
+     */
+    private int neighbourId(int id, Direction direction) {
+        long position = positions[id];
+        return getTileId(Position.keyX(position) + direction.getDx(),
+                Position.keyY(position) + direction.getDy());
+    }
+
+    /**
+     * Get the target of the exit of a tile in a direction.
+     * @return the target tile, or null if there is no such exit
+     */
+    private Tile exitAt(int id, Direction direction) {
+        Map<String, Tile> irregular = irregularExitsOf(id);
+        if (irregular != null && irregular.containsKey(direction.getName())) {
+            return localize(irregular.get(direction.getName()));
+        }
+
+        if ((getExitMask(id) & direction.getBit()) == 0) {
+            return null;
+        }
+        return getTile(neighbourId(id, direction));
+    }
+
+    /**
+     * Get the id of the target of the exit of a tile in a direction,
+     * without creating a view (unless the exit is not in the exit mask).
+     * @param id the id of the tile
+     * @param direction the direction of the exit
+     * @return the id of the target tile, or -1 if there is no such exit
+     *         or it leads out of this world
+     */
+    int getExitId(int id, Direction direction) {
+        Map<String, Tile> irregular = irregularExitsOf(id);
+        if (irregular != null && irregular.containsKey(direction.getName())) {
+            return getTileIndex(localize(irregular.get(direction.getName())));
+        }
+
+        if ((getExitMask(id) & direction.getBit()) == 0) {
+            return -1;
+        }
+        return neighbourId(id, direction);
+    }
+
+    /**
+     * Add or replace a named exit of a tile, storing it in the exit mask
+     * if possible.
+     */
+    private void putExit(int id, String name, Tile target) {
+        deleteExit(id, name);
+
+        Direction direction = Direction.fromName(name);
+        if (direction != null && getTileIndex(target) != -1
+                && getTileIndex(target) == neighbourId(id, direction)) {
+            writablePage(id).exitMasks[id & PAGE_MASK] |= direction.getBit();
+            return;
+        }
+
+        writableIrregularExits()
+                .computeIfAbsent(id, k -> new TreeMap<>())
+                .put(name, target);
+    }
+
+    /**
+     * Remove a named exit of a tile, if it exists.
+     */
+    private void deleteExit(int id, String name) {
+        Direction direction = Direction.fromName(name);
+        if (direction != null
+                && (getExitMask(id) & direction.getBit()) != 0) {
+            writablePage(id).exitMasks[id & PAGE_MASK] &= ~direction.getBit();
+        }
+
+        Map<String, Tile> irregular = irregularExitsOf(id);
+        if (irregular != null && irregular.containsKey(name)) {
+            irregular = writableIrregularExits().get(id);
+            irregular.remove(name);
+            if (irregular.isEmpty()) {
+                irregularExits.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Get the page holding the state of a tile, copying it first if it is
+     * shared with a snapshot.
+     * @return a page that only this world uses
+     */
+    private Page writablePage(int id) {
+        if (pagesShared) {
+            pages = pages.clone();
+            pagesShared = false;
+        }
+
+        Page page = pages[id >>> PAGE_SHIFT];
+        if (page.owner != owner) {
+            page = new Page(owner, page);
+            pages[id >>> PAGE_SHIFT] = page;
+        }
+        return page;
+    }
+
+    /**
+     * Get the exits that do not fit in the exit masks, creating them or
+     * copying them first if they are shared with a snapshot.
+     * @return exits that only this world uses
+     */
+    private Map<Integer, Map<String, Tile>> writableIrregularExits() {
+        if (irregularExits == null) {
+            irregularExits = new HashMap<>();
+        } else if (irregularExitsShared) {
+            Map<Integer, Map<String, Tile>> copy = new HashMap<>();
+            for (Map.Entry<Integer, Map<String, Tile>> exits
+                    : irregularExits.entrySet()) {
+                copy.put(exits.getKey(), new TreeMap<>(exits.getValue()));
+            }
+            irregularExits = copy;
+        }
+        irregularExitsShared = false;
+        return irregularExits;
+    }
+
+    /**
+     * Replace a view of a tile of another snapshot of this world with the
+     * view of the same tile in this world.
+     * @return the view in this world, or tile if it is not a view of a
+     *         snapshot of this world
+     */
+    private Tile localize(Tile tile) {
+        if (tile instanceof TileView) {
+            TileView view = (TileView) tile;
+            if (view.world != this && view.world.positions == positions) {
+                return getTile(view.id);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Get the exits of a tile that are not in its exit mask.
+     * @return the exits, or null if there are none
+     */
+    private Map<String, Tile> irregularExitsOf(int id) {
+        return irregularExits == null ? null : irregularExits.get(id);
+    }
+
+    /**
+     * A Tile whose blocks and exits are stored in a CompactWorld. <br>
+     * Views cannot be serialized (their world is not serializable), so no
+     * serialVersionUID is declared.
+     */
+    @SuppressWarnings("serial")
+    private static final class TileView extends Tile {
+
+        // the world that stores this tile, and the id of the tile
+        private final CompactWorld world;
+        private final int id;
+
+        // the views of the page of this tile, which the world only refers
+        // to weakly, so that they are kept while this view is in use
+        private final TileView[] pageViews;
+
+        /**
+         * Construct a view of the tile with the given id.
+         * @param world the world that stores the tile
+         * @param id the id of the tile
+         * @param pageViews the views of the page of the tile
+         */
+        TileView(CompactWorld world, int id, TileView[] pageViews) {
+            super(true);
+            this.world = world;
+            this.id = id;
+            this.pageViews = pageViews;
+        }
+
+        @Override
+        public Outcome tryPlaceBlock(Block block) {
+            if (block != null && world.codeFor(block) == 0) {
+                // the block cannot be stored
+                return Outcome.INVALID_BLOCK;
+            }
+            return super.tryPlaceBlock(block);
+        }
+
+        @Override
+        int height() {
+            return world.getHeight(id);
+        }
+
+        @Override
+        Block blockAt(int level) {
+            return world.getBlockAt(id, level);
+        }
+
+        @Override
+        void pushBlock(Block block) {
+            int code = world.codeFor(block);
+            Page page = world.writablePage(id);
+            int index = id & PAGE_MASK;
+            int level = page.heights[index];
+            page.blockCodes[index] |= code << (level * CODE_BITS);
+            page.heights[index]++;
+        }
+
+        @Override
+        void popBlock() {
+            Page page = world.writablePage(id);
+            int index = id & PAGE_MASK;
+            int level = page.heights[index] - 1;
+            page.blockCodes[index] &= ~(CODE_MASK << (level * CODE_BITS));
+            page.heights[index]--;
+        }
+
+        @Override
+        Tile exitAt(Direction direction) {
+            return world.exitAt(id, direction);
+        }
+
+        @Override
+        int walkableMask() {
+            return world.getWalkableMask(id);
+        }
+
+        @Override
+        void refreshWalkableMask() {
+            // computed from the arrays when it is needed
+        }
+
+        @Override
+        void setExit(Direction direction, Tile target) {
+            if (target == null) {
+                world.deleteExit(id, direction.getName());
+            } else {
+                world.putExit(id, direction.getName(), target);
+            }
+        }
+
+        @Override
+        Map<String, Tile> otherExits() {
+            Map<String, Tile> irregular = world.irregularExitsOf(id);
+            if (irregular == null) {
+                return null;
+            }
+
+            Map<String, Tile> others = new TreeMap<>();
+            for (Map.Entry<String, Tile> exit : irregular.entrySet()) {
+                if (Direction.fromName(exit.getKey()) == null) {
+                    others.put(exit.getKey(),
+                            world.localize(exit.getValue()));
+                }
+            }
+            return others.isEmpty() ? null
+                    : Collections.unmodifiableMap(others);
+        }
+
+        @Override
+        void putOtherExit(String name, Tile target) {
+            world.putExit(id, name, target);
+        }
+
+        @Override
+        void deleteOtherExit(String name) {
+            world.deleteExit(id, name);
+        }
+    }
+
+    /**
+     * The state of PAGE_SIZE consecutive tiles, indexed by id &amp;
+     * PAGE_MASK.
+     */
+    private static final class Page {
+
+        // the world that can change this page without copying it
+        private final Object owner;
+
+        // the number of blocks on each tile, their codes, and the exit
+        // mask of each tile
+        private final byte[] heights;
+        private final int[] blockCodes;
+        private final byte[] exitMasks;
+
+        /**
+         * Construct a page of tiles with no blocks or exits.
+         * @param owner the owner of the world the page belongs to
+         */
+        Page(Object owner) {
+            this.owner = owner;
+            heights = new byte[PAGE_SIZE];
+            blockCodes = new int[PAGE_SIZE];
+            exitMasks = new byte[PAGE_SIZE];
+        }
+
+        /**
+         * Construct a copy of a page.
+         * @param owner the owner of the world the copy belongs to
+         * @param page the page to copy
+         */
+        Page(Object owner, Page page) {
+            this.owner = owner;
+            heights = page.heights.clone();
+            blockCodes = page.blockCodes.clone();
+            exitMasks = page.exitMasks.clone();
+        }
+    }
+
+    /**
+     * A read-only list of the tiles of this world, ordered by id.
+     */
+    private final class TileListView extends AbstractList<Tile>
+            implements RandomAccess {
+
+        @Override
+        public Tile get(int index) {
+            if (index < 0 || index >= tileCount) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + tileCount);
+            }
+            return getTile(index);
+        }
+
+        @Override
+        public int size() {
+            return tileCount;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package csse2002.block.world;
+
+/**
+ * The four compass directions that tiles can be linked in. <br>
+ * Each direction has the exit name used by {@link Tile#getExits()
+ * Tile.getExits()} and in world map files, and the change in position
+ * when moving in that direction (north is towards smaller y). <br>
+ * Directions are declared (and so ordered) north, east, south, west.
+ * @serial exclude
+ */
+public enum Direction {
+
+    /**
+     * The "north" exit, to (x, y - 1).
+     */
+    NORTH("north", 0, -1),
+
+    /**
+     * The "east" exit, to (x + 1, y).
+     */
+    EAST("east", 1, 0),
+
+    /**
+     * The "south" exit, to (x, y + 1).
+     */
+    SOUTH("south", 0, 1),
+
+    /**
+     * The "west" exit, to (x - 1, y).
+     */
+    WEST("west", -1, 0);
+
+    // values(), without copying it each time
+    private static final Direction[] VALUES = values();
+
+    // the exit name
+    private final String name;
+
+    // the change in x and y
+    private final int dx;
+    private final int dy;
+
+    /**
+     * Construct a direction.
+     * @param name the exit name
+     * @param dx the change in x
+     * @param dy the change in y
+     */
+    Direction(String name, int dx, int dy) {
+        this.name = name;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * Get the exit name of this direction.
+     * @return one of "north", "east", "south" or "west"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the change in x when moving in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getDx() {
+        return dx;
+    }
+
+    /**
+     * Get the change in y when moving in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getDy() {
+        return dy;
+    }
+
+    /**
+     * Get the bit for this direction in an exit mask
+     * (see {@link Tile#getExitMask() Tile.getExitMask()}).
+     * @return 1 &lt;&lt; ordinal()
+     */
+    public int getBit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Get the direction opposite this one.
+     * @return the opposite direction (e.g. SOUTH for NORTH)
+     */
+    public Direction opposite() {
+        return VALUES[(ordinal() + 2) % VALUES.length];
+    }
+
+    /**
+     * Get the direction with the given ordinal, without copying values().
+     * @param ordinal the ordinal of the direction
+     * @return the direction
+     * @require 0 &lt;= ordinal &lt; 4
+     */
+    public static Direction fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Get the direction for an exit name.
+     * @param name the exit name
+     * @return the direction, or null if name is not one of "north",
+     *         "east", "south" or "west" (or is null)
+     */
+    public static Direction fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        switch (name) {
+            case "north":
+                return NORTH;
+            case "east":
+                return EAST;
+            case "south":
+                return SOUTH;
+            case "west":
+                return WEST;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,703 @@
+package csse2002.block.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds routes that a {@link Builder Builder} can take between distant
+ * tiles of a {@link WorldMap WorldMap}, using a graph of the
+ * {@link TileChunk TileChunk}s of the map so that the time taken depends
+ * on the length of the route rather than the size of the map. <br>
+ * Within each chunk, tiles that a builder can walk between in both
+ * directions without leaving the chunk form a component. The walkable
+ * exits (see {@link Tile#getWalkableMask() Tile.getWalkableMask()}) that
+ * lead out of a chunk are its portals, and each portal joins a component
+ * of the chunk to a component of the neighbouring chunk. Exits that can
+ * only be walked one way may also lead from one component of a chunk to
+ * another, and are kept as links between them. <br>
+ * A route is found in two stages. An A* search over the components finds
+ * the sequence of components that crosses the fewest chunk borders from
+ * the start to the goal, using the Manhattan distance between chunks as
+ * the estimate. Then an A* search over the tiles of those components,
+ * using the masks cached for each chunk rather than the tiles themselves,
+ * finds the shortest route through them. A route always exists through
+ * the components found, so a route is found whenever one exists, but it
+ * may be a little longer than the shortest route through the whole map
+ * (as found by {@link PathFinder PathFinder}). <br>
+ * The components and portals of each chunk are cached, and depend only on
+ * the walkable masks of the chunk's own tiles, so each cached chunk
+ * remembers the masks it was built from. When a block is dug, dropped or
+ * moved, the masks of the tiles whose heights changed (and of their
+ * neighbours) change, and only the chunks containing those tiles are
+ * rebuilt the next time a search passes through them. <br>
+ * Like PathFinder, this assumes the exits of the map are geometrically
+ * consistent, and a HierarchicalPathFinder is not thread-safe.
+ * @serial exclude
+ */
+public class HierarchicalPathFinder {
+
+    // directions, in the order exits are searched
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // the number of tiles in a chunk
+    private static final int CHUNK_TILES = TileChunk.SIZE * TileChunk.SIZE;
+
+    // the most portals a chunk can have: one out of each side of each
+    // tile on the edge of the chunk
+    private static final int MAX_PORTALS = 4 * TileChunk.SIZE;
+
+    // the initial capacity of the open set
+    private static final int INITIAL_CAPACITY = 16;
+
+    // a bit set in a stored mask if there is a tile, so that a tile with
+    // no walkable exits is not mistaken for a missing tile
+    private static final int PRESENT = 1 << 4;
+
+    // the component of a local index with no tile, or of a tile that has
+    // not been given one yet
+    private static final short NO_COMPONENT = -1;
+    private static final short UNLABELLED = -2;
+
+    // the number of bits of an open set entry that hold a component or
+    // local index, below the id of its graph
+    private static final int LOCAL_BITS = 8;
+
+    /**
+     * The cached components and portals of one chunk, and the state of
+     * each component in the current search.
+     */
+    private static final class ChunkGraph {
+
+        // the chunk, to notice if the map replaces it
+        private final TileChunk chunk;
+
+        // the index of this graph in graphList
+        private final int id;
+
+        // the walkable mask of each tile when the graph was built, with
+        // the PRESENT bit set, indexed by local index (0 where there is
+        // no tile)
+        private final byte[] masks = new byte[CHUNK_TILES];
+
+        // the component of each tile, or NO_COMPONENT where there is none
+        private final short[] components = new short[CHUNK_TILES];
+        private int componentCount;
+
+        // the portals of the chunk, each stored as
+        // (local index << 2) | direction ordinal, grouped by component.
+        // Those of component c are from firstPortals[c] up to (but not
+        // including) firstPortals[c + 1]
+        private final int[] portals = new int[MAX_PORTALS];
+        private int[] firstPortals = new int[1];
+
+        // the components that walkable exits between tiles of the chunk
+        // lead to from a different component, grouped by the component
+        // they lead from, in the same way as portals
+        private int[] links = new int[0];
+        private int[] firstLinks = new int[1];
+
+        // for each component: the search that last reached it, the number
+        // of chunk borders crossed to reach it, the component it was
+        // reached from, and the search whose route passes through it
+        private int[] marks = new int[0];
+        private int[] costs = new int[0];
+        private ChunkGraph[] parentGraphs = new ChunkGraph[0];
+        private short[] parentComponents = new short[0];
+        private int[] routeMarks = new int[0];
+
+        // for each tile, indexed by local index: the search whose route
+        // through the components last reached it, the number of steps
+        // from the start to it, and the ordinal of the direction it was
+        // entered in
+        private final int[] tileMarks = new int[CHUNK_TILES];
+        private final int[] tileDistances = new int[CHUNK_TILES];
+        private final byte[] tileSteps = new byte[CHUNK_TILES];
+
+        // the last search that checked the masks were still current
+        private int checked;
+
+        /**
+         * Construct the graph of a chunk.
+         * @param chunk the chunk
+         * @param id the index of the graph in graphList
+         * @param queue a working array of CHUNK_TILES elements
+         */
+        ChunkGraph(TileChunk chunk, int id, int[] queue) {
+            this.chunk = chunk;
+            this.id = id;
+            build(queue);
+        }
+
+        /**
+         * Are the masks the graph was built from still current?
+         * @return true if no tile of the chunk has a different walkable
+         *         mask, and no tile has been added or removed
+         */
+        boolean isCurrent() {
+            for (int local = 0; local < CHUNK_TILES; local++) {
+                if (masks[local] != maskAt(local)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Rebuild the components and portals from the current walkable
+         * masks.
+         * @param queue a working array of CHUNK_TILES elements
+         */
+        void build(int[] queue) {
+            for (int local = 0; local < CHUNK_TILES; local++) {
+                masks[local] = maskAt(local);
+                components[local] = masks[local] == 0
+                        ? NO_COMPONENT : UNLABELLED;
+            }
+
+            // label the components by breadth-first search, following
+            // exits that can be walked in both directions
+            componentCount = 0;
+            for (int first = 0; first < CHUNK_TILES; first++) {
+                if (components[first] != UNLABELLED) {
+                    continue;
+                }
+                short component = (short) componentCount++;
+                components[first] = component;
+                queue[0] = first;
+                int head = 0;
+                int tail = 1;
+                while (head < tail) {
+                    int local = queue[head++];
+                    for (Direction direction : DIRECTIONS) {
+                        int next = neighbour(local, direction);
+                        if (next >= 0 && components[next] == UNLABELLED
+                                && (masks[local] & direction.getBit()) != 0
+                                && (masks[next]
+                                & direction.opposite().getBit()) != 0) {
+                            components[next] = component;
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+            }
+
+            // group the portals and links by component, counting them
+            // first
+            if (firstPortals.length < componentCount + 1) {
+                firstPortals = new int[componentCount + 1];
+                firstLinks = new int[componentCount + 1];
+                marks = new int[componentCount];
+                costs = new int[componentCount];
+                parentGraphs = new ChunkGraph[componentCount];
+                parentComponents = new short[componentCount];
+                routeMarks = new int[componentCount];
+            }
+            Arrays.fill(firstPortals, 0);
+            Arrays.fill(firstLinks, 0);
+            for (int local = 0; local < CHUNK_TILES; local++) {
+                for (Direction direction : DIRECTIONS) {
+                    if (isPortal(local, direction)) {
+                        firstPortals[components[local] + 1]++;
+                    } else if (linkTarget(local, direction) >= 0) {
+                        firstLinks[components[local] + 1]++;
+                    }
+                }
+            }
+            for (int component = 0; component < componentCount; component++) {
+                firstPortals[component + 1] += firstPortals[component];
+                firstLinks[component + 1] += firstLinks[component];
+            }
+            if (links.length < firstLinks[componentCount]) {
+                links = new int[firstLinks[componentCount]];
+            }
+
+            // queue holds the next free portal of each component, then the
+            // next free link of each component
+            System.arraycopy(firstPortals, 0, queue, 0, componentCount);
+            System.arraycopy(firstLinks, 0, queue, componentCount,
+                    componentCount);
+            for (int local = 0; local < CHUNK_TILES; local++) {
+                for (Direction direction : DIRECTIONS) {
+                    int component = components[local];
+                    int target = linkTarget(local, direction);
+                    if (isPortal(local, direction)) {
+                        portals[queue[component]++] =
+                                (local << 2) | direction.ordinal();
+                    } else if (target >= 0) {
+                        links[queue[componentCount + component]++] = target;
+                    }
+                }
+            }
+
+            // the graph may have been part of an earlier search
+            Arrays.fill(marks, 0);
+            Arrays.fill(routeMarks, 0);
+            Arrays.fill(tileMarks, 0);
+        }
+
+        /**
+         * Is the exit of a tile in a direction a portal?
+         * @param local the local index of the tile
+         * @param direction the direction of the exit
+         * @return true if the exit is walkable and leads out of the chunk
+         */
+        private boolean isPortal(int local, Direction direction) {
+            return (masks[local] & direction.getBit()) != 0
+                    && neighbour(local, direction) < 0;
+        }
+
+        /**
+         * Get the component that the exit of a tile in a direction links
+         * to.
+         * @param local the local index of the tile
+         * @param direction the direction of the exit
+         * @return the component of the tile the exit leads to, or -1 if
+         *         the exit is not walkable, leaves the chunk, or leads to
+         *         the same component
+         */
+        private int linkTarget(int local, Direction direction) {
+            int next = neighbour(local, direction);
+            if ((masks[local] & direction.getBit()) == 0 || next < 0
+                    || components[next] == components[local]) {
+                return -1;
+            }
+            return components[next];
+        }
+
+        /**
+         * Get the stored mask of a tile of the chunk.
+         * @param local the local index of the tile
+         * @return the walkable mask with the PRESENT bit set, or 0 if
+         *         there is no tile
+         */
+        private byte maskAt(int local) {
+            Tile tile = chunk.getTile(local & TileChunk.MASK,
+                    local >> TileChunk.SHIFT);
+            return tile == null ? 0
+                    : (byte) (PRESENT | tile.getWalkableMask());
+        }
+    }
+
+    // the map to search
+    private final WorldMap map;
+
+    // the graphs of chunks that searches have passed through, keyed by
+    // Position.toKey(chunkX, chunkY), and in order of their ids
+    private final LongHashMap<ChunkGraph> graphs;
+    private final List<ChunkGraph> graphList;
+
+    // the current search
+    private int search;
+
+    // components waiting to be expanded, each stored as
+    // (estimated borders crossed << 32) | (graph id << LOCAL_BITS)
+    // | component, then tiles waiting to be expanded, each stored as
+    // (estimated route length << 32) | (graph id << LOCAL_BITS) | local
+    private final LongMinHeap open;
+
+    // working array for building chunk graphs
+    private final int[] queue = new int[CHUNK_TILES];
+
+    // the direction ordinals of the last route found, first step first
+    private byte[] path;
+    private int pathLength = -1;
+
+    /**
+     * Construct a hierarchical path finder for a world map. <br>
+     * The path finder follows changes to the map, including tiles added
+     * with attachLinkedTiles().
+     * @param map the map to find routes in
+     * @require map != null
+     */
+    public HierarchicalPathFinder(WorldMap map) {
+        this.map = map;
+        this.graphs = new LongHashMap<>();
+        this.graphList = new ArrayList<>();
+        this.open = new LongMinHeap(INITIAL_CAPACITY);
+        this.path = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Find a route from one tile to another. <br>
+     * The route can then be read with getPathLength() and getStep().
+     * @param start the tile the route starts on
+     * @param goal the tile the route ends on
+     * @return the number of steps in the route (0 if start == goal), or -1
+     *         if either tile is not in the map, or there is no route
+     * @require start != null
+     * @require goal != null
+     */
+    public int findPath(Tile start, Tile goal) {
+        pathLength = -1;
+
+        Position startPosition = map.getPosition(start);
+        Position goalPosition = map.getPosition(goal);
+        if (startPosition == null || goalPosition == null) {
+            return -1;
+        }
+        nextSearch();
+
+        ChunkGraph startGraph = graphAt(startPosition.getX(),
+                startPosition.getY());
+        ChunkGraph goalGraph = graphAt(goalPosition.getX(),
+                goalPosition.getY());
+        int startComponent = componentAt(startGraph, startPosition.getX(),
+                startPosition.getY());
+        int goalComponent = componentAt(goalGraph, goalPosition.getX(),
+                goalPosition.getY());
+        int goalChunkX = goalGraph.chunk.getChunkX();
+        int goalChunkY = goalGraph.chunk.getChunkY();
+
+        open.clear();
+        reach(startGraph, startComponent, null, -1, 0,
+                goalChunkX, goalChunkY);
+
+        while (!open.isEmpty()) {
+            long entry = open.poll();
+            ChunkGraph graph = graphList.get((int) entry >>> LOCAL_BITS);
+            int component = (int) entry & ((1 << LOCAL_BITS) - 1);
+            int cost = graph.costs[component];
+            int chunkX = graph.chunk.getChunkX();
+            int chunkY = graph.chunk.getChunkY();
+
+            // skip entries for components that were reached again by a
+            // shorter route after they were added
+            if ((int) (entry >>> 32) > cost + Math.abs(goalChunkX - chunkX)
+                    + Math.abs(goalChunkY - chunkY)) {
+                continue;
+            }
+
+            if (graph == goalGraph && component == goalComponent) {
+                markRoute(goalGraph, goalComponent);
+                return findRouteThrough(startGraph, startPosition.getX(),
+                        startPosition.getY(), goalGraph, goalPosition.getX(),
+                        goalPosition.getY());
+            }
+
+            // follow each link to another component of the chunk, which
+            // does not cross a border
+            for (int i = graph.firstLinks[component];
+                    i < graph.firstLinks[component + 1]; i++) {
+                int next = graph.links[i];
+                if (graph.marks[next] != search || graph.costs[next] > cost) {
+                    reach(graph, next, graph, component, cost,
+                            goalChunkX, goalChunkY);
+                }
+            }
+
+            // cross each portal of the component
+            for (int i = graph.firstPortals[component];
+                    i < graph.firstPortals[component + 1]; i++) {
+                int local = graph.portals[i] >> 2;
+                Direction direction =
+                        Direction.fromOrdinal(graph.portals[i] & 3);
+                ChunkGraph next = graphFor(chunkX + direction.getDx(),
+                        chunkY + direction.getDy());
+                if (next == null) {
+                    continue;
+                }
+
+                int nextLocal = toLocal(
+                        (local & TileChunk.MASK) + direction.getDx(),
+                        (local >> TileChunk.SHIFT) + direction.getDy());
+                int nextComponent = next.components[nextLocal];
+                if (nextComponent >= 0
+                        && (next.marks[nextComponent] != search
+                        || next.costs[nextComponent] > cost + 1)) {
+                    reach(next, nextComponent, graph, component, cost + 1,
+                            goalChunkX, goalChunkY);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of steps in the route found by the last call to
+     * findPath().
+     * @return the number of steps, or -1 if the last call did not find a
+     *         route (or findPath() has not been called)
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Get a step of the route found by the last call to findPath().
+     * @param step the index of the step, starting from 0
+     * @return the direction to move in for that step
+     * @require 0 &lt;= step &lt; getPathLength()
+     */
+    public Direction getStep(int step) {
+        return Direction.fromOrdinal(path[step]);
+    }
+
+    /**
+     * Get the number of chunks whose components and portals are cached.
+     * @return the number of cached chunks
+     */
+    public int getCachedChunkCount() {
+        return graphList.size();
+    }
+
+    /**
+     * Get the graph of a chunk, building it if it has not been built, or
+     * if a walkable mask in the chunk has changed since it was built.
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkY the y coordinate of the chunk
+     * @return the current graph of the chunk, or null if the chunk has no
+     *         tiles
+     */
+    private ChunkGraph graphFor(int chunkX, int chunkY) {
+        TileChunk chunk = map.getChunk(chunkX, chunkY);
+        if (chunk == null) {
+            return null;
+        }
+
+        long key = Position.toKey(chunkX, chunkY);
+        ChunkGraph graph = graphs.get(key);
+        if (graph == null) {
+            graph = new ChunkGraph(chunk, graphList.size(), queue);
+            graphList.add(graph);
+            graphs.put(key, graph);
+        } else if (graph.chunk != chunk) {
+            graph = new ChunkGraph(chunk, graph.id, queue);
+            graphList.set(graph.id, graph);
+            graphs.put(key, graph);
+        } else if (graph.checked != search && !graph.isCurrent()) {
+            graph.build(queue);
+        }
+        graph.checked = search;
+        return graph;
+    }
+
+    /**
+     * Get the graph of the chunk containing a tile.
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the current graph of the chunk
+     * @require there is a tile at (x, y)
+     */
+    private ChunkGraph graphAt(int x, int y) {
+        return graphFor(TileChunk.toChunk(x), TileChunk.toChunk(y));
+    }
+
+    /**
+     * Record that a component has been reached, and add it to the
+     * components waiting to be expanded.
+     * @param graph the graph of the component
+     * @param component the component
+     * @param parentGraph the graph of the component it was reached from,
+     *                    or null
+     * @param parentComponent the component it was reached from, or -1
+     * @param cost the number of chunk borders crossed to reach it
+     * @param goalChunkX the x coordinate of the goal's chunk
+     * @param goalChunkY the y coordinate of the goal's chunk
+     */
+    private void reach(ChunkGraph graph, int component,
+                       ChunkGraph parentGraph, int parentComponent,
+                       int cost, int goalChunkX, int goalChunkY) {
+        graph.marks[component] = search;
+        graph.costs[component] = cost;
+        graph.parentGraphs[component] = parentGraph;
+        graph.parentComponents[component] = (short) parentComponent;
+
+        long estimate = cost
+                + Math.abs(goalChunkX - graph.chunk.getChunkX())
+                + Math.abs(goalChunkY - graph.chunk.getChunkY());
+        open.add((estimate << 32)
+                | ((long) graph.id << LOCAL_BITS) | component);
+    }
+
+    /**
+     * Mark the components of the route to a component, by following the
+     * components each was reached from back to the start.
+     * @param graph the graph of the last component of the route
+     * @param component the last component of the route
+     */
+    private void markRoute(ChunkGraph graph, int component) {
+        while (graph != null) {
+            graph.routeMarks[component] = search;
+            ChunkGraph parent = graph.parentGraphs[component];
+            component = graph.parentComponents[component];
+            graph = parent;
+        }
+    }
+
+    /**
+     * Find the shortest route from the start to the goal that only visits
+     * tiles of the components marked by markRoute(), and store it.
+     * @param startGraph the graph of the start's chunk
+     * @param startX the x coordinate of the start
+     * @param startY the y coordinate of the start
+     * @param goalGraph the graph of the goal's chunk
+     * @param goalX the x coordinate of the goal
+     * @param goalY the y coordinate of the goal
+     * @return the number of steps in the route
+     */
+    private int findRouteThrough(ChunkGraph startGraph, int startX,
+                                 int startY, ChunkGraph goalGraph, int goalX,
+                                 int goalY) {
+        int goalLocal = toLocal(goalX, goalY);
+
+        open.clear();
+        reachTile(startGraph, toLocal(startX, startY), -1, 0,
+                Math.abs(goalX - startX) + Math.abs(goalY - startY));
+
+        while (!open.isEmpty()) {
+            long entry = open.poll();
+            ChunkGraph graph = graphList.get((int) entry >>> LOCAL_BITS);
+            int local = (int) entry & ((1 << LOCAL_BITS) - 1);
+            int distance = graph.tileDistances[local];
+            int x = graph.chunk.getMinX() + (local & TileChunk.MASK);
+            int y = graph.chunk.getMinY() + (local >> TileChunk.SHIFT);
+
+            // skip entries for tiles that were reached again by a shorter
+            // route after they were added
+            if ((int) (entry >>> 32)
+                    > distance + Math.abs(goalX - x) + Math.abs(goalY - y)) {
+                continue;
+            }
+
+            if (graph == goalGraph && local == goalLocal) {
+                storePath(goalGraph, goalX, goalY, distance);
+                return distance;
+            }
+
+            int walkable = graph.masks[local];
+            for (Direction direction : DIRECTIONS) {
+                if ((walkable & direction.getBit()) == 0) {
+                    continue;
+                }
+
+                int nextX = x + direction.getDx();
+                int nextY = y + direction.getDy();
+                ChunkGraph next = graph;
+                if (neighbour(local, direction) < 0) {
+                    next = graphAt(nextX, nextY);
+                    if (next == null) {
+                        continue;
+                    }
+                }
+
+                int nextLocal = toLocal(nextX, nextY);
+                int component = next.components[nextLocal];
+                if (component < 0 || next.routeMarks[component] != search
+                        || (next.tileMarks[nextLocal] == search
+                        && next.tileDistances[nextLocal] <= distance + 1)) {
+                    continue;
+                }
+
+                reachTile(next, nextLocal, direction.ordinal(), distance + 1,
+                        Math.abs(goalX - nextX) + Math.abs(goalY - nextY));
+            }
+        }
+
+        // not reached, since the components of the route are joined
+        return -1;
+    }
+
+    /**
+     * Record that a tile has been reached by a route through the marked
+     * components, and add it to the tiles waiting to be expanded.
+     * @param graph the graph of the tile's chunk
+     * @param local the local index of the tile
+     * @param direction the ordinal of the direction it was entered in,
+     *                  or -1
+     * @param distance the number of steps in the route
+     * @param remaining the Manhattan distance from the tile to the goal
+     */
+    private void reachTile(ChunkGraph graph, int local, int direction,
+                           int distance, int remaining) {
+        graph.tileMarks[local] = search;
+        graph.tileDistances[local] = distance;
+        graph.tileSteps[local] = (byte) direction;
+
+        long estimate = distance + remaining;
+        open.add((estimate << 32)
+                | ((long) graph.id << LOCAL_BITS) | local);
+    }
+
+    /**
+     * Store the route to a tile, by following the direction each tile was
+     * entered in back to the start.
+     * @param graph the graph of the last tile's chunk
+     * @param x the x coordinate of the last tile
+     * @param y the y coordinate of the last tile
+     * @param length the number of steps in the route
+     */
+    private void storePath(ChunkGraph graph, int x, int y, int length) {
+        if (path.length < length) {
+            path = new byte[Math.max(length, path.length * 2)];
+        }
+
+        for (int step = length - 1; step >= 0; step--) {
+            byte entered = graph.tileSteps[toLocal(x, y)];
+            path[step] = entered;
+
+            Direction direction = Direction.fromOrdinal(entered);
+            x -= direction.getDx();
+            y -= direction.getDy();
+            graph = graphs.get(Position.toKey(TileChunk.toChunk(x),
+                    TileChunk.toChunk(y)));
+        }
+        pathLength = length;
+    }
+
+    /**
+     * Start a new search, so that every component is unreached.
+     */
+    private void nextSearch() {
+        search++;
+        if (search == 0) {
+            // the marks have wrapped around, so clear them
+            for (ChunkGraph graph : graphList) {
+                Arrays.fill(graph.marks, 0);
+                Arrays.fill(graph.routeMarks, 0);
+                Arrays.fill(graph.tileMarks, 0);
+                graph.checked = 0;
+            }
+            search = 1;
+        }
+    }
+
+    /**
+     * Get the component of a tile.
+     * @param graph the graph of the tile's chunk
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the component, or NO_COMPONENT if there is no tile
+     */
+    private static int componentAt(ChunkGraph graph, int x, int y) {
+        return graph.components[toLocal(x, y)];
+    }
+
+    /**
+     * Get the local index of a position within its chunk.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the local index, between 0 and CHUNK_TILES - 1
+     */
+    private static int toLocal(int x, int y) {
+        return ((y & TileChunk.MASK) << TileChunk.SHIFT)
+                | (x & TileChunk.MASK);
+    }
+
+    /**
+     * Get the neighbour of a tile of a chunk in a direction, if it is in
+     * the same chunk.
+     * @param local the local index of the tile
+     * @param direction the direction
+     * @return the local index of the neighbour, or -1 if it is outside
+     *         the chunk
+     */
+    private static int neighbour(int local, Direction direction) {
+        int x = (local & TileChunk.MASK) + direction.getDx();
+        int y = (local >> TileChunk.SHIFT) + direction.getDy();
+        if (x < 0 || x >= TileChunk.SIZE || y < 0 || y >= TileChunk.SIZE) {
+            return -1;
+        }
+        return (y << TileChunk.SHIFT) | x;
+    }
+}
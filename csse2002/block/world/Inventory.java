@@ -0,0 +1,209 @@
+package csse2002.block.world;
+
+import java.util.AbstractList;
+
+/**
+ * The inventory of a {@link Builder Builder}: an ordered list of blocks,
+ * stored as a counted multiset. <br>
+ * Consecutive blocks of the same {@link BlockType BlockType} are stored as
+ * a single run (the shared block of the type and a count), and the
+ * number of blocks of each type is kept up to date, so memory grows with
+ * the number of runs rather than the number of blocks, and the count of
+ * a type is a single lookup. <br>
+ * Since blocks of a type are stored by type, get() returns the shared
+ * block of the type rather than the instance that was added. Blocks that
+ * do not have a type are kept as they are, each in its own run. <br>
+ * The list is read-only to other classes: the List methods that would
+ * change it throw an UnsupportedOperationException.
+ * @serial exclude
+ */
+final class Inventory extends AbstractList<Block> {
+
+    // the initial number of runs that can be stored
+    private static final int INITIAL_RUNS = 4;
+
+    // the block and the number of blocks in each run, in order. Only the
+    // first runCount elements are used
+    private Block[] runBlocks;
+    private int[] runCounts;
+    private int runCount;
+
+    // the total number of blocks
+    private int size;
+
+    // the number of blocks of each type, indexed by BlockType.getCode()
+    private final int[] typeCounts;
+
+    // the run containing the block returned by the last call to get(),
+    // and the index of the first block of that run, so that iterating in
+    // order does not search from the start each time
+    private int cursorRun;
+    private int cursorStart;
+
+    /**
+     * Construct an empty inventory.
+     */
+    Inventory() {
+        runBlocks = new Block[INITIAL_RUNS];
+        runCounts = new int[INITIAL_RUNS];
+        typeCounts = new int[BlockType.values().length];
+    }
+
+    @Override
+    public Block get(int index) {
+        return runBlocks[findRun(index)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of blocks of a type.
+     * @param type the type of block
+     * @return the number of blocks of that type
+     */
+    int count(BlockType type) {
+        return typeCounts[type.getCode()];
+    }
+
+    /**
+     * Get the index of the last block of a type.
+     * @param type the type of block
+     * @return the largest index of a block of that type, or -1 if there
+     *         are none
+     */
+    int lastIndexOfType(BlockType type) {
+        if (count(type) == 0) {
+            return -1;
+        }
+
+        int end = size;
+        for (int run = runCount - 1; run >= 0; run--) {
+            if (runBlocks[run] == type.getBlock()) {
+                return end - 1;
+            }
+            end -= runCounts[run];
+        }
+        return -1;
+    }
+
+    /**
+     * Add a block to the end of the inventory.
+     * @param block the block to add
+     */
+    void addBlock(Block block) {
+        BlockType type = BlockType.of(block);
+        Block stored = type == null ? block : type.getBlock();
+
+        if (type != null && runCount > 0
+                && runBlocks[runCount - 1] == stored) {
+            runCounts[runCount - 1]++;
+        } else {
+            appendRun(stored);
+        }
+
+        if (type != null) {
+            typeCounts[type.getCode()]++;
+        }
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Remove the block at an index, moving later blocks down by one.
+     * @param index the index of the block
+     * @return the removed block
+     * @throws IndexOutOfBoundsException if index &lt; 0 or
+     *         index &ge; size()
+     */
+    Block removeBlockAt(int index) {
+        int run = findRun(index);
+        Block block = runBlocks[run];
+
+        BlockType type = BlockType.of(block);
+        if (type != null) {
+            typeCounts[type.getCode()]--;
+        }
+        size--;
+
+        if (--runCounts[run] == 0) {
+            removeRun(run);
+
+            // the runs either side may now be the same type
+            if (run > 0 && run < runCount
+                    && runBlocks[run - 1] == runBlocks[run]
+                    && BlockType.of(runBlocks[run]) != null) {
+                runCounts[run - 1] += runCounts[run];
+                removeRun(run);
+            }
+        }
+
+        // runs have moved, so restart the cursor
+        cursorRun = 0;
+        cursorStart = 0;
+        modCount++;
+        return block;
+    }
+
+    /**
+     * Find the run that contains the block at an index, and move the
+     * cursor to it.
+     * @param index the index of the block
+     * @return the run containing the block
+     * @throws IndexOutOfBoundsException if index &lt; 0 or
+     *         index &ge; size()
+     */
+    private int findRun(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size);
+        }
+
+        if (index >= size - runCounts[runCount - 1]) {
+            // the last run, where blocks are usually added and removed
+            cursorRun = runCount - 1;
+            cursorStart = size - runCounts[runCount - 1];
+        } else if (index < cursorStart) {
+            cursorRun = 0;
+            cursorStart = 0;
+        }
+
+        while (index >= cursorStart + runCounts[cursorRun]) {
+            cursorStart += runCounts[cursorRun];
+            cursorRun++;
+        }
+        return cursorRun;
+    }
+
+    /**
+     * Add a run of one block after the last run.
+     */
+    private void appendRun(Block block) {
+        if (runCount == runBlocks.length) {
+            Block[] newBlocks = new Block[runCount * 2];
+            int[] newCounts = new int[runCount * 2];
+            System.arraycopy(runBlocks, 0, newBlocks, 0, runCount);
+            System.arraycopy(runCounts, 0, newCounts, 0, runCount);
+            runBlocks = newBlocks;
+            runCounts = newCounts;
+        }
+
+        runBlocks[runCount] = block;
+        runCounts[runCount] = 1;
+        runCount++;
+    }
+
+    /**
+     * Remove the run at an index.
+     */
+    private void removeRun(int run) {
+        System.arraycopy(runBlocks, run + 1, runBlocks, run,
+                runCount - run - 1);
+        System.arraycopy(runCounts, run + 1, runCounts, run,
+                runCount - run - 1);
+        runCount--;
+        runBlocks[runCount] = null;
+    }
+}
@@ -0,0 +1,194 @@
+package csse2002.block.world;
+
+/**
+ * An open-addressing hash map from primitive long keys to non-null values.
+ * <br>
+ * Keys are stored in a flat long array and probed linearly, so lookups do
+ * not allocate and neighbouring probes stay in the same cache lines. <br>
+ * Used to index tiles by a packed (x, y) position
+ * (see {@link Position#toKey(int, int) Position.toKey()}).
+ * @param <V> the type of the values stored in the map
+ * @serial exclude
+ */
+final class LongHashMap<V> {
+
+    // the initial number of slots (must be a power of two)
+    private static final int INITIAL_CAPACITY = 16;
+
+    // keys of each slot, only meaningful if the matching value is non-null
+    private long[] keys;
+
+    // values of each slot, null for an empty slot
+    private Object[] values;
+
+    // the number of entries in the map
+    private int size;
+
+    // the number of entries at which the table is grown
+    private int resizeThreshold;
+
+    /**
+     * Construct an empty map.
+     */
+    LongHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct an empty map that can hold expectedSize entries without
+     * growing.
+     * @param expectedSize the expected number of entries
+     */
+    LongHashMap(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity / 4 * 3 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Get the value for key, or null if there is no such entry.
+     * @param key the key to look up
+     * @return the value for key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = keys.length - 1;
+        int slot = slotFor(key, mask);
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Associate value with key, replacing any existing value.
+     * @param key the key to store the value under
+     * @param value the value to store
+     * @return the previous value for key, or null if there was none
+     * @require value != null
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        int mask = keys.length - 1;
+        int slot = slotFor(key, mask);
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * Remove the entry for key, if it exists.
+     * @param key the key to remove
+     * @return the removed value, or null if there was no entry
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slotFor(key, mask);
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                closeGap(slot, mask);
+                size--;
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of entries in the map.
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Shift entries following an emptied slot back into it, so that
+     * every remaining key is still reachable from its home slot.
+     * @param gap the slot that was emptied
+     * @param mask the table mask
+     */
+    private void closeGap(int gap, int mask) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == null) {
+                break;
+            }
+
+            int home = slotFor(keys[slot], mask);
+            // move the entry back if its home slot is not between
+            // the gap and its current slot (cyclically)
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = null;
+    }
+
+    /**
+     * Double the number of slots and re-insert every entry.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length << 1);
+
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotFor(oldKeys[i], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocate empty tables with the given number of slots.
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeThreshold = capacity / 4 * 3;
+    }
+
+    /**
+     * Get the home slot for a key. The key bits are mixed so that
+     * nearby positions do not cluster in neighbouring slots.
+     * @param key the key
+     * @param mask the table mask
+     * @return the home slot of key
+     */
+    private static int slotFor(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,93 @@
+package csse2002.block.world;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive longs, stored in a single array that is
+ * reused after clear(), so adding and removing entries does not allocate
+ * once the array is large enough. <br>
+ * Used as the open set of route searches, with each entry packing a
+ * priority into the high bits and a tile index into the low bits.
+ * @serial exclude
+ */
+final class LongMinHeap {
+
+    // the entries, in heap order. Only the first size elements are used
+    private long[] entries;
+    private int size;
+
+    /**
+     * Construct an empty heap.
+     * @param capacity the number of entries the heap can hold before it
+     *                 grows, at least 1
+     */
+    LongMinHeap(int capacity) {
+        entries = new long[capacity];
+    }
+
+    /**
+     * Is the heap empty?
+     * @return true if there are no entries
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove every entry, keeping the array.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add an entry.
+     * @param entry the entry to add
+     */
+    void add(long entry) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+
+        // sift up
+        int child = size++;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (entries[parent] <= entry) {
+                break;
+            }
+            entries[child] = entries[parent];
+            child = parent;
+        }
+        entries[child] = entry;
+    }
+
+    /**
+     * Remove the smallest entry.
+     * @return the removed entry
+     * @require !isEmpty()
+     */
+    long poll() {
+        long result = entries[0];
+        long last = entries[--size];
+
+        // sift down
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && entries[child + 1] < entries[child]) {
+                child++;
+            }
+            if (last <= entries[child]) {
+                break;
+            }
+            entries[parent] = entries[child];
+            parent = child;
+        }
+        if (size > 0) {
+            entries[parent] = last;
+        }
+        return result;
+    }
+}
@@ -1,9 +1,8 @@
 package csse2002.block.world;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.channels.Channels;
 
 /**
  * Handles top-level interaction with performing actions on a WorldMap.
@@ -20,27 +19,57 @@ public class Main {
      * The actions parameter can be either a filename, or the string
      * "System.in". <br>
      *
+     * The parameters can be preceded by an option choosing how the results
+     * of the actions are output (args[0]), which is one of:
+     * <ul>
+     *     <li> "--output=text": print a line for each result, as described
+     *          in Action.processAction() (the default). The lines are
+     *          buffered by a TextResultSink, which prints the same bytes as
+     *          System.out.println() would. If the actions are read from
+     *          System.in, each line is flushed as soon as it is written,
+     *          so the result of each action typed is seen at once. </li>
+     *     <li> "--output=summary": print only the number of results of
+     *          each kind once the actions have been processed (see
+     *          SummaryResultSink.print()). </li>
+     *     <li> "--output=silent": print nothing for the actions. </li>
+     * </ul>
+     *
+     * Alternatively, takes the single parameter "--batch={manifest}" to run
+     * every job listed in a manifest file (see ActionBatch.loadManifest())
+     * concurrently, printing a report of each job and the totals for the
+     * batch (see ActionBatch.run()). If the manifest cannot be loaded, the
+     * exception is printed using System.err.println() and the program exits
+     * with status 2. If any job fails (with a status as described in
+     * BatchJob), the program exits with status 6 once every job has been
+     * reported. <br>
+     *
      * This function does the following:
      * <ol>
-     *     <li> If there are not 3 parameters, (i.e. args.length
-     *          {@literal != 3}), print
+     *     <li> If there are not 3 parameters after the option (if any),
+     *          or the option is not one of those above, print
      *          "Usage: program inputMap actions outputMap"
      *           using System.err.println() and then exit with status 1
      *           (Hint: use System.exit()) </li>
      *     <li> Create a new WorldMap using the input map file. If an
      *          exception is thrown, print the exception to the console using
      *          System.err.println(), and then exit with status 2. </li>
-     *     <li> Create a BufferedReader to read actions. If parameter 2 is
-     *          a filename, the BufferedReader should be initialised using a
-     *          new FileReader. If parameter 2 is the string "System.in", the
-     *          buffered reader should be initialised using System.in and
-     *          a new InputStreamReader. If an exception is thrown, print
-     *          the exception to the console using System.err.println, and
-     *          then exit with status 3. </li>
-     *     <li> Call Action.processActions() using the created BufferedReader
-     *          and WorldMap. If an exception is thrown, print the exception to
-     *          the console using System.err.println, and then exit with
-     *          status 4. </li>
+     *     <li> Create an ActionDecoder to read actions (which can be an
+     *          action file, or an action log converted from one by
+     *          ActionLog). If parameter 2 is
+     *          a filename, the decoder should read the channel of a new
+     *          FileInputStream. If parameter 2 is the string "System.in", the
+     *          decoder should read a channel of System.in. If an exception
+     *          is thrown, print the exception to the console using
+     *          System.err.println, and then exit with status 3. </li>
+     *     <li> Call ActionPipeline.processActions() using the created
+     *          ActionDecoder, WorldMap and the ActionResultSink for the
+     *          output option, which reads the actions, performs them and
+     *          outputs their results on separate threads (giving the same
+     *          output, in the same order, as Action.processActions() or
+     *          reading the actions with a BufferedReader). For the summary
+     *          option, print the summary. If an exception is thrown, print
+     *          the exception to the console using System.err.println
+     *          (after the summary), and then exit with status 4. </li>
      *     <li> Call WorldMap.saveMap() using the 3rd parameter to save the map
      *          to an output file. If an exception is thrown, print the
      *          exception to the console using System.err.println() and then
@@ -53,15 +82,26 @@ public class Main {
      * @param args the input arguments to the program
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
+        if (args.length == 1 && args[0].startsWith("--batch=")) {
+            runBatch(args[0].substring("--batch=".length()));
+            return;
+        }
+
+        int first = args.length == 4 ? 1 : 0;
+        ActionResultSink sink = null;
+        if (args.length == 3 || args.length == 4) {
+            sink = createSink(first == 1 ? args[0] : "--output=text",
+                    args[first + 1].equals("System.in"));
+        }
+        if (sink == null) {
             System.err.println(
                     "Usage: program inputMap inoutActions outputMap");
             System.exit(1);
         }
 
-        String inputMap = args[0];
-        String inputActions = args[1];
-        String outputMap = args[2];
+        String inputMap = args[first];
+        String inputActions = args[first + 1];
+        String outputMap = args[first + 2];
 
         // read in a WorldMap
         WorldMap map = null;
@@ -72,15 +112,15 @@ public class Main {
             System.exit(2);
         }
 
-        // Setup a buffered reader to either read from System.in, or from
-        // a file.
-        BufferedReader reader = null;
+        // Setup a decoder to either read from System.in, or from a file.
+        ActionDecoder decoder = null;
         try {
 
             if (inputActions.equals("System.in")) {
-                reader = new BufferedReader(new InputStreamReader(System.in));
+                decoder = new ActionDecoder(Channels.newChannel(System.in));
             } else {
-                reader = new BufferedReader(new FileReader(inputActions));
+                decoder = new ActionDecoder(
+                        new FileInputStream(inputActions).getChannel());
             }
         } catch (IOException io) {
             System.err.println(io);
@@ -88,11 +128,13 @@ public class Main {
         }
 
         try {
-            Action.processActions(reader, map);
+            ActionPipeline.processActions(decoder, map, sink);
         } catch (ActionFormatException format) {
+            printSummary(sink);
             System.err.println(format);
             System.exit(4);
         }
+        printSummary(sink);
 
         try {
             map.saveMap(outputMap);
@@ -102,4 +144,55 @@ public class Main {
         }
     }
 
+    /**
+     * Run the jobs listed in a manifest, and exit with status 2 if the
+     * manifest cannot be loaded, or 6 if any job fails.
+     * @param manifest the filename of the manifest
+     */
+    private static void runBatch(String manifest) {
+        ActionBatch batch = null;
+        try {
+            batch = ActionBatch.loadManifest(manifest);
+        } catch (BlockWorldException | IOException e) {
+            System.err.println(e);
+            System.exit(2);
+        }
+
+        if (batch.run(System.out) > 0) {
+            System.exit(6);
+        }
+    }
+
+    /**
+     * Create the sink for the results of actions chosen by an output
+     * option.
+     * @param option the option, such as "--output=text"
+     * @param interactive true if the actions are read from System.in, so
+     *                    text output is flushed after every line
+     * @return the sink, or null if the option is not valid
+     */
+    private static ActionResultSink createSink(String option,
+                                               boolean interactive) {
+        switch (option) {
+            case "--output=text":
+                return new TextResultSink(System.out, interactive);
+            case "--output=summary":
+                return new SummaryResultSink();
+            case "--output=silent":
+                return ActionResultSink.SILENT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Print the counts of a summary sink to System.out.
+     * @param sink the sink the results of the actions were given to
+     */
+    private static void printSummary(ActionResultSink sink) {
+        if (sink instanceof SummaryResultSink) {
+            ((SummaryResultSink) sink).print(System.out);
+        }
+    }
+
 }
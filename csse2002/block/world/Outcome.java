@@ -0,0 +1,44 @@
+package csse2002.block.world;
+
+/**
+ * The outcome of an attempt to change a {@link Tile Tile} or move a
+ * {@link Builder Builder}, as returned by the "try" methods of those
+ * classes (such as Tile.tryDig() and Builder.tryMoveTo()). <br>
+ * Each kind of failure corresponds to the exception thrown by the method
+ * without "try" (such as Tile.dig() and Builder.moveTo()), which is
+ * written in terms of the "try" method. Failures are common when
+ * replaying actions, and returning an outcome avoids creating an
+ * exception (and filling in its stack trace) for each one.
+ * @serial exclude
+ */
+public enum Outcome {
+
+    /**
+     * The change was made.
+     */
+    SUCCESS,
+
+    /**
+     * The change was not made, because there is no exit that can be used
+     * (a {@link NoExitException NoExitException}).
+     */
+    NO_EXIT,
+
+    /**
+     * The change was not made, because a tile has too many blocks
+     * (a {@link TooHighException TooHighException}).
+     */
+    TOO_HIGH,
+
+    /**
+     * The change was not made, because a tile has no blocks
+     * (a {@link TooLowException TooLowException}).
+     */
+    TOO_LOW,
+
+    /**
+     * The change was not made, because a block cannot be used that way
+     * (an {@link InvalidBlockException InvalidBlockException}).
+     */
+    INVALID_BLOCK
+}
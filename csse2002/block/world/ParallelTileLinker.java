@@ -0,0 +1,426 @@
+package csse2002.block.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Places a set of linked tiles using a level-synchronous breadth-first
+ * search, in which the exits of every tile in a level are checked in
+ * parallel. <br>
+ * Each level claims positions and tiles in two lock-free tables. Once a
+ * level is complete, its new tiles are collected in the order that a
+ * sequential breadth-first search would have visited them, so the
+ * resulting order is identical to {@link SparseTileArray#addLinkedTiles
+ * SparseTileArray.addLinkedTiles()}. <br>
+ * Used by {@link SparseTileArray#addLinkedTilesInParallel
+ * SparseTileArray.addLinkedTilesInParallel()}.
+ * @serial exclude
+ */
+final class ParallelTileLinker {
+
+    // directions, in the order their exits are processed
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // levels with fewer tiles than this are processed on a single thread
+    private static final int PARALLEL_LEVEL_SIZE = 512;
+
+    // the number of tiles processed by each parallel task
+    private static final int TILES_PER_TASK = 128;
+
+    // claims of positions, from position key to tile
+    private final PositionClaims positionClaims = new PositionClaims();
+
+    // claims of tiles, from tile to position key
+    private final TileClaims tileClaims = new TileClaims();
+
+    // placed tiles, in breadth-first order, and their position keys
+    private final List<Tile> orderedTiles = new ArrayList<>();
+    private long[] orderedKeys = new long[16];
+
+    /**
+     * Place startingTile at (startingX, startingY), and every tile linked
+     * to it, checking that they are geometrically consistent.
+     * @param startingTile the tile to start from
+     * @param startingX the x coordinate of startingTile
+     * @param startingY the y coordinate of startingTile
+     * @throws WorldMapInconsistentException if the tiles are not
+     *         geometrically consistent
+     */
+    void link(Tile startingTile, int startingX, int startingY)
+            throws WorldMapInconsistentException {
+        long startingKey = Position.toKey(startingX, startingY);
+        positionClaims.claim(startingKey, startingTile);
+        tileClaims.markPlaced(tileClaims.claim(startingTile, startingKey));
+        emit(startingTile, startingKey);
+
+        int levelStart = 0;
+        while (levelStart < orderedTiles.size()) {
+            int levelEnd = orderedTiles.size();
+            processLevel(levelStart, levelEnd);
+            levelStart = levelEnd;
+        }
+    }
+
+    /**
+     * Get the placed tiles, in breadth-first order.
+     * @return the placed tiles
+     */
+    List<Tile> getOrderedTiles() {
+        return orderedTiles;
+    }
+
+    /**
+     * Get the position key (see Position.toKey()) of the placed tile at
+     * the given index of getOrderedTiles().
+     * @param index the index of the tile
+     * @return the position key of the tile
+     */
+    long getKey(int index) {
+        return orderedKeys[index];
+    }
+
+    /**
+     * Check the exits of the tiles between levelStart (inclusive) and
+     * levelEnd (exclusive) of orderedTiles, and append the tiles of the
+     * next level.
+     * @param levelStart the index of the first tile in the level
+     * @param levelEnd one past the index of the last tile in the level
+     * @throws WorldMapInconsistentException if an exit of a tile in the
+     *         level is not geometrically consistent
+     */
+    private void processLevel(int levelStart, int levelEnd)
+            throws WorldMapInconsistentException {
+        int levelSize = levelEnd - levelStart;
+        int slotCount = levelSize * DIRECTIONS.length;
+
+        // each level can claim at most one position per exit
+        positionClaims.ensureCapacity(orderedTiles.size() + slotCount);
+        tileClaims.ensureCapacity(orderedTiles.size() + slotCount);
+
+        // the tile found at each exit of the level, the tile claims slot
+        // of that tile if it was first claimed in this level (or -1), and
+        // the reason the exit is inconsistent (or null)
+        Tile[] slotTiles = new Tile[slotCount];
+        int[] slotClaims = new int[slotCount];
+        String[] slotErrors = new String[slotCount];
+
+        int taskCount = (levelSize + TILES_PER_TASK - 1) / TILES_PER_TASK;
+        IntStream tasks = IntStream.range(0, taskCount);
+        if (levelSize >= PARALLEL_LEVEL_SIZE) {
+            tasks = tasks.parallel();
+        }
+        tasks.forEach(task -> {
+            int from = levelStart + task * TILES_PER_TASK;
+            int to = Math.min(levelEnd, from + TILES_PER_TASK);
+            for (int i = from; i < to; i++) {
+                processExits(i, (i - levelStart) * DIRECTIONS.length,
+                        slotTiles, slotClaims, slotErrors);
+            }
+        });
+
+        // report the first inconsistency in breadth-first order
+        for (String error : slotErrors) {
+            if (error != null) {
+                throw new WorldMapInconsistentException(error);
+            }
+        }
+
+        // a tile may be reached by several exits in the same level; it
+        // is placed at the first of them, as in a sequential search
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotTiles[slot] != null && slotClaims[slot] >= 0
+                    && tileClaims.markPlaced(slotClaims[slot])) {
+                emit(slotTiles[slot], tileClaims.keyAt(slotClaims[slot]));
+            }
+        }
+    }
+
+    /**
+     * Check the exits of a single tile, claiming the position and tile at
+     * each exit. This may be called from several threads at once.
+     * @param index the index of the tile in orderedTiles
+     * @param firstSlot the slot for the first exit of the tile
+     * @param slotTiles the tile found at each slot
+     * @param slotClaims the tile claims slot of each tile that was
+     *        first claimed in this level, or -1
+     * @param slotErrors the reason each slot is inconsistent, or null
+     */
+    private void processExits(int index, int firstSlot, Tile[] slotTiles,
+                              int[] slotClaims, String[] slotErrors) {
+        Tile tile = orderedTiles.get(index);
+        long key = orderedKeys[index];
+        int x = Position.keyX(key);
+        int y = Position.keyY(key);
+
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            int slot = firstSlot + i;
+            slotClaims[slot] = -1;
+
+            Tile tileInDirection = tile.getExit(DIRECTIONS[i]);
+            if (tileInDirection == null) {
+                continue;
+            }
+
+            long keyInDirection = Position.toKey(x + DIRECTIONS[i].getDx(),
+                    y + DIRECTIONS[i].getDy());
+
+            Tile tileToTest = positionClaims.claim(keyInDirection,
+                    tileInDirection);
+            int claim = tileClaims.claim(tileInDirection, keyInDirection);
+            long keyToTest = tileClaims.keyAt(claim);
+
+            if (keyToTest != keyInDirection) {
+                slotErrors[slot] = "Tile that should be at "
+                        + toString(keyInDirection)
+                        + " is already assigned a different position at "
+                        + toString(keyToTest);
+            } else if (tileToTest != null && tileToTest != tileInDirection) {
+                slotErrors[slot] = "Position " + toString(keyInDirection)
+                        + " is already occupied by a different tile.";
+            } else {
+                slotTiles[slot] = tileInDirection;
+                if (!tileClaims.isPlaced(claim)) {
+                    slotClaims[slot] = claim;
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a tile to the placed tiles.
+     * @param tile the tile
+     * @param key the position key of the tile
+     */
+    private void emit(Tile tile, long key) {
+        int index = orderedTiles.size();
+        if (index == orderedKeys.length) {
+            long[] grown = new long[index * 2];
+            System.arraycopy(orderedKeys, 0, grown, 0, index);
+            orderedKeys = grown;
+        }
+        orderedKeys[index] = key;
+        orderedTiles.add(tile);
+    }
+
+    /**
+     * Format a position key in the same way as Position.toString().
+     * @param key the position key
+     * @return "(x, y)"
+     */
+    private static String toString(long key) {
+        return "(" + Position.keyX(key) + ", " + Position.keyY(key) + ")";
+    }
+
+    /**
+     * Get the number of slots needed to hold count entries at a load
+     * factor of at most one half.
+     * @param count the number of entries
+     * @return a power of two of at least 2 * count
+     */
+    private static int capacityFor(int count) {
+        int capacity = 16;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Mix the bits of a hash so that nearby values spread across slots.
+     * @param hash the hash to mix
+     * @return the mixed hash
+     */
+    private static int mix(long hash) {
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /*
+     * Slot states for the claim tables. A slot is claimed by moving it
+     * from EMPTY to WRITING, and becomes visible to other threads once
+     * its contents are written and it is moved to READY.
+     */
+    private static final int EMPTY = 0;
+    private static final int WRITING = 1;
+    private static final int READY = 2;
+
+    /**
+     * Wait for a slot that another thread is writing to become READY.
+     * @param states the slot states
+     * @param slot the slot to wait for
+     */
+    private static void awaitReady(AtomicIntegerArray states, int slot) {
+        while (states.get(slot) != READY) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * A lock-free table of claims from position keys to tiles. It can only
+     * be grown while no claims are being made.
+     */
+    private static final class PositionClaims {
+        private AtomicIntegerArray states = new AtomicIntegerArray(16);
+        private long[] keys = new long[16];
+        private Tile[] tiles = new Tile[16];
+
+        /**
+         * Claim a position for a tile, unless it has already been claimed.
+         * @param key the position key
+         * @param tile the tile to claim the position for
+         * @return null if the position was claimed for tile, otherwise
+         *         the tile that had already claimed it
+         */
+        Tile claim(long key, Tile tile) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (true) {
+                int state = states.get(slot);
+                if (state == EMPTY) {
+                    if (states.compareAndSet(slot, EMPTY, WRITING)) {
+                        keys[slot] = key;
+                        tiles[slot] = tile;
+                        states.set(slot, READY);
+                        return null;
+                    }
+                    // another thread took the slot, so look at it again
+                    continue;
+                }
+                if (state == WRITING) {
+                    awaitReady(states, slot);
+                }
+                if (keys[slot] == key) {
+                    return tiles[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Grow the table, if needed, to hold count claims.
+         * @param count the number of claims
+         */
+        void ensureCapacity(int count) {
+            int capacity = capacityFor(count);
+            if (capacity <= keys.length) {
+                return;
+            }
+
+            AtomicIntegerArray oldStates = states;
+            long[] oldKeys = keys;
+            Tile[] oldTiles = tiles;
+            states = new AtomicIntegerArray(capacity);
+            keys = new long[capacity];
+            tiles = new Tile[capacity];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldStates.get(i) == READY) {
+                    claim(oldKeys[i], oldTiles[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A lock-free table of claims from tiles (by identity) to position
+     * keys, which also records which tiles have been placed. It can only
+     * be grown while no claims are being made.
+     */
+    private static final class TileClaims {
+        private AtomicIntegerArray states = new AtomicIntegerArray(16);
+        private Tile[] tiles = new Tile[16];
+        private long[] keys = new long[16];
+        private boolean[] placed = new boolean[16];
+
+        /**
+         * Claim a position for a tile, unless the tile has already been
+         * claimed.
+         * @param tile the tile
+         * @param key the position key to claim for the tile
+         * @return the slot holding the claim for tile
+         */
+        int claim(Tile tile, long key) {
+            int mask = tiles.length - 1;
+            int slot = mix(System.identityHashCode(tile)) & mask;
+            while (true) {
+                int state = states.get(slot);
+                if (state == EMPTY) {
+                    if (states.compareAndSet(slot, EMPTY, WRITING)) {
+                        tiles[slot] = tile;
+                        keys[slot] = key;
+                        states.set(slot, READY);
+                        return slot;
+                    }
+                    continue;
+                }
+                if (state == WRITING) {
+                    awaitReady(states, slot);
+                }
+                if (tiles[slot] == tile) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Get the position key claimed in a slot.
+         * @param slot the slot returned by claim()
+         * @return the position key
+         */
+        long keyAt(int slot) {
+            return keys[slot];
+        }
+
+        /**
+         * Check whether the tile in a slot was placed in an earlier level.
+         * @param slot the slot returned by claim()
+         * @return true if the tile has been placed
+         */
+        boolean isPlaced(int slot) {
+            return placed[slot];
+        }
+
+        /**
+         * Record that the tile in a slot has been placed. Must not be
+         * called while claims are being made.
+         * @param slot the slot returned by claim()
+         * @return true if the tile had not been placed before
+         */
+        boolean markPlaced(int slot) {
+            if (placed[slot]) {
+                return false;
+            }
+            placed[slot] = true;
+            return true;
+        }
+
+        /**
+         * Grow the table, if needed, to hold count claims.
+         * @param count the number of claims
+         */
+        void ensureCapacity(int count) {
+            int capacity = capacityFor(count);
+            if (capacity <= tiles.length) {
+                return;
+            }
+
+            AtomicIntegerArray oldStates = states;
+            Tile[] oldTiles = tiles;
+            long[] oldKeys = keys;
+            boolean[] oldPlaced = placed;
+            states = new AtomicIntegerArray(capacity);
+            tiles = new Tile[capacity];
+            keys = new long[capacity];
+            placed = new boolean[capacity];
+
+            for (int i = 0; i < oldTiles.length; i++) {
+                if (oldStates.get(i) == READY) {
+                    placed[claim(oldTiles[i], oldKeys[i])] = oldPlaced[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package csse2002.block.world;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the shortest routes that a {@link Builder Builder} can take between
+ * tiles of a {@link WorldMap WorldMap} or a {@link CompactWorld
+ * CompactWorld}. <br>
+ * A route only follows exits in the four compass directions that the
+ * builder could move through (see {@link Tile#getWalkableMask()
+ * Tile.getWalkableMask()}), so each step of a route can be taken with
+ * Builder.moveTo(). <br>
+ * Routes are found by an A* search, using the Manhattan distance between
+ * tile positions as the estimate of the remaining distance. The search
+ * keeps its working state in arrays indexed by
+ * {@link WorldMap#getTileIndex(Tile) WorldMap.getTileIndex()} (or by tile
+ * id in a compact world), which are reused by later searches, so finding a
+ * route does not allocate once the arrays are large enough for the map.
+ * In a compact world the search reads the tile arrays directly, so it does
+ * not create a view of each tile it visits. <br>
+ * The route found by the last search is read with getPathLength() and
+ * getStep(). A PathFinder is not thread-safe.
+ * @serial exclude
+ */
+public class PathFinder {
+
+    // directions, in the order exits are searched
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // the initial number of tiles the working arrays can hold
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the map to search, or null if searching a compact world
+    private final WorldMap map;
+
+    // the compact world to search, or null if searching a map
+    private final CompactWorld world;
+
+    // the search that last reached each tile. The other arrays only hold
+    // valid values for a tile if its mark is the current search
+    private int[] marks;
+    private int search;
+
+    // the number of steps from the start to each tile reached
+    private int[] distances;
+
+    // the tile that each tile was reached from, and the ordinal of the
+    // direction it was reached in
+    private int[] parents;
+    private byte[] directions;
+
+    // the position of each tile reached
+    private int[] xs;
+    private int[] ys;
+
+    // tiles waiting to be expanded, each stored as
+    // (estimated route length << 32) | tile index
+    private final LongMinHeap open;
+
+    // the direction ordinals of the last route found, first step first
+    private byte[] path;
+    private int pathLength = -1;
+
+    /**
+     * Construct a path finder for a world map. <br>
+     * The path finder follows changes to the map, including tiles added
+     * with attachLinkedTiles().
+     * @param map the map to find routes in
+     * @require map != null
+     */
+    public PathFinder(WorldMap map) {
+        this(map, null);
+    }
+
+    /**
+     * Construct a path finder for a compact world. <br>
+     * The path finder follows changes to the world (but not to its
+     * snapshots, which need path finders of their own).
+     * @param world the world to find routes in
+     * @require world != null
+     */
+    public PathFinder(CompactWorld world) {
+        this(null, world);
+    }
+
+    /**
+     * Construct a path finder for a map or a compact world.
+     * @param map the map to search, or null
+     * @param world the compact world to search, or null
+     */
+    private PathFinder(WorldMap map, CompactWorld world) {
+        this.map = map;
+        this.world = world;
+        allocate(INITIAL_CAPACITY);
+        open = new LongMinHeap(INITIAL_CAPACITY);
+        path = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Find the shortest route from one tile to another. <br>
+     * The route can then be read with getPathLength() and getStep().
+     * @param start the tile the route starts on
+     * @param goal the tile the route ends on
+     * @return the number of steps in the route (0 if start == goal), or -1
+     *         if either tile is not in the map, or there is no route
+     * @require start != null
+     * @require goal != null
+     */
+    public int findPath(Tile start, Tile goal) {
+        pathLength = -1;
+
+        int startIndex = getTileIndex(start);
+        int goalIndex = getTileIndex(goal);
+        if (startIndex < 0 || goalIndex < 0) {
+            return -1;
+        }
+
+        List<Tile> tiles = world == null ? map.getTiles() : null;
+        int tileCount = world == null ? tiles.size() : world.getTileCount();
+        if (marks.length < tileCount) {
+            allocate(Math.max(tileCount, marks.length * 2));
+        }
+        nextSearch();
+
+        int startX;
+        int startY;
+        int goalX;
+        int goalY;
+        if (world == null) {
+            Position startPosition = map.getPosition(start);
+            Position goalPosition = map.getPosition(goal);
+            startX = startPosition.getX();
+            startY = startPosition.getY();
+            goalX = goalPosition.getX();
+            goalY = goalPosition.getY();
+        } else {
+            startX = world.getX(startIndex);
+            startY = world.getY(startIndex);
+            goalX = world.getX(goalIndex);
+            goalY = world.getY(goalIndex);
+        }
+
+        open.clear();
+        reach(startIndex, -1, -1, startX, startY, 0, goalX, goalY);
+
+        while (!open.isEmpty()) {
+            long entry = open.poll();
+            int index = (int) entry;
+            int distance = distances[index];
+            int x = xs[index];
+            int y = ys[index];
+
+            // skip entries for tiles that were reached again by a shorter
+            // route after they were added
+            if ((int) (entry >>> 32)
+                    > distance + Math.abs(goalX - x) + Math.abs(goalY - y)) {
+                continue;
+            }
+
+            if (index == goalIndex) {
+                storePath(goalIndex, distance);
+                return pathLength;
+            }
+
+            Tile tile = world == null ? tiles.get(index) : null;
+            int walkable = world == null ? tile.getWalkableMask()
+                    : world.getWalkableMask(index);
+            for (Direction direction : DIRECTIONS) {
+                if ((walkable & direction.getBit()) == 0) {
+                    continue;
+                }
+
+                int next = world == null
+                        ? map.getTileIndex(tile.getExit(direction))
+                        : world.getExitId(index, direction);
+                if (next < 0 || (marks[next] == search
+                        && distances[next] <= distance + 1)) {
+                    continue;
+                }
+
+                reach(next, index, direction.ordinal(),
+                        x + direction.getDx(), y + direction.getDy(),
+                        distance + 1, goalX, goalY);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of steps in the route found by the last call to
+     * findPath().
+     * @return the number of steps, or -1 if the last call did not find a
+     *         route (or findPath() has not been called)
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Get a step of the route found by the last call to findPath().
+     * @param step the index of the step, starting from 0
+     * @return the direction to move in for that step
+     * @require 0 &lt;= step &lt; getPathLength()
+     */
+    public Direction getStep(int step) {
+        return Direction.fromOrdinal(path[step]);
+    }
+
+    /**
+     * Get the index of a tile in the map or compact world being searched.
+     * @param tile the tile
+     * @return the index of the tile, or -1 if it is not in the map
+     */
+    private int getTileIndex(Tile tile) {
+        return world == null ? map.getTileIndex(tile)
+                : world.getTileIndex(tile);
+    }
+
+    /**
+     * Record that a tile has been reached by a route, and add it to the
+     * tiles waiting to be expanded.
+     * @param index the index of the tile
+     * @param parent the index of the tile it was reached from, or -1
+     * @param direction the ordinal of the direction it was reached in,
+     *                  or -1
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @param distance the number of steps in the route
+     * @param goalX the x coordinate of the goal
+     * @param goalY the y coordinate of the goal
+     */
+    private void reach(int index, int parent, int direction, int x, int y,
+                       int distance, int goalX, int goalY) {
+        marks[index] = search;
+        distances[index] = distance;
+        parents[index] = parent;
+        directions[index] = (byte) direction;
+        xs[index] = x;
+        ys[index] = y;
+
+        long estimate = distance + Math.abs(goalX - x) + Math.abs(goalY - y);
+        open.add((estimate << 32) | index);
+    }
+
+    /**
+     * Store the route to a tile, by following the tiles each was reached
+     * from back to the start.
+     * @param goalIndex the index of the last tile of the route
+     * @param length the number of steps in the route
+     */
+    private void storePath(int goalIndex, int length) {
+        if (path.length < length) {
+            path = new byte[Math.max(length, path.length * 2)];
+        }
+
+        int index = goalIndex;
+        for (int step = length - 1; step >= 0; step--) {
+            path[step] = directions[index];
+            index = parents[index];
+        }
+        pathLength = length;
+    }
+
+    /**
+     * Start a new search, so that every tile is unreached.
+     */
+    private void nextSearch() {
+        search++;
+        if (search == 0) {
+            // the marks have wrapped around, so clear them
+            Arrays.fill(marks, 0);
+            search = 1;
+        }
+    }
+
+    /**
+     * Replace the per-tile arrays with empty arrays.
+     * @param capacity the number of tiles the arrays can hold
+     */
+    private void allocate(int capacity) {
+        marks = new int[capacity];
+        distances = new int[capacity];
+        parents = new int[capacity];
+        directions = new byte[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+    }
+}
@@ -37,6 +37,36 @@ public class Position implements Comparable<Position> {
         return y;
     }
 
+    /**
+     * Pack the coordinates (x, y) into a single long, with x in the high
+     * 32 bits and y in the low 32 bits. <br>
+     * Two positions are equal iff their packed keys are equal.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the packed key for (x, y)
+     */
+    static long toKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the x coordinate of a key created by toKey().
+     * @param key the packed key
+     * @return the x coordinate
+     */
+    static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Get the y coordinate of a key created by toKey().
+     * @param key the packed key
+     * @return the y coordinate
+     */
+    static int keyY(long key) {
+        return (int) key;
+    }
+
     /**
      * Indicates whether some other object is "equal to" this one.
      * (see
@@ -0,0 +1,533 @@
+package csse2002.block.world;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The connected components of the tiles of a {@link WorldMap WorldMap}
+ * that a {@link Builder Builder} can walk between, kept up to date as the
+ * map changes, so that whether one tile can be reached from another is
+ * answered without searching the map. <br>
+ * Two neighbouring tiles are joined if the builder can move from either
+ * one to the other (see {@link Tile#getWalkableMask()
+ * Tile.getWalkableMask()}). When blocks are placed, removed or moved, or
+ * exits change, only the joins of the tiles that changed are updated:
+ * <ul>
+ *     <li> New joins merge two components with a union-find over
+ *          component ids. </li>
+ *     <li> When a join is removed, its two tiles are searched from
+ *          together, one step of each in turn. If either search reaches
+ *          the other, the component is still connected. Otherwise the
+ *          search that ran out first has found the smaller of the two new
+ *          components, and only its tiles are given a new id. </li>
+ * </ul>
+ * Exits of a map are usually two-way, but a tile may have an exit to a
+ * tile that has no exit back. The index counts the joins that can only be
+ * walked one way in each component, so that canReach() only has to search
+ * in components that have some. <br>
+ * Like PathFinder, this assumes the exits of the map are geometrically
+ * consistent. The index is not thread-safe.
+ * @serial exclude
+ */
+public class ReachabilityIndex {
+
+    // directions, in the order joins are checked
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // the bits of joins[] for a tile: bit direction.getBit() is set if the
+    // tile is joined to its neighbour in that direction, and the same bit
+    // shifted by ONE_WAY_SHIFT is set if the join can only be walked one
+    // way
+    private static final int ONE_WAY_SHIFT = 4;
+
+    // the state of a join: none, two-way, or one-way
+    private static final int NO_JOIN = 0;
+    private static final int JOINED = 1;
+    private static final int ONE_WAY = 3;
+
+    // the map to index
+    private final WorldMap map;
+
+    // the number of tiles of map.getTiles() that have been indexed
+    private int tileCount;
+
+    // the position and joins of each tile, indexed by tile index
+    private int[] xs;
+    private int[] ys;
+    private byte[] joins;
+
+    // the component id of each tile, indexed by tile index. The id of a
+    // tile's component is the root of its id in the union-find
+    private int[] labels;
+
+    // the union-find over component ids: the parent and rank of each id,
+    // and for each root, the number of ends of one-way joins in its
+    // component. Only the first idCount elements are used
+    private int[] parents;
+    private byte[] ranks;
+    private int[] oneWayEnds;
+    private int idCount;
+
+    // the number of components
+    private int componentCount;
+
+    // working arrays for searches after a join is removed: the search
+    // that last reached each tile (one of the two current marks), and
+    // the queue of each of the two searches
+    private int[] marks;
+    private int mark;
+    private int[] queue;
+    private int[] otherQueue;
+
+    /**
+     * Build the index for a map, and keep it up to date as the map
+     * changes. <br>
+     * The time taken is proportional to the number of tiles in the map.
+     * @param map the map to index
+     * @require map != null
+     */
+    public ReachabilityIndex(WorldMap map) {
+        this.map = map;
+        allocate(16);
+        addNewTiles();
+
+        map.addTileListener(new TileListener() {
+            @Override
+            public void heightChanged(Tile tile) {
+                tileChanged(tile);
+            }
+
+            @Override
+            public void exitChanged(Tile tile, Direction direction) {
+                tileChanged(tile);
+            }
+        });
+    }
+
+    /**
+     * Are two tiles in the same component, i.e. can they be reached from
+     * each other by moves that can each be walked in either direction?
+     * <br>
+     * If this returns false, a builder cannot get from either tile to the
+     * other. If it returns true and the map only has two-way exits, a
+     * builder can get from each to the other. <br>
+     * This takes constant time (amortized), without searching the map.
+     * @param first a tile
+     * @param second another tile
+     * @return true if both tiles are in the map and in the same component
+     * @require first != null
+     * @require second != null
+     */
+    public boolean isConnected(Tile first, Tile second) {
+        addNewTiles();
+        int firstIndex = indexOf(first);
+        int secondIndex = indexOf(second);
+        return firstIndex >= 0 && secondIndex >= 0
+                && find(labels[firstIndex]) == find(labels[secondIndex]);
+    }
+
+    /**
+     * Can a builder get from one tile to another, by a sequence of moves
+     * that Builder.moveTo() would allow? <br>
+     * This takes constant time (amortized), unless the tiles are in the
+     * same component and that component has exits that can only be walked
+     * one way, in which case the map's PathFinder is used to check.
+     * @param from the tile to start from
+     * @param to the tile to reach
+     * @return true if to can be reached from from
+     * @require from != null
+     * @require to != null
+     */
+    public boolean canReach(Tile from, Tile to) {
+        if (!isConnected(from, to)) {
+            return false;
+        }
+        if (oneWayEnds[find(labels[indexOf(from)])] == 0) {
+            return true;
+        }
+        return map.getPathFinder().findPath(from, to) >= 0;
+    }
+
+    /**
+     * Get the number of components, i.e. the number of separate groups of
+     * tiles that are not connected to each other.
+     * @return the number of components
+     */
+    public int getComponentCount() {
+        addNewTiles();
+        return componentCount;
+    }
+
+    /**
+     * Update the joins of a tile after its height or exits have changed.
+     * @param tile the tile that changed
+     */
+    private void tileChanged(Tile tile) {
+        addNewTiles();
+        int index = indexOf(tile);
+        if (index >= 0) {
+            for (Direction direction : DIRECTIONS) {
+                updateJoin(index, direction);
+            }
+        }
+    }
+
+    /**
+     * Index the tiles added to the map since the last call, each as a
+     * component of its own, then join them to their neighbours.
+     */
+    private void addNewTiles() {
+        List<Tile> tiles = map.getTiles();
+        int previousCount = tileCount;
+        if (tiles.size() == previousCount) {
+            return;
+        }
+
+        if (xs.length < tiles.size()) {
+            allocate(Math.max(tiles.size(), xs.length * 2));
+        }
+        for (int index = previousCount; index < tiles.size(); index++) {
+            Position position = map.getPosition(tiles.get(index));
+            xs[index] = position.getX();
+            ys[index] = position.getY();
+            joins[index] = 0;
+            labels[index] = newId();
+            componentCount++;
+        }
+        tileCount = tiles.size();
+
+        for (int index = previousCount; index < tileCount; index++) {
+            for (Direction direction : DIRECTIONS) {
+                updateJoin(index, direction);
+            }
+        }
+    }
+
+    /**
+     * Bring the join between a tile and its neighbour in a direction up to
+     * date, merging or splitting components if it has been added or
+     * removed.
+     * @param index the index of the tile
+     * @param direction the direction of the neighbour
+     */
+    private void updateJoin(int index, Direction direction) {
+        int neighbour = neighbourOf(index, direction);
+        int previous = joinState(index, direction);
+        int current = neighbour < 0
+                ? NO_JOIN : currentState(index, direction, neighbour);
+        if (current == previous) {
+            return;
+        }
+
+        setJoinState(index, direction, current);
+        if (neighbour >= 0) {
+            setJoinState(neighbour, direction.opposite(), current);
+        }
+
+        int root = find(labels[index]);
+        if (previous == ONE_WAY) {
+            oneWayEnds[root] -= 2;
+        }
+        if (previous == NO_JOIN) {
+            root = union(root, find(labels[neighbour]));
+        }
+        if (current == ONE_WAY) {
+            oneWayEnds[root] += 2;
+        }
+        if (current == NO_JOIN && neighbour >= 0) {
+            splitIfDisconnected(index, neighbour);
+        }
+    }
+
+    /**
+     * Work out whether a tile and its neighbour in a direction are joined.
+     * @param index the index of the tile
+     * @param direction the direction of the neighbour
+     * @param neighbour the index of the neighbour
+     * @return NO_JOIN, JOINED or ONE_WAY
+     */
+    private int currentState(int index, Direction direction, int neighbour) {
+        List<Tile> tiles = map.getTiles();
+        Tile tile = tiles.get(index);
+        Tile other = tiles.get(neighbour);
+        Direction back = direction.opposite();
+
+        boolean forward = (tile.getWalkableMask() & direction.getBit()) != 0
+                && tile.getExit(direction) == other;
+        boolean backward = (other.getWalkableMask() & back.getBit()) != 0
+                && other.getExit(back) == tile;
+        if (forward && backward) {
+            return JOINED;
+        }
+        return forward || backward ? ONE_WAY : NO_JOIN;
+    }
+
+    /**
+     * After the join between two tiles has been removed, search from both
+     * of them in turn. If the searches meet, nothing changes; otherwise
+     * the tiles found by the search that finished first are moved to a
+     * new component.
+     * @param first the index of one of the tiles
+     * @param second the index of the other tile
+     */
+    private void splitIfDisconnected(int first, int second) {
+        int firstMark = nextMark();
+        int secondMark = firstMark + 1;
+
+        marks[first] = firstMark;
+        queue[0] = first;
+        int head = 0;
+        int tail = 1;
+        marks[second] = secondMark;
+        otherQueue[0] = second;
+        int otherHead = 0;
+        int otherTail = 1;
+
+        while (true) {
+            if (head == tail) {
+                moveToNewComponent(queue, tail);
+                return;
+            }
+            if (otherHead == otherTail) {
+                moveToNewComponent(otherQueue, otherTail);
+                return;
+            }
+
+            // one step of the first search
+            int index = queue[head++];
+            for (Direction direction : DIRECTIONS) {
+                if ((joins[index] & direction.getBit()) == 0) {
+                    continue;
+                }
+                int next = neighbourOf(index, direction);
+                if (marks[next] == secondMark) {
+                    return;
+                }
+                if (marks[next] != firstMark) {
+                    marks[next] = firstMark;
+                    queue[tail++] = next;
+                }
+            }
+
+            // one step of the second search
+            index = otherQueue[otherHead++];
+            for (Direction direction : DIRECTIONS) {
+                if ((joins[index] & direction.getBit()) == 0) {
+                    continue;
+                }
+                int next = neighbourOf(index, direction);
+                if (marks[next] == firstMark) {
+                    return;
+                }
+                if (marks[next] != secondMark) {
+                    marks[next] = secondMark;
+                    otherQueue[otherTail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move every tile of a component that has split off to a new
+     * component id.
+     * @param found the indices of the tiles of the new component
+     * @param count the number of tiles
+     */
+    private void moveToNewComponent(int[] found, int count) {
+        int root = find(labels[found[0]]);
+        int id = newId();
+        componentCount++;
+
+        int ends = 0;
+        for (int i = 0; i < count; i++) {
+            labels[found[i]] = id;
+            ends += Integer.bitCount(
+                    (joins[found[i]] & 0xFF) >>> ONE_WAY_SHIFT);
+        }
+        oneWayEnds[id] = ends;
+        oneWayEnds[root] -= ends;
+
+        // ids are never reused, so compact them once they are mostly
+        // unused
+        if (idCount > 2 * tileCount + 16) {
+            compactIds();
+        }
+    }
+
+    /**
+     * Get the index of the neighbour of a tile in a direction.
+     * @param index the index of the tile
+     * @param direction the direction
+     * @return the index of the neighbour, or -1 if there is no indexed
+     *         tile there
+     */
+    private int neighbourOf(int index, Direction direction) {
+        Tile neighbour = map.getTile(xs[index] + direction.getDx(),
+                ys[index] + direction.getDy());
+        if (neighbour == null) {
+            return -1;
+        }
+        int neighbourIndex = map.getTileIndex(neighbour);
+        return neighbourIndex < tileCount ? neighbourIndex : -1;
+    }
+
+    /**
+     * Get the index of a tile, if it has been indexed.
+     * @param tile the tile
+     * @return the index of the tile, or -1 if it has not been indexed
+     */
+    private int indexOf(Tile tile) {
+        int index = map.getTileIndex(tile);
+        return index < tileCount ? index : -1;
+    }
+
+    /**
+     * Get the stored state of the join of a tile in a direction.
+     * @param index the index of the tile
+     * @param direction the direction
+     * @return NO_JOIN, JOINED or ONE_WAY
+     */
+    private int joinState(int index, Direction direction) {
+        int bit = direction.getBit();
+        if ((joins[index] & bit) == 0) {
+            return NO_JOIN;
+        }
+        return (joins[index] & (bit << ONE_WAY_SHIFT)) != 0 ? ONE_WAY : JOINED;
+    }
+
+    /**
+     * Store the state of the join of a tile in a direction.
+     * @param index the index of the tile
+     * @param direction the direction
+     * @param state NO_JOIN, JOINED or ONE_WAY
+     */
+    private void setJoinState(int index, Direction direction, int state) {
+        int bit = direction.getBit();
+        int bits = joins[index] & ~(bit | (bit << ONE_WAY_SHIFT));
+        if (state != NO_JOIN) {
+            bits |= bit;
+        }
+        if (state == ONE_WAY) {
+            bits |= bit << ONE_WAY_SHIFT;
+        }
+        joins[index] = (byte) bits;
+    }
+
+    /**
+     * Find the root of a component id, halving the path to it.
+     * @param id the id
+     * @return the root id
+     */
+    private int find(int id) {
+        while (parents[id] != id) {
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+
+    /**
+     * Merge the components with two root ids, if they are different.
+     * @param first a root id
+     * @param second another root id
+     * @return the root id of the merged component
+     */
+    private int union(int first, int second) {
+        if (first == second) {
+            return first;
+        }
+        if (ranks[first] < ranks[second]) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        parents[second] = first;
+        if (ranks[first] == ranks[second]) {
+            ranks[first]++;
+        }
+        oneWayEnds[first] += oneWayEnds[second];
+        componentCount--;
+        return first;
+    }
+
+    /**
+     * Allocate a new root id.
+     * @return the id
+     */
+    private int newId() {
+        if (idCount == parents.length) {
+            int capacity = idCount * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            ranks = Arrays.copyOf(ranks, capacity);
+            oneWayEnds = Arrays.copyOf(oneWayEnds, capacity);
+        }
+        parents[idCount] = idCount;
+        ranks[idCount] = 0;
+        oneWayEnds[idCount] = 0;
+        return idCount++;
+    }
+
+    /**
+     * Renumber the component ids so that only the roots remain, numbered
+     * from 0.
+     */
+    private void compactIds() {
+        int[] renumbered = new int[idCount];
+        Arrays.fill(renumbered, -1);
+        int[] ends = new int[componentCount];
+        int count = 0;
+
+        for (int index = 0; index < tileCount; index++) {
+            int root = find(labels[index]);
+            if (renumbered[root] < 0) {
+                ends[count] = oneWayEnds[root];
+                renumbered[root] = count++;
+            }
+            labels[index] = renumbered[root];
+        }
+
+        idCount = 0;
+        for (int id = 0; id < count; id++) {
+            newId();
+            oneWayEnds[id] = ends[id];
+        }
+    }
+
+    /**
+     * Start a new pair of searches.
+     * @return the mark of the first search; the second is one more
+     */
+    private int nextMark() {
+        mark += 2;
+        if (mark < 0) {
+            // the marks have wrapped around, so clear them
+            Arrays.fill(marks, 0);
+            mark = 2;
+        }
+        return mark - 1;
+    }
+
+    /**
+     * Grow the per-tile arrays, and create the union-find arrays if they
+     * have not been created yet.
+     * @param capacity the number of tiles the arrays can hold
+     */
+    private void allocate(int capacity) {
+        xs = xs == null ? new int[capacity] : Arrays.copyOf(xs, capacity);
+        ys = ys == null ? new int[capacity] : Arrays.copyOf(ys, capacity);
+        joins = joins == null
+                ? new byte[capacity] : Arrays.copyOf(joins, capacity);
+        labels = labels == null
+                ? new int[capacity] : Arrays.copyOf(labels, capacity);
+        marks = marks == null
+                ? new int[capacity] : Arrays.copyOf(marks, capacity);
+        queue = new int[capacity];
+        otherQueue = new int[capacity];
+
+        if (parents == null) {
+            parents = new int[capacity];
+            ranks = new byte[capacity];
+            oneWayEnds = new int[capacity];
+        }
+    }
+}
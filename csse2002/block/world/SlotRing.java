@@ -0,0 +1,151 @@
+package csse2002.block.world;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A bounded ring of reusable slots passed from one producer thread to one
+ * consumer thread, in order. <br>
+ * The producer claims the next free slot, fills it in and publishes it;
+ * the consumer takes the oldest published slot, reads it and releases it
+ * so that it can be filled again. The slots are created once, so nothing
+ * is allocated per item, and the only synchronization is the two ordered
+ * counters of published and released slots. Each side reads the other's
+ * counter only when the slots it last saw are used up, so a busy ring
+ * costs one ordered write per item. <br>
+ * A thread that has to wait spins briefly, then yields, then parks for
+ * short periods, which suits rings that are rarely empty or full. Either
+ * side can abort the ring, after which waiting threads give up.
+ * @param <S> the type of the slots
+ * @serial exclude
+ */
+final class SlotRing<S> {
+
+    // the number of times a waiting thread spins, and then yields, before
+    // it parks
+    private static final int SPINS = 64;
+    private static final int YIELDS = 128;
+
+    // the time a waiting thread parks for, in nanoseconds
+    private static final long PARK_NANOS = 20_000;
+
+    private final Object[] slots;
+    private final int mask;
+
+    // the number of slots published by the producer, and released by the
+    // consumer
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    // the producer's next slot and last value of released, and the
+    // consumer's next slot and last value of published
+    private long claimed;
+    private long releasedSeen;
+    private long taken;
+    private long publishedSeen;
+
+    private volatile boolean aborted;
+
+    /**
+     * Construct a ring of slots.
+     * @param capacity the number of slots (rounded up to a power of two)
+     * @param factory creates each slot
+     * @require capacity &gt; 0 &amp;&amp; capacity &lt;= 1 &lt;&lt; 30
+     */
+    SlotRing(int capacity, Supplier<S> factory) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = factory.get();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Get the next slot for the producer to fill, waiting for the consumer
+     * to release one if the ring is full. <br>
+     * Only called by the producer, which must publish() the slot before
+     * claiming another.
+     * @return the slot, or null if the ring has been aborted
+     */
+    @SuppressWarnings("unchecked")
+    S claim() {
+        int waits = 0;
+        while (claimed - releasedSeen > mask) {
+            releasedSeen = released.get();
+            if (claimed - releasedSeen > mask && !await(waits++)) {
+                return null;
+            }
+        }
+        return (S) slots[(int) claimed & mask];
+    }
+
+    /**
+     * Pass the slot returned by claim() to the consumer.
+     */
+    void publish() {
+        published.lazySet(++claimed);
+    }
+
+    /**
+     * Get the oldest published slot for the consumer to read, waiting for
+     * the producer to publish one if the ring is empty. <br>
+     * Only called by the consumer, which must release() the slot before
+     * taking another.
+     * @return the slot, or null if the ring has been aborted
+     */
+    @SuppressWarnings("unchecked")
+    S take() {
+        int waits = 0;
+        while (taken == publishedSeen) {
+            publishedSeen = published.get();
+            if (taken == publishedSeen && !await(waits++)) {
+                return null;
+            }
+        }
+        return (S) slots[(int) taken & mask];
+    }
+
+    /**
+     * Return the slot returned by take() to the producer.
+     */
+    void release() {
+        released.lazySet(++taken);
+    }
+
+    /**
+     * Make any thread waiting on the ring, now or later, give up.
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    /**
+     * Check whether the ring has been aborted.
+     * @return true if abort() has been called
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Wait a little before checking the other side's counter again.
+     * @param waits the number of times the thread has already waited
+     * @return false if the ring has been aborted
+     */
+    private boolean await(int waits) {
+        if (aborted) {
+            return false;
+        }
+        if (waits >= YIELDS) {
+            LockSupport.parkNanos(PARK_NANOS);
+        } else if (waits >= SPINS) {
+            Thread.yield();
+        }
+        return true;
+    }
+}
@@ -6,17 +6,92 @@ import java.util.*;
  * A sparse representation of tiles in an Array. <br>
  * Contains {@link Tile Tiles}s stored with an
  * associated {@link Position Position} (x, y) in a map. <br>
+ * Tiles are grouped into {@link TileChunk TileChunk}s, which are indexed
+ * both by hash (for single tile lookups) and in sorted order (so that
+ * regions of the array can be visited without probing empty
+ * positions). <br>
  *
  * @serial exclude
  */
 public class SparseTileArray {
 
-    // lookup tiles by position
-    private HashMap<Position, Tile> tileMap;
+    // directions, in the order their exits are processed
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // lookup chunks by chunk coordinates, keyed by Position.toKey(cx, cy)
+    private LongHashMap<TileChunk> chunkMap;
+
+    // every chunk that contains at least one tile, sorted by chunk
+    // coordinates, for range queries
+    private TreeMap<Position, TileChunk> sortedChunks;
+
+    // lookup positions and indices by tile
+    // Note: tile equals/hashCode will be
+    // default, so each tile instance will
+    // be unique.
+    private Map<Tile, Placement> placements;
 
     // a set of tiles in the order in
-    // a breadth-first search order
-    private List<Tile> orderedTiles;
+    // a breadth-first search order.
+    // Only the first tileCount elements are used, and they are never
+    // overwritten until reset(), so views returned by getTiles() can
+    // share the array.
+    private Tile[] orderedTiles;
+    private int tileCount;
+
+    // read-only view of the first tileCount elements of orderedTiles,
+    // or null if it needs to be recreated
+    private List<Tile> tilesView;
+
+    /**
+     * The position of a placed tile, and its index in the list returned
+     * by getTiles() (or -1 if it has not been reached yet).
+     */
+    private static final class Placement {
+        private final Position position;
+        private int index = -1;
+
+        /**
+         * Create a placement for a tile that has not been reached yet.
+         * @param position the position of the tile
+         */
+        Placement(Position position) {
+            this.position = position;
+        }
+    }
+
+    /**
+     * A read-only list of the first size elements of an array of tiles.
+     */
+    private static final class TileListView extends AbstractList<Tile>
+            implements RandomAccess {
+        private final Tile[] tiles;
+        private final int size;
+
+        /**
+         * Create a view of the first size elements of tiles.
+         * @param tiles the tiles, which must not be changed afterwards
+         * @param size the number of tiles in the view
+         */
+        TileListView(Tile[] tiles, int size) {
+            this.tiles = tiles;
+            this.size = size;
+        }
+
+        @Override
+        public Tile get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + size);
+            }
+            return tiles[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 
     /**
      * Constructor for a SparseTileArray.
@@ -40,7 +115,154 @@ public class SparseTileArray {
      * @require position != null
      */
     public Tile getTile(Position position) {
-        return tileMap.get(position);
+        return getTile(position.getX(), position.getY());
+    }
+
+    /**
+     * Get the tile at position (x, y). Return null if there is no tile
+     * at (x, y). <br>
+     * Unlike getTile(Position), this does not require a Position to be
+     * constructed for the lookup.
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the tile at (x, y) or null if
+     *         no such tile exists.
+     */
+    public Tile getTile(int x, int y) {
+        TileChunk chunk = chunkMap.get(Position.toKey(TileChunk.toChunk(x),
+                TileChunk.toChunk(y)));
+        if (chunk == null) {
+            return null;
+        }
+        return chunk.getTile(x & TileChunk.MASK, y & TileChunk.MASK);
+    }
+
+    /**
+     * Get a chunk by its chunk coordinates (see
+     * {@link TileChunk#getChunkX() TileChunk.getChunkX()}).
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkY the y coordinate of the chunk
+     * @return the chunk, or null if it contains no tiles
+     */
+    public TileChunk getChunk(int chunkX, int chunkY) {
+        return chunkMap.get(Position.toKey(chunkX, chunkY));
+    }
+
+    /**
+     * Get every chunk that contains at least one tile and overlaps the
+     * rectangle from (minX, minY) to (maxX, maxY) inclusive. <br>
+     * Chunks are returned in order of their chunk coordinates (see
+     * Position.compareTo()), and may contain tiles outside the rectangle,
+     * so callers should check the coordinates of each tile in a chunk
+     * against the rectangle.
+     * @param minX the smallest x coordinate of the rectangle
+     * @param minY the smallest y coordinate of the rectangle
+     * @param maxX the largest x coordinate of the rectangle
+     * @param maxY the largest y coordinate of the rectangle
+     * @return a list of the populated chunks overlapping the rectangle
+     */
+    public List<TileChunk> getChunks(int minX, int minY, int maxX, int maxY) {
+        List<TileChunk> result = new ArrayList<>();
+        if (minX > maxX || minY > maxY) {
+            return result;
+        }
+
+        int minChunkX = TileChunk.toChunk(minX);
+        int minChunkY = TileChunk.toChunk(minY);
+        int maxChunkX = TileChunk.toChunk(maxX);
+        int maxChunkY = TileChunk.toChunk(maxY);
+
+        // walk the sorted chunks column by column, skipping straight to
+        // the next row in range whenever a chunk falls outside it
+        Map.Entry<Position, TileChunk> entry =
+                sortedChunks.ceilingEntry(new Position(minChunkX, minChunkY));
+        while (entry != null && entry.getKey().getX() <= maxChunkX) {
+            Position chunkPosition = entry.getKey();
+
+            if (chunkPosition.getY() < minChunkY) {
+                entry = sortedChunks.ceilingEntry(
+                        new Position(chunkPosition.getX(), minChunkY));
+            } else if (chunkPosition.getY() > maxChunkY) {
+                if (chunkPosition.getX() == maxChunkX) {
+                    break;
+                }
+                entry = sortedChunks.ceilingEntry(
+                        new Position(chunkPosition.getX() + 1, minChunkY));
+            } else {
+                result.add(entry.getValue());
+                entry = sortedChunks.higherEntry(chunkPosition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Visit every tile in the rectangle from (minX, minY) to (maxX, maxY)
+     * inclusive. <br>
+     * Only populated chunks are visited, so the time taken is proportional
+     * to the number of tiles near the rectangle, not to its area. Tiles
+     * are visited chunk by chunk, in the order given by getChunks(), and
+     * in row-major order within each chunk.
+     * @param minX the smallest x coordinate of the rectangle
+     * @param minY the smallest y coordinate of the rectangle
+     * @param maxX the largest x coordinate of the rectangle
+     * @param maxY the largest y coordinate of the rectangle
+     * @param visitor the visitor to call for each tile
+     * @require visitor != null
+     */
+    public void forEachTileIn(int minX, int minY, int maxX, int maxY,
+                              TileVisitor visitor) {
+        for (TileChunk chunk : getChunks(minX, minY, maxX, maxY)) {
+            int chunkMinX = chunk.getMinX();
+            int chunkMinY = chunk.getMinY();
+
+            // the part of the chunk inside the rectangle, in local
+            // coordinates
+            int localMinX = Math.max(minX, chunkMinX) - chunkMinX;
+            int localMinY = Math.max(minY, chunkMinY) - chunkMinY;
+            int localMaxX =
+                    (int) Math.min((long) maxX - chunkMinX, TileChunk.MASK);
+            int localMaxY =
+                    (int) Math.min((long) maxY - chunkMinY, TileChunk.MASK);
+
+            for (int localY = localMinY; localY <= localMaxY; localY++) {
+                for (int localX = localMinX; localX <= localMaxX; localX++) {
+                    Tile tile = chunk.getTile(localX, localY);
+                    if (tile != null) {
+                        visitor.visit(chunkMinX + localX, chunkMinY + localY,
+                                tile);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every tile within a Euclidean distance of radius from
+     * (centreX, centreY), i.e. each tile at (x, y) such that
+     * {@literal (x - centreX)^2 + (y - centreY)^2 <= radius^2}. <br>
+     * Tiles are visited in the same order as forEachTileIn().
+     * @param centreX the x coordinate of the centre
+     * @param centreY the y coordinate of the centre
+     * @param radius the distance from the centre, at least 0
+     * @param visitor the visitor to call for each tile
+     * @require visitor != null
+     */
+    public void forEachTileWithin(int centreX, int centreY, int radius,
+                                  TileVisitor visitor) {
+        long radiusSquared = (long) radius * radius;
+        int minX = (int) Math.max(Integer.MIN_VALUE, (long) centreX - radius);
+        int minY = (int) Math.max(Integer.MIN_VALUE, (long) centreY - radius);
+        int maxX = (int) Math.min(Integer.MAX_VALUE, (long) centreX + radius);
+        int maxY = (int) Math.min(Integer.MAX_VALUE, (long) centreY + radius);
+
+        forEachTileIn(minX, minY, maxX, maxY, (x, y, tile) -> {
+            long dx = (long) x - centreX;
+            long dy = (long) y - centreY;
+            if (dx * dx + dy * dy <= radiusSquared) {
+                visitor.visit(x, y, tile);
+            }
+        });
     }
 
     /**
@@ -54,15 +276,43 @@ public class SparseTileArray {
      * "east", "south" and "west" exits, if they exist.
      * The order should continue in the same way through all the tiles
      * that are linked to startingTile. <br>
-     * The list returned by getTiles may be immutable, and
-     * if not, changing the list (i.e., adding or removing elements)
-     * should not change that returned by subsequent calls to
-     * getTiles().
+     * Tiles added later by attachLinkedTiles() follow these, in the
+     * breadth-first order in which they were attached. <br>
+     * The list returned by getTiles is immutable. It is not a copy, so
+     * it can be retrieved in constant time, but it is not affected by
+     * later calls to addLinkedTiles() or attachLinkedTiles().
      * @return a list of tiles in breadth-first-search
      *         order.
      */
     public List<Tile> getTiles() {
-        return new ArrayList<>(orderedTiles);
+        if (tilesView == null) {
+            tilesView = new TileListView(orderedTiles, tileCount);
+        }
+        return tilesView;
+    }
+
+    /**
+     * Get the index of a tile in the list returned by getTiles(). <br>
+     * The index of a tile does not change until the next call to
+     * addLinkedTiles(), so it can be used as a stable identifier
+     * for the tile (e.g. when saving a map).
+     * @param tile the tile to look up
+     * @return the index of tile in getTiles(), or -1 if tile is not in
+     *         this array
+     */
+    public int getTileIndex(Tile tile) {
+        Placement placement = placements.get(tile);
+        return placement == null ? -1 : placement.index;
+    }
+
+    /**
+     * Get the position of a tile in this array.
+     * @param tile the tile to look up
+     * @return the position of tile, or null if tile is not in this array
+     */
+    public Position getPosition(Tile tile) {
+        Placement placement = placements.get(tile);
+        return placement == null ? null : placement.position;
     }
 
     /**
@@ -135,60 +385,173 @@ public class SparseTileArray {
 
         Queue<Tile> tilesToProcess = new ArrayDeque<>();
 
-        // lookup positions by tile
-        // Note: tile equals/hashCode will be
-        // default, so each tile instance will
-        // be unique.
-        HashMap<Tile, Position> tilePositions = new HashMap<>();
-
         Position startingPosition = new Position(startingX, startingY);
 
         // add the starting position to the queue for processing.
-        addTileForProcessing(tilesToProcess, tileMap, tilePositions,
-                startingPosition, startingTile);
+        addTileForProcessing(tilesToProcess, startingPosition, startingTile);
+
+        try {
+            while (tilesToProcess.size() > 0) {
+                // loop until there are no more tiles to process
+
+                // get the next tile from the queue and remove it
+                Tile tile = tilesToProcess.remove();
+                appendTile(tile);
 
-        // constants for loop below
-        final String[] EXITS = {"north", "east", "south", "west"};
-        final int[] DIRECTIONS_X = {0, 1, 0, -1};
-        final int[] DIRECTIONS_Y = {-1, 0, 1, 0};
+                processExits(tilesToProcess, tile);
+            }
+        } catch (WorldMapInconsistentException inconsistentException) {
+            reset();
+            throw inconsistentException;
+        }
+    }
 
+    /**
+     * Add a set of tiles to the sparse tilemap, checking the exits of each
+     * level of the breadth-first search in parallel. <br>
+     * This has the same result as addLinkedTiles(): the same tiles are
+     * placed at the same positions, getTiles() returns them in the same
+     * breadth-first order, and a WorldMapInconsistentException is thrown
+     * for the same sets of tiles (although the message may describe a
+     * different inconsistency if there are several). <br>
+     * Positions and tiles are claimed concurrently by worker threads of
+     * the common fork/join pool, so this is faster than addLinkedTiles()
+     * on large maps, and slower on small ones.
+     *
+     * @param startingTile the starting point in adding the linked tiles. All
+     *                     added tiles must have a path (via multiple exits) to
+     *                     this tile.
+     * @param startingX    the x coordinate of startingTile in the array
+     * @param startingY    the y coordinate of startingTile in the array
+     * @throws WorldMapInconsistentException if the tiles in the set are not
+     *                                       Geometrically consistent
+     *
+     * @require startingTile != null
+     * @ensure tiles accessed through getTile() are geometrically consistent
+     */
+    public void addLinkedTilesInParallel(Tile startingTile, int startingX,
+                                         int startingY)
+            throws WorldMapInconsistentException {
 
-        while (tilesToProcess.size() > 0) {
-            // loop until there are no more tiles to process
+        // reset the state of this SparseTileArray instance
+        this.reset();
 
-            // get the next tile from the queue and its associated position
-            Tile tile = tilesToProcess.element();
-            orderedTiles.add(tile);
+        ParallelTileLinker linker = new ParallelTileLinker();
+        linker.link(startingTile, startingX, startingY);
 
-            Position position = tilePositions.get(tile);
+        List<Tile> linkedTiles = linker.getOrderedTiles();
+        orderedTiles = new Tile[linkedTiles.size()];
+        for (int i = 0; i < linkedTiles.size(); i++) {
+            long key = linker.getKey(i);
+            int x = Position.keyX(key);
+            int y = Position.keyY(key);
+            Tile tile = linkedTiles.get(i);
 
-            // remove the tile from the queue
-            tilesToProcess.remove();
+            placeTile(x, y, tile);
+            placements.put(tile, new Placement(new Position(x, y)));
+            appendTile(tile);
+        }
+    }
 
-            for (int i = 0; i < EXITS.length; i++) {
-                // go through each exit name ("north", "east", "south", "west"}
+    /**
+     * Add the tiles that have become reachable from a tile that is already
+     * in the array, without re-processing the rest of the array. <br>
+     * This should be called after changing the exits of anchorTile, for
+     * example after linking a new tile to the edge of the map. It does the
+     * following:
+     * <ol>
+     * <li> Check each exit of anchorTile against the tiles that are already
+     * in the array, in the same way as addLinkedTiles(). </li>
+     * <li> Place each tile that is reachable from anchorTile and not
+     * already in the array, and check its exits, in breadth-first order
+     * from anchorTile. Tiles that are already in the array are checked but
+     * are not processed again. </li>
+     * <li> Append the newly placed tiles to the end of getTiles(), in the
+     * order they were placed. </li>
+     * <li> If the new tiles are not geometrically consistent with each other
+     * or with the existing tiles, remove only the newly placed tiles and
+     * throw a WorldMapInconsistentException. The tiles that were in the
+     * array beforehand are left as they were. </li>
+     * </ol>
+     * The time taken is proportional to the number of newly placed tiles,
+     * not to the number of tiles already in the array.
+     *
+     * @param anchorTile a tile already in the array whose exits lead to the
+     *                   tiles to add
+     * @throws WorldMapInconsistentException if the newly reachable tiles
+     *         are not geometrically consistent with the array, or if
+     *         anchorTile is not in the array
+     * @require anchorTile != null
+     */
+    public void attachLinkedTiles(Tile anchorTile)
+            throws WorldMapInconsistentException {
+        if (!placements.containsKey(anchorTile)) {
+            throw new WorldMapInconsistentException(
+                    "Tile to attach from is not in the array.");
+        }
 
-                // get the tile in that direction
-                Tile tileInDirection = tile.getExits().get(EXITS[i]);
+        int previousCount = tileCount;
+        Queue<Tile> tilesToProcess = new ArrayDeque<>();
 
-                // create the associated position in that direction
-                Position positionInDirection =
-                        new Position(position.getX() + DIRECTIONS_X[i],
-                        position.getY() + DIRECTIONS_Y[i]);
+        try {
+            processExits(tilesToProcess, anchorTile);
 
-                try {
-                    if (checkExistingTileValid(tileMap, tilePositions,
-                            positionInDirection, tileInDirection)) {
+            while (tilesToProcess.size() > 0) {
+                Tile tile = tilesToProcess.remove();
+                appendTile(tile);
 
-                        // if the tile is valid (hasn't already been placed, the map
-                        // is still consistent) add the new tile for processing.
-                        addTileForProcessing(tilesToProcess, tileMap, tilePositions,
-                                positionInDirection, tileInDirection);
-                    }
-                } catch (WorldMapInconsistentException inconsistentException) {
-                    reset();
-                    throw inconsistentException;
-                }
+                processExits(tilesToProcess, tile);
+            }
+        } catch (WorldMapInconsistentException inconsistentException) {
+            // remove the tiles placed by this call, which are either
+            // at the end of orderedTiles, or still waiting in the queue.
+            for (int i = previousCount; i < tileCount; i++) {
+                removeTile(orderedTiles[i]);
+                orderedTiles[i] = null;
+            }
+            for (Tile tile : tilesToProcess) {
+                removeTile(tile);
+            }
+            tileCount = previousCount;
+            tilesView = null;
+            throw inconsistentException;
+        }
+    }
+
+    /**
+     * Check each exit of a tile that has been placed, and add any tiles
+     * it leads to that have not been placed yet for processing.
+     * @param tilesToProcess the queue of tiles to process further
+     * @param tile a tile that has already been placed
+     * @throws WorldMapInconsistentException if an exit of tile is not
+     *         geometrically consistent with the tiles already placed
+     */
+    private void processExits(Queue<Tile> tilesToProcess, Tile tile)
+            throws WorldMapInconsistentException {
+        Position position = placements.get(tile).position;
+
+        for (Direction direction : DIRECTIONS) {
+            // go through each exit direction (north, east, south, west)
+
+            // get the tile in that direction
+            Tile tileInDirection = tile.getExit(direction);
+
+            if (tileInDirection == null) {
+                // this exit is a dead end, do not go any further
+                continue;
+            }
+
+            // create the associated position in that direction
+            Position positionInDirection =
+                    new Position(position.getX() + direction.getDx(),
+                    position.getY() + direction.getDy());
+
+            if (checkExistingTileValid(positionInDirection, tileInDirection)) {
+
+                // if the tile is valid (hasn't already been placed, the map
+                // is still consistent) add the new tile for processing.
+                addTileForProcessing(tilesToProcess, positionInDirection,
+                        tileInDirection);
             }
         }
     }
@@ -206,15 +569,13 @@ public class SparseTileArray {
      * so we return false (we don't want to place it again. </li>
      * </ol>
      *
-     * @param positionToTile the current mapping from positions to tiles
-     * @param tileToPosition the current mapping from tiles to positions
      * @param position       the position we want to place a tile at
      * @param tile           the tile we want to place
      * @return true if we can place tile at position, false otherwise.
      * @throws WorldMapInconsistentException
      */
-    private static boolean checkExistingTileValid(Map<Position, Tile> positionToTile, Map<Tile, Position> tileToPosition,
-                                                  Position position, Tile tile) throws WorldMapInconsistentException {
+    private boolean checkExistingTileValid(Position position, Tile tile)
+            throws WorldMapInconsistentException {
         if (tile == null) {
             // this exit is a dead end, do not go any further
             return false;
@@ -222,8 +583,10 @@ public class SparseTileArray {
 
         // get the tile at the new position, and position of
         // the new tile.
-        Tile tileToTest = positionToTile.get(position);
-        Position positionToTest = tileToPosition.get(tile);
+        Tile tileToTest = getTile(position.getX(), position.getY());
+        Placement placement = placements.get(tile);
+        Position positionToTest =
+                placement == null ? null : placement.position;
 
         if (positionToTest != null && !(position.equals(positionToTest))) {
             // we have already placed this tile somewhere else
@@ -263,29 +626,88 @@ public class SparseTileArray {
     /**
      * Add a tile and position for processing. We had t
      * he tile to a queue of tiles to process,
-     * and also to two maps, a mapping from positions
-     * to tiles and a mapping from tiles to positions.
+     * and also place it in this array and in
+     * the mapping from tiles to positions.
      *
      * @param tilesToProcess the queue of tiles to process further
-     * @param positionToTile the current mapping from positions to tiles
-     * @param tileToPosition the current mapping from tiles to positions
      * @param position       the position to add for processing
      * @param tile           the tile to add for processing
      */
-    private static void addTileForProcessing(Queue<Tile> tilesToProcess,
-                                             Map<Position, Tile> positionToTile,
-                                             Map<Tile, Position> tileToPosition,
-                                             Position position, Tile tile) {
-        positionToTile.put(position, tile);
-        tileToPosition.put(tile, position);
+    private void addTileForProcessing(Queue<Tile> tilesToProcess,
+                                      Position position, Tile tile) {
+        placeTile(position.getX(), position.getY(), tile);
+        placements.put(tile, new Placement(position));
         tilesToProcess.add(tile);
     }
 
+    /**
+     * Store a tile at (x, y), creating the chunk containing (x, y)
+     * if it does not exist yet.
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @param tile the tile to store
+     */
+    private void placeTile(int x, int y, Tile tile) {
+        int chunkX = TileChunk.toChunk(x);
+        int chunkY = TileChunk.toChunk(y);
+        long chunkKey = Position.toKey(chunkX, chunkY);
+
+        TileChunk chunk = chunkMap.get(chunkKey);
+        if (chunk == null) {
+            chunk = new TileChunk(chunkX, chunkY);
+            chunkMap.put(chunkKey, chunk);
+            sortedChunks.put(new Position(chunkX, chunkY), chunk);
+        }
+        chunk.setTile(x & TileChunk.MASK, y & TileChunk.MASK, tile);
+    }
+
+    /**
+     * Append a placed tile to the end of the list returned by getTiles(),
+     * and record its index.
+     * @param tile the tile to append
+     */
+    private void appendTile(Tile tile) {
+        if (tileCount == orderedTiles.length) {
+            // copy into a new array, since views of the old array may
+            // still be in use
+            orderedTiles = Arrays.copyOf(orderedTiles,
+                    Math.max(16, tileCount * 2));
+        }
+        placements.get(tile).index = tileCount;
+        orderedTiles[tileCount++] = tile;
+        tilesView = null;
+    }
+
+    /**
+     * Remove a placed tile from the chunk it is stored in and from the
+     * mapping from tiles to positions. Chunks that become empty are
+     * removed.
+     * @param tile the tile to remove
+     */
+    private void removeTile(Tile tile) {
+        Position position = placements.remove(tile).position;
+        long chunkKey = Position.toKey(TileChunk.toChunk(position.getX()),
+                TileChunk.toChunk(position.getY()));
+
+        TileChunk chunk = chunkMap.get(chunkKey);
+        chunk.setTile(position.getX() & TileChunk.MASK,
+                position.getY() & TileChunk.MASK, null);
+        if (chunk.getTileCount() == 0) {
+            chunkMap.remove(chunkKey);
+            sortedChunks.remove(new Position(chunk.getChunkX(),
+                    chunk.getChunkY()));
+        }
+    }
+
     /**
      * Reset the state of the SparseTileArray to default.
      */
     private void reset() {
-        tileMap = new HashMap<>();
-        orderedTiles = new ArrayList<>();
+        chunkMap = new LongHashMap<>();
+        sortedChunks = new TreeMap<>();
+        placements = new HashMap<>();
+        orderedTiles = new Tile[16];
+        tileCount = 0;
+        tilesView = null;
     }
 }
@@ -0,0 +1,103 @@
+package csse2002.block.world;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link ActionResultSink ActionResultSink} that only counts the
+ * results of actions: the successful actions (with each step of a MOVE_TO
+ * action counted separately, as each is printed on its own line), the
+ * failed actions for each {@link Outcome Outcome}, and the invalid
+ * actions. <br>
+ * The counts can be updated from several threads at once.
+ * @serial exclude
+ */
+public class SummaryResultSink implements ActionResultSink {
+
+    // the number of results for each outcome, indexed by its ordinal, and
+    // then the number of invalid actions
+    private final AtomicLongArray counts =
+            new AtomicLongArray(Outcome.values().length + 1);
+
+    @Override
+    public void succeeded(String message) {
+        counts.incrementAndGet(Outcome.SUCCESS.ordinal());
+    }
+
+    @Override
+    public void failed(Outcome outcome) {
+        counts.incrementAndGet(outcome.ordinal());
+    }
+
+    @Override
+    public void invalidAction() {
+        counts.incrementAndGet(counts.length() - 1);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Get the number of results with an outcome.
+     * @param outcome the outcome to count (SUCCESS for the successful
+     *                actions and steps)
+     * @return the number of results with that outcome
+     * @require outcome != null
+     */
+    public long getCount(Outcome outcome) {
+        return counts.get(outcome.ordinal());
+    }
+
+    /**
+     * Get the number of invalid actions.
+     * @return the number of invalid actions
+     */
+    public long getInvalidCount() {
+        return counts.get(counts.length() - 1);
+    }
+
+    /**
+     * Get the number of results of every kind, which is the number of
+     * lines a TextResultSink would have written.
+     * @return the total number of results
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Print the counts, one per line, in the format: <br>
+     * <pre>{@literal
+     * Succeeded: 5
+     * No exit this way: 1
+     * Too high: 0
+     * Too low: 2
+     * Cannot use that block: 0
+     * Error: Invalid action: 1
+     * }</pre>
+     * @param out the stream to print to
+     * @require out != null
+     */
+    public void print(PrintStream out) {
+        StringBuilder summary = new StringBuilder();
+        String separator = System.lineSeparator();
+        summary.append("Succeeded: ").append(getCount(Outcome.SUCCESS))
+                .append(separator);
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome != Outcome.SUCCESS) {
+                summary.append(TextResultSink.getFailureMessage(outcome))
+                        .append(": ").append(getCount(outcome))
+                        .append(separator);
+            }
+        }
+        summary.append("Error: Invalid action: ").append(getInvalidCount())
+                .append(separator);
+        out.print(summary);
+        out.flush();
+    }
+}
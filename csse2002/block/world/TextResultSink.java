@@ -0,0 +1,133 @@
+package csse2002.block.world;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * An {@link ActionResultSink ActionResultSink} that writes the results of
+ * actions as the lines of text described in Action.processAction(). <br>
+ * The lines are buffered and written in large blocks, rather than with
+ * System.out.println() for each line (which locks and may flush the
+ * stream every time), and are the same bytes that println() would have
+ * written: each line is encoded with the default charset and ends with
+ * the line separator of the system. The buffer is written when it is full
+ * and when flush() is called. <br>
+ * A sink for interactive input can instead be made to flush after every
+ * line (as a PrintStream with automatic flushing does), so that the result
+ * of each action is seen as soon as it is performed.
+ * @serial exclude
+ */
+public class TextResultSink implements ActionResultSink {
+
+    // the number of characters buffered before they are written
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the messages of failed actions, indexed by the ordinal of the outcome
+    private static final String[] FAILURES = new String[Outcome.values()
+            .length];
+
+    static {
+        FAILURES[Outcome.NO_EXIT.ordinal()] = "No exit this way";
+        FAILURES[Outcome.TOO_HIGH.ordinal()] = "Too high";
+        FAILURES[Outcome.TOO_LOW.ordinal()] = "Too low";
+        FAILURES[Outcome.INVALID_BLOCK.ordinal()] = "Cannot use that block";
+    }
+
+    private final Writer out;
+
+    // true if the stream is flushed after every line
+    private final boolean autoFlush;
+
+    /**
+     * Construct a sink that writes lines to an output stream, in the
+     * default charset (the same as System.out).
+     * @param out the stream to write to
+     * @require out != null
+     */
+    public TextResultSink(OutputStream out) {
+        this(out, false);
+    }
+
+    /**
+     * Construct a sink that writes lines to an output stream, in the
+     * default charset (the same as System.out), optionally flushing the
+     * stream after every line.
+     * @param out the stream to write to
+     * @param autoFlush true to flush the stream after every line, rather
+     *                  than only when the buffer is full or flush() is
+     *                  called
+     * @require out != null
+     */
+    public TextResultSink(OutputStream out, boolean autoFlush) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out),
+                BUFFER_SIZE);
+        this.autoFlush = autoFlush;
+    }
+
+    /**
+     * Construct a sink that writes lines to System.out.
+     */
+    public TextResultSink() {
+        this(System.out);
+    }
+
+    @Override
+    public void succeeded(String message) {
+        writeLine(message);
+    }
+
+    @Override
+    public void failed(Outcome outcome) {
+        writeLine(FAILURES[outcome.ordinal()]);
+    }
+
+    @Override
+    public void invalidAction() {
+        writeLine("Error: Invalid action");
+    }
+
+    /**
+     * Write out the buffered lines, and flush the stream.
+     * @throws UncheckedIOException if the stream cannot be written
+     */
+    @Override
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
+    }
+
+    /**
+     * Get the line printed for a failed action.
+     * @param outcome why the action failed
+     * @return the line, such as "Too high"
+     * @require outcome != Outcome.SUCCESS
+     */
+    static String getFailureMessage(Outcome outcome) {
+        return FAILURES[outcome.ordinal()];
+    }
+
+    /**
+     * Buffer a line, followed by the line separator, and flush it if the
+     * sink flushes every line.
+     * @param line the line to write
+     * @throws UncheckedIOException if the stream cannot be written
+     */
+    private synchronized void writeLine(String line) {
+        try {
+            out.write(line);
+            out.write(System.lineSeparator());
+            if (autoFlush) {
+                out.flush();
+            }
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package csse2002.block.world;
 
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.TreeMap;
 
 
@@ -13,6 +19,9 @@ import java.util.TreeMap;
  * Tiles for a map. <br>
  * Contains {@link Block Block}s <br>
  * Maintains a mapping between exit names and other tiles. <br>
+ * Exits named "north", "east", "south" and "west" are stored by
+ * {@link Direction Direction}, and can be read with getExit() and
+ * getExitMask() without any string handling. <br>
  * @serial exclude
  */
 public class Tile implements Serializable {
@@ -22,11 +31,39 @@ public class Tile implements Serializable {
     /* The maximum number of ground allowed on a tile. */
     private static final int MAX_GROUND_BLOCKS = 3;
 
-    /* Exits from this Tile. Strings are names of the exits */
-    private Map<String, Tile> exits;
+    /* The directions in the order of their exit names, which is the
+     * order that getExits() lists them in */
+    private static final Direction[] SORTED_DIRECTIONS = {Direction.EAST,
+            Direction.NORTH, Direction.SOUTH, Direction.WEST};
 
-    /* Blocks in this Tile*/
-    private List<Block> blocks;
+    /* Exits from this Tile in each direction, indexed by
+     * Direction.ordinal() */
+    private Tile[] exits;
+
+    /* Exits from this Tile that are not named after a direction
+     * (null if there are none) */
+    private Map<String, Tile> otherExits;
+
+    /* Blocks in this Tile, bottom first. Only the first height elements
+     * are used */
+    private Block[] blocks;
+
+    /* The number of blocks in this Tile */
+    private int height;
+
+    /* Tiles that have an exit in a direction to this Tile, so their
+     * walkable masks can be updated when the height of this Tile changes.
+     * A tile appears once for each such exit. Only the first
+     * entranceCount elements are used (null if there are none) */
+    private Tile[] entrances;
+    private int entranceCount;
+
+    /* getWalkableMask(), kept up to date as heights and exits change */
+    private int walkableMask;
+
+    /* Notified when the height or exits of this Tile change (null if
+     * nothing is listening) */
+    private TileListener listener;
 
     /**
      * Construct a new tile.<br>
@@ -38,15 +75,15 @@ public class Tile implements Serializable {
      * a new Tile.
      */
     public Tile() {
-        exits = new TreeMap<String, Tile>();
+        exits = new Tile[SORTED_DIRECTIONS.length];
 
-        // use a list for now, but could be a stack
-        blocks = new LinkedList<Block>();
+        // a fixed size stack, since there can never be more blocks
+        blocks = new Block[MAX_BLOCKS];
 
         // each tile starts with 2 soil blocks and 1 grass block
-        blocks.add(new SoilBlock());
-        blocks.add(new SoilBlock());
-        blocks.add(new GrassBlock());
+        blocks[height++] = new SoilBlock();
+        blocks[height++] = new SoilBlock();
+        blocks[height++] = new GrassBlock();
     }
 
     /**
@@ -74,7 +111,7 @@ public class Tile implements Serializable {
      *                          are instances of GroundBlock
      */
     public Tile(List<Block> startingBlocks) throws TooHighException {
-        exits = new TreeMap<>();
+        exits = new Tile[SORTED_DIRECTIONS.length];
 
         if (startingBlocks.size() > 8) {
             throw new TooHighException();
@@ -82,22 +119,83 @@ public class Tile implements Serializable {
 
         // check for ground blocks that are too high
         for (int i = MAX_GROUND_BLOCKS; i < startingBlocks.size(); i++) {
-            if (startingBlocks.get(i) instanceof GroundBlock) {
+            if ((BlockType.flagsOf(startingBlocks.get(i))
+                    & BlockType.GROUND) != 0) {
                 throw new TooHighException();
             }
         }
 
         // make a copy of startingBlocks
-        blocks = new LinkedList<>(startingBlocks);
+        blocks = new Block[MAX_BLOCKS];
+        for (Block block : startingBlocks) {
+            blocks[height++] = block;
+        }
+    }
+
+    /**
+     * Construct a tile that keeps its blocks and exits somewhere else.
+     * <br>
+     * Subclasses using this constructor must override every storage
+     * method below (height(), blockAt(), pushBlock(), popBlock(),
+     * exitAt(), setExit(), walkableMask(), otherExits(), putOtherExit()
+     * and deleteOtherExit()).
+     * @param external unused, distinguishes this constructor from Tile()
+     */
+    Tile(boolean external) {
+        exits = null;
+        blocks = null;
     }
 
     /**
      * What exits are there from this Tile? <br>
-     * No ordering is required.
+     * No ordering is required. <br>
+     * The map is a read-only view, so it reflects later changes to the
+     * exits of this tile. Prefer getExit() for the compass exits.
      * @return map of names to Tiles
      */
     public Map<String, Tile> getExits() {
-        return Collections.unmodifiableMap(this.exits);
+        return new ExitMap();
+    }
+
+    /**
+     * Get the tile at the exit in a direction, i.e. the same tile as
+     * getExits().get(direction.getName()).
+     * @param direction the direction of the exit
+     * @return the tile the exit goes to, or null if there is no exit in
+     *         that direction
+     * @require direction != null
+     */
+    public Tile getExit(Direction direction) {
+        return exitAt(direction);
+    }
+
+    /**
+     * Get the directions that this tile has exits in, as a bit mask. <br>
+     * The bit direction.getBit() is set if getExit(direction) != null.
+     * @return the exit mask, between 0 and 15
+     */
+    public int getExitMask() {
+        int mask = 0;
+        for (Direction direction : SORTED_DIRECTIONS) {
+            if (exitAt(direction) != null) {
+                mask |= direction.getBit();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Which exits of this tile can a Builder on it move through? <br>
+     * The bit direction.getBit() is set if getExit(direction) != null and
+     * the height of that tile (getHeight()) is the same or different by 1
+     * from the height of this tile (see
+     * {@link Builder#canEnter(Tile) Builder.canEnter()}). <br>
+     * The mask is kept up to date as blocks are placed and removed on this
+     * tile and its neighbours, so this does not look at any other tile.
+     * @return the walkable mask, between 0 and 15
+     */
+    public int getWalkableMask() {
+        return walkableMask();
     }
 
     /**
@@ -107,7 +205,34 @@ public class Tile implements Serializable {
      * @return Blocks on the Tile
      */
     public List<Block> getBlocks() {
-        return Collections.unmodifiableList(this.blocks);
+        return new BlockList();
+    }
+
+    /**
+     * How many blocks are on this Tile? <br>
+     * The same as getBlocks().size(), without creating a list.
+     * @return the number of blocks on the tile, between 0 and 8
+     */
+    public int getHeight() {
+        return height();
+    }
+
+    /**
+     * What type of block is at a level of this Tile? <br>
+     * The same as BlockType.of(getBlocks().get(level)), without creating
+     * a list.
+     * @param level the level of the block, where 0 is the bottom block
+     * @return the type of the block at that level, or null if the block
+     *         is not one of the types in BlockType
+     * @throws IndexOutOfBoundsException if level &lt; 0 or
+     *         level &ge; getHeight()
+     */
+    public BlockType getBlockTypeAt(int level) {
+        if (level < 0 || level >= height()) {
+            throw new IndexOutOfBoundsException("Level: " + level
+                    + ", Height: " + height());
+        }
+        return BlockType.of(blockAt(level));
     }
 
     /**
@@ -117,11 +242,11 @@ public class Tile implements Serializable {
      * @throws TooLowException if there are no blocks on the tile
      */
     public Block getTopBlock() throws TooLowException {
-        if (blocks.size() == 0) {
+        if (height() == 0) {
             throw new TooLowException();
         }
 
-        return blocks.get(blocks.size() - 1);
+        return blockAt(height() - 1);
     }
 
     /**
@@ -130,11 +255,12 @@ public class Tile implements Serializable {
      * @throws TooLowException if there are no blocks on the tile
      */
     public void removeTopBlock() throws TooLowException {
-        if (blocks.size() == 0) {
+        if (height() == 0) {
             throw new TooLowException();
         }
 
-        blocks.remove(blocks.size() - 1);
+        popBlock();
+        heightChanged();
     }
 
     /**
@@ -153,7 +279,12 @@ public class Tile implements Serializable {
         }
 
         // add to exits
-        exits.put(name, target);
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            setExit(direction, target);
+        } else {
+            putOtherExit(name, target);
+        }
     }
 
     /**
@@ -166,11 +297,16 @@ public class Tile implements Serializable {
      * @throws NoExitException if name is not in exits, or name is null
      */
     public void removeExit(String name) throws NoExitException {
-        if (name == null || exits.containsKey(name) == false) {
+        if (name == null || exitTo(name) == null) {
             throw new NoExitException();
         }
 
-        exits.remove(name);
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            setExit(direction, null);
+        } else {
+            deleteOtherExit(name);
+        }
     }
 
     /**
@@ -188,19 +324,40 @@ public class Tile implements Serializable {
      * @throws InvalidBlockException if the block is not diggable
      */
     public Block dig() throws TooLowException, InvalidBlockException {
-
-        if (blocks.size() == 0) {
-            throw new TooLowException();
+        Block result = height() == 0 ? null : blockAt(height() - 1);
+
+        switch (tryDig()) {
+            case TOO_LOW:
+                throw new TooLowException();
+            case INVALID_BLOCK:
+                throw new InvalidBlockException();
+            default:
+                return result;
         }
+    }
 
-        Block result = blocks.get(blocks.size() - 1);
+    /**
+     * Attempt to dig in the current tile, as dig() does, but return the
+     * outcome instead of throwing an exception. <br>
+     * The removed block is the top block before the call (given by
+     * getTopBlock()).
+     * @return SUCCESS if the top block was removed, TOO_LOW if there are
+     *         no blocks on the tile, or INVALID_BLOCK if the block is not
+     *         diggable
+     */
+    public Outcome tryDig() {
+        if (height() == 0) {
+            return Outcome.TOO_LOW;
+        }
 
-        if (!result.isDiggable()) {
-            throw new InvalidBlockException();
+        if ((BlockType.flagsOf(blockAt(height() - 1))
+                & BlockType.DIGGABLE) == 0) {
+            return Outcome.INVALID_BLOCK;
         }
 
-        removeTopBlock();
-        return result;
+        popBlock();
+        heightChanged();
+        return Outcome.SUCCESS;
     }
 
     /**
@@ -227,38 +384,52 @@ public class Tile implements Serializable {
      */
     public void moveBlock(String exitName) throws TooHighException,
             InvalidBlockException, NoExitException {
-        if (exitName == null || !exits.containsKey(exitName)) {
-            throw new NoExitException();
+        switch (tryMoveBlock(exitName)) {
+            case NO_EXIT:
+                throw new NoExitException();
+            case TOO_HIGH:
+                throw new TooHighException();
+            case INVALID_BLOCK:
+                throw new InvalidBlockException();
+            default:
+                break;
         }
+    }
 
-        Tile exit = exits.get(exitName);
-        if (exit.getBlocks().size() >= blocks.size()) {
-            throw new TooHighException();
+    /**
+     * Attempt to move the current top block to another tile, as
+     * moveBlock() does, but return the outcome instead of throwing an
+     * exception.
+     * @param exitName the name of the exit to move the block to
+     * @return SUCCESS if the block was moved, NO_EXIT if the exit is null
+     *         or does not exist, TOO_HIGH if the target tile is &ge; to
+     *         this one, or INVALID_BLOCK if the block is not moveable (or
+     *         cannot be stored by the target tile)
+     */
+    public Outcome tryMoveBlock(String exitName) {
+        Tile exit = exitName == null ? null : exitTo(exitName);
+        if (exit == null) {
+            return Outcome.NO_EXIT;
         }
 
-        Block block = null;
-        try {
-            block = getTopBlock();
-        } catch (TooLowException tooLow) {
-            // not possible to end up here,
-            // but required anyway.
-            assert (false);
+        if (exit.height() >= height()) {
+            return Outcome.TOO_HIGH;
         }
 
-        if (!block.isMoveable()) {
-            throw new InvalidBlockException();
+        Block block = blockAt(height() - 1);
+        if ((BlockType.flagsOf(block) & BlockType.MOVEABLE) == 0) {
+            return Outcome.INVALID_BLOCK;
         }
 
-        // should not throw TooHighException, because must be < 8 blocks
-        exit.placeBlock(block);
-
-        try {
-            removeTopBlock();
-        } catch (TooLowException tooLow) {
-            // not possible to end up here,
-            // but required anyway.
-            assert (false);
+        // cannot be TOO_HIGH, because the target has fewer blocks than this
+        Outcome placed = exit.tryPlaceBlock(block);
+        if (placed != Outcome.SUCCESS) {
+            return placed;
         }
+
+        popBlock();
+        heightChanged();
+        return Outcome.SUCCESS;
     }
 
     /**
@@ -281,17 +452,380 @@ public class Tile implements Serializable {
      */
     public void placeBlock(Block block) throws TooHighException,
             InvalidBlockException {
+        switch (tryPlaceBlock(block)) {
+            case INVALID_BLOCK:
+                throw new InvalidBlockException();
+            case TOO_HIGH:
+                throw new TooHighException();
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Attempt to place a block on a tile, as placeBlock() does, but return
+     * the outcome instead of throwing an exception.
+     * @param block the block to place.
+     * @return SUCCESS if the block was placed, INVALID_BLOCK if the block
+     *         is null, or TOO_HIGH if there are already 8 blocks on the
+     *         tile, or this is a ground block and there are already 3 or
+     *         more blocks on the tile
+     */
+    public Outcome tryPlaceBlock(Block block) {
         if (block == null) {
-            throw new InvalidBlockException();
+            return Outcome.INVALID_BLOCK;
         }
 
-        if (blocks.size() >= MAX_BLOCKS
-                || (block instanceof GroundBlock
-                && blocks.size() >= MAX_GROUND_BLOCKS)) {
-            throw new TooHighException();
+        if (height() >= MAX_BLOCKS
+                || ((BlockType.flagsOf(block) & BlockType.GROUND) != 0
+                && height() >= MAX_GROUND_BLOCKS)) {
+            return Outcome.TOO_HIGH;
         }
 
-        blocks.add(block);
+        pushBlock(block);
+        heightChanged();
+        return Outcome.SUCCESS;
     }
 
+    /*
+     * Storage methods. The public methods above are written in terms of
+     * these, so that a subclass can keep its blocks and exits in a
+     * different form (see CompactWorld) while keeping the same behaviour.
+     */
+
+    /**
+     * Get the number of blocks on this tile.
+     * @return the number of blocks
+     */
+    int height() {
+        return height;
+    }
+
+    /**
+     * Get the block at the given level (0 is the bottom block).
+     * @param level the level of the block
+     * @return the block at that level
+     * @require 0 &lt;= level &lt; height()
+     */
+    Block blockAt(int level) {
+        return blocks[level];
+    }
+
+    /**
+     * Add a block to the top of this tile, without checking it.
+     * @param block the block to add
+     */
+    void pushBlock(Block block) {
+        blocks[height++] = block;
+    }
+
+    /**
+     * Remove the top block of this tile, without checking it.
+     * @require height() &gt; 0
+     */
+    void popBlock() {
+        blocks[--height] = null;
+    }
+
+    /**
+     * Get the tile at the named exit.
+     * @param name the name of the exit
+     * @return the target tile, or null if there is no such exit
+     */
+    Tile exitTo(String name) {
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            return exitAt(direction);
+        }
+
+        Map<String, Tile> others = otherExits();
+        return others == null ? null : others.get(name);
+    }
+
+    /**
+     * Check whether any exit of this tile goes to target.
+     * @param target the tile to look for
+     * @return true if target is the tile at one of the exits
+     */
+    boolean hasExitTo(Tile target) {
+        for (Direction direction : SORTED_DIRECTIONS) {
+            if (exitAt(direction) == target) {
+                return true;
+            }
+        }
+
+        Map<String, Tile> others = otherExits();
+        return others != null && others.containsValue(target);
+    }
+
+    /**
+     * Update the walkable masks that depend on the height of this tile,
+     * after it has changed.
+     */
+    private void heightChanged() {
+        refreshWalkableMask();
+        for (int i = 0; i < entranceCount; i++) {
+            entrances[i].refreshWalkableMask();
+        }
+
+        if (listener != null) {
+            listener.heightChanged(this);
+        }
+    }
+
+    /**
+     * Get the listener notified when the height or exits of this tile
+     * change.
+     * @return the listener, or null if there is none
+     */
+    TileListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set the listener notified when the height or exits of this tile
+     * change. Tiles that keep their exits somewhere else (see
+     * Tile(boolean)) only report changes of height.
+     * @param listener the listener, or null to stop notifying
+     */
+    void setListener(TileListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Recompute the cached walkable mask of this tile.
+     */
+    void refreshWalkableMask() {
+        int mask = 0;
+        for (Direction direction : SORTED_DIRECTIONS) {
+            Tile target = exitAt(direction);
+            if (target != null
+                    && Math.abs(target.height() - height()) <= 1) {
+                mask |= direction.getBit();
+            }
+        }
+        walkableMask = mask;
+    }
+
+    /**
+     * Record that a tile has an exit in a direction to this tile.
+     * @param tile the tile with the exit
+     */
+    private void addEntrance(Tile tile) {
+        if (entrances == null) {
+            entrances = new Tile[SORTED_DIRECTIONS.length];
+        } else if (entranceCount == entrances.length) {
+            Tile[] newEntrances = new Tile[entranceCount * 2];
+            System.arraycopy(entrances, 0, newEntrances, 0, entranceCount);
+            entrances = newEntrances;
+        }
+        entrances[entranceCount++] = tile;
+    }
+
+    /**
+     * Record that a tile has one less exit in a direction to this tile.
+     * @param tile the tile that had the exit
+     */
+    private void removeEntrance(Tile tile) {
+        for (int i = 0; i < entranceCount; i++) {
+            if (entrances[i] == tile) {
+                entrances[i] = entrances[--entranceCount];
+                entrances[entranceCount] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the tile at the exit in a direction.
+     * @param direction the direction of the exit
+     * @return the target tile, or null if there is no exit
+     */
+    Tile exitAt(Direction direction) {
+        return exits[direction.ordinal()];
+    }
+
+    /**
+     * Set or clear the exit in a direction, without checking it.
+     * @param direction the direction of the exit
+     * @param target the tile the exit goes to, or null to remove the exit
+     */
+    void setExit(Direction direction, Tile target) {
+        Tile previous = exits[direction.ordinal()];
+        if (previous != null) {
+            previous.removeEntrance(this);
+        }
+        if (target != null) {
+            target.addEntrance(this);
+        }
+
+        exits[direction.ordinal()] = target;
+        refreshWalkableMask();
+
+        if (listener != null) {
+            listener.exitChanged(this, direction);
+        }
+    }
+
+    /**
+     * Get the walkable mask of this tile (see getWalkableMask()).
+     * @return the walkable mask
+     */
+    int walkableMask() {
+        return walkableMask;
+    }
+
+    /**
+     * Get the exits that are not named after a direction.
+     * @return a read-only map of names to Tiles, or null if there are none
+     */
+    Map<String, Tile> otherExits() {
+        return otherExits == null
+                ? null : Collections.unmodifiableMap(otherExits);
+    }
+
+    /**
+     * Add or replace an exit that is not named after a direction, without
+     * checking it.
+     * @param name the name of the exit
+     * @param target the tile the exit goes to
+     */
+    void putOtherExit(String name, Tile target) {
+        if (otherExits == null) {
+            otherExits = new TreeMap<>();
+        }
+        otherExits.put(name, target);
+    }
+
+    /**
+     * Remove an exit that is not named after a direction, without
+     * checking it.
+     * @param name the name of the exit
+     */
+    void deleteOtherExit(String name) {
+        if (otherExits != null) {
+            otherExits.remove(name);
+            if (otherExits.isEmpty()) {
+                otherExits = null;
+            }
+        }
+    }
+
+    /**
+     * A read-only view of the blocks on this tile, bottom first.
+     */
+    private final class BlockList extends AbstractList<Block>
+            implements RandomAccess {
+
+        @Override
+        public Block get(int index) {
+            if (index < 0 || index >= height()) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + height());
+            }
+            return blockAt(index);
+        }
+
+        @Override
+        public int size() {
+            return height();
+        }
+    }
+
+    /**
+     * A read-only view of the exits of this tile, keyed by exit name and
+     * sorted by name.
+     */
+    private final class ExitMap extends AbstractMap<String, Tile> {
+
+        @Override
+        public Tile get(Object key) {
+            return key instanceof String ? exitTo((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value instanceof Tile && hasExitTo((Tile) value);
+        }
+
+        @Override
+        public int size() {
+            Map<String, Tile> others = otherExits();
+            return Integer.bitCount(getExitMask())
+                    + (others == null ? 0 : others.size());
+        }
+
+        @Override
+        public Set<Map.Entry<String, Tile>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Tile>>() {
+                @Override
+                public Iterator<Map.Entry<String, Tile>> iterator() {
+                    Map<String, Tile> others = otherExits();
+                    if (others == null) {
+                        return new DirectionIterator();
+                    }
+
+                    // merge the direction and other exits by name
+                    Map<String, Tile> all = new TreeMap<>(others);
+                    for (Direction direction : SORTED_DIRECTIONS) {
+                        if (exitAt(direction) != null) {
+                            all.put(direction.getName(), exitAt(direction));
+                        }
+                    }
+                    return Collections.unmodifiableMap(all).entrySet()
+                            .iterator();
+                }
+
+                @Override
+                public int size() {
+                    return ExitMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * An iterator over the direction exits of this tile, in name order.
+     */
+    private final class DirectionIterator
+            implements Iterator<Map.Entry<String, Tile>> {
+
+        // the index in SORTED_DIRECTIONS of the next exit
+        private int next = advance(0);
+
+        /**
+         * Find the first direction from index with an exit.
+         * @param index the index in SORTED_DIRECTIONS to start from
+         * @return the index of the exit, or SORTED_DIRECTIONS.length
+         */
+        private int advance(int index) {
+            while (index < SORTED_DIRECTIONS.length
+                    && exitAt(SORTED_DIRECTIONS[index]) == null) {
+                index++;
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < SORTED_DIRECTIONS.length;
+        }
+
+        @Override
+        public Map.Entry<String, Tile> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Direction direction = SORTED_DIRECTIONS[next];
+            next = advance(next + 1);
+            return new AbstractMap.SimpleImmutableEntry<>(
+                    direction.getName(), exitAt(direction));
+        }
+    }
 }
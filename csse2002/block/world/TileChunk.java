@@ -0,0 +1,125 @@
+package csse2002.block.world;
+
+/**
+ * A fixed-size square region of a {@link SparseTileArray SparseTileArray}.
+ * <br>
+ * Tiles in the chunk are stored densely in row-major order, so tiles that
+ * are close together in the world are also close together in memory. <br>
+ * The chunk at chunk coordinates (cx, cy) covers the tiles with
+ * {@literal cx * SIZE <= x < (cx + 1) * SIZE} and
+ * {@literal cy * SIZE <= y < (cy + 1) * SIZE}.
+ * @serial exclude
+ */
+public final class TileChunk {
+
+    /**
+     * The number of tiles along each side of a chunk.
+     */
+    public static final int SIZE = 16;
+
+    // log2(SIZE), to convert between tile and chunk coordinates
+    static final int SHIFT = 4;
+
+    // SIZE - 1, to get the local coordinate within a chunk
+    static final int MASK = SIZE - 1;
+
+    // the chunk coordinates
+    private final int chunkX;
+    private final int chunkY;
+
+    // tiles in row-major order, null where there is no tile
+    private final Tile[] tiles;
+
+    // the number of non-null tiles
+    private int tileCount;
+
+    /**
+     * Construct an empty chunk at chunk coordinates (chunkX, chunkY).
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkY the y coordinate of the chunk
+     */
+    TileChunk(int chunkX, int chunkY) {
+        this.chunkX = chunkX;
+        this.chunkY = chunkY;
+        this.tiles = new Tile[SIZE * SIZE];
+    }
+
+    /**
+     * Get the x coordinate of the chunk (i.e. the smallest tile x
+     * coordinate in the chunk divided by SIZE).
+     * @return the chunk x coordinate
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    /**
+     * Get the y coordinate of the chunk (i.e. the smallest tile y
+     * coordinate in the chunk divided by SIZE).
+     * @return the chunk y coordinate
+     */
+    public int getChunkY() {
+        return chunkY;
+    }
+
+    /**
+     * Get the smallest tile x coordinate covered by this chunk.
+     * @return getChunkX() * SIZE
+     */
+    public int getMinX() {
+        return chunkX << SHIFT;
+    }
+
+    /**
+     * Get the smallest tile y coordinate covered by this chunk.
+     * @return getChunkY() * SIZE
+     */
+    public int getMinY() {
+        return chunkY << SHIFT;
+    }
+
+    /**
+     * Get the number of tiles in this chunk.
+     * @return the number of tiles, between 0 and SIZE * SIZE
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Get the tile at local coordinates (localX, localY), i.e. the tile
+     * at (getMinX() + localX, getMinY() + localY).
+     * @param localX the x offset in the chunk
+     * @param localY the y offset in the chunk
+     * @return the tile, or null if there is no tile at that position
+     * @require 0 &lt;= localX &lt; SIZE and 0 &lt;= localY &lt; SIZE
+     */
+    public Tile getTile(int localX, int localY) {
+        return tiles[(localY << SHIFT) | localX];
+    }
+
+    /**
+     * Set the tile at local coordinates (localX, localY).
+     * @param localX the x offset in the chunk
+     * @param localY the y offset in the chunk
+     * @param tile the tile to store, or null to clear the position
+     */
+    void setTile(int localX, int localY, Tile tile) {
+        int index = (localY << SHIFT) | localX;
+        if (tiles[index] == null && tile != null) {
+            tileCount++;
+        } else if (tiles[index] != null && tile == null) {
+            tileCount--;
+        }
+        tiles[index] = tile;
+    }
+
+    /**
+     * Get the chunk coordinate containing the tile coordinate c.
+     * @param c a tile x or y coordinate
+     * @return the matching chunk coordinate
+     */
+    static int toChunk(int c) {
+        return c >> SHIFT;
+    }
+}
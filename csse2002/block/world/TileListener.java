@@ -0,0 +1,29 @@
+package csse2002.block.world;
+
+/**
+ * Notified when the height or the exits of a {@link Tile Tile} change, so
+ * that anything derived from them can be updated. <br>
+ * A tile has at most one listener, which is installed by the
+ * {@link WorldMap WorldMap} containing it (see
+ * WorldMap.addTileListener()). Listeners are called on the thread that
+ * changed the tile, after the change (and the walkable masks that depend
+ * on it) has been made.
+ * @serial exclude
+ */
+interface TileListener {
+
+    /**
+     * Called after blocks are placed on or removed from a tile, so that
+     * its height has changed.
+     * @param tile the tile whose height changed
+     */
+    void heightChanged(Tile tile);
+
+    /**
+     * Called after the exit of a tile in a direction is added, removed or
+     * changed.
+     * @param tile the tile whose exit changed
+     * @param direction the direction of the exit
+     */
+    void exitChanged(Tile tile, Direction direction);
+}
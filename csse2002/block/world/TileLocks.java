@@ -0,0 +1,87 @@
+package csse2002.block.world;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over the positions of a {@link WorldMap WorldMap}, so that
+ * builders acting on different parts of the map from different threads do
+ * not wait for each other. <br>
+ * Each position is guarded by one of a fixed number of locks, chosen by
+ * hashing the position. An action locks the stripes of every position
+ * whose tile it reads or changes, always in increasing order of stripe,
+ * so two threads locking overlapping sets of positions cannot deadlock.
+ * @serial exclude
+ */
+final class TileLocks {
+
+    // the number of stripes (must be a power of two)
+    private static final int STRIPES = 1024;
+
+    // the lock of each stripe
+    private final ReentrantLock[] locks;
+
+    /**
+     * Construct a set of unlocked stripes.
+     */
+    TileLocks() {
+        locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Lock the stripes guarding a set of positions, waiting for other
+     * threads to unlock them if necessary.
+     * @param keys the positions, each packed by
+     *             {@link Position#toKey(int, int) Position.toKey()}
+     * @param count the number of elements of keys to use
+     * @param stripes filled with the stripes that were locked, to pass to
+     *                unlock()
+     * @return the number of stripes locked
+     * @require stripes.length &gt;= count
+     */
+    int lock(long[] keys, int count, int[] stripes) {
+        for (int i = 0; i < count; i++) {
+            stripes[i] = stripeOf(keys[i]);
+        }
+
+        // lock in increasing order, skipping stripes shared by several
+        // positions
+        Arrays.sort(stripes, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || stripes[unique - 1] != stripes[i]) {
+                stripes[unique++] = stripes[i];
+            }
+        }
+
+        for (int i = 0; i < unique; i++) {
+            locks[stripes[i]].lock();
+        }
+        return unique;
+    }
+
+    /**
+     * Unlock the stripes locked by lock().
+     * @param stripes the stripes filled in by lock()
+     * @param count the value returned by lock()
+     */
+    void unlock(int[] stripes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    /**
+     * Get the stripe guarding a position. The key bits are mixed so that
+     * neighbouring positions are usually guarded by different stripes.
+     * @param key the packed position
+     * @return the stripe, between 0 and STRIPES - 1
+     */
+    private static int stripeOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,17 @@
+package csse2002.block.world;
+
+/**
+ * A callback for visiting the tiles in a region of a world map
+ * (see {@link WorldMap#forEachTileIn WorldMap.forEachTileIn()}).
+ * @serial exclude
+ */
+public interface TileVisitor {
+
+    /**
+     * Visit the tile at position (x, y).
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @param tile the tile at (x, y), never null
+     */
+    void visit(int x, int y, Tile tile);
+}
@@ -0,0 +1,41 @@
+package csse2002.block.world;
+
+/**
+ * Notified of changes to a {@link WorldMap WorldMap}: the heights and exits
+ * of its tiles, and the moves of its builders (see
+ * {@link WorldMap#addWorldListener(WorldListener)
+ * WorldMap.addWorldListener()}). <br>
+ * Each method is called on the thread that made the change, after it has
+ * been made. To handle changes in batches rather than one at a time, use
+ * a {@link ChangeTracker ChangeTracker}.
+ * @serial exclude
+ */
+public interface WorldListener {
+
+    /**
+     * Called after blocks are placed on or removed from a tile, so that
+     * its height has changed. <br>
+     * This also changes which of the exits to and from the tile a builder
+     * can move through.
+     * @param position the position of the tile
+     * @param tile the tile whose height changed
+     */
+    void tileHeightChanged(Position position, Tile tile);
+
+    /**
+     * Called after the exit of a tile in a compass direction is added,
+     * removed or changed.
+     * @param position the position of the tile
+     * @param tile the tile whose exit changed
+     * @param direction the direction of the exit
+     */
+    void exitChanged(Position position, Tile tile, Direction direction);
+
+    /**
+     * Called after a builder moves from one tile to another.
+     * @param builder the builder that moved
+     * @param from the tile the builder was on
+     * @param to the tile the builder is now on
+     */
+    void builderMoved(Builder builder, Tile from, Tile to);
+}
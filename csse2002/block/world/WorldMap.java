@@ -8,7 +8,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
 
 /**
  * A class to store a world map.
@@ -25,9 +28,93 @@ public class WorldMap {
     // the builder
     private Builder builder;
 
+    // every builder on this map by name, including builder, in the order
+    // they were added (guarded by synchronizing on builders)
+    private final Map<String, Builder> builders = new LinkedHashMap<>();
+
+    // locks the positions of this map while actions change them
+    private final TileLocks tileLocks = new TileLocks();
+
+    // finds routes for the builders. Created with the map (it is small
+    // until it is used), so that builder threads never see it half-built
+    private final PathFinder pathFinder = new PathFinder(this);
+
+    // answers reachability queries, or null if it has not been needed yet
+    // (guarded by this map)
+    private ReachabilityIndex reachabilityIndex;
+
+    // notified of changes to the tiles of this map (empty if nothing is
+    // listening)
+    private final List<TileListener> tileListeners = new ArrayList<>();
+
+    // installed on every tile of this map while tileListeners is not
+    // empty, and forwards each change to tileListeners
+    private final TileListener dispatcher = new TileListener() {
+        @Override
+        public void heightChanged(Tile tile) {
+            for (TileListener listener : tileListeners) {
+                listener.heightChanged(tile);
+            }
+        }
+
+        @Override
+        public void exitChanged(Tile tile, Direction direction) {
+            for (TileListener listener : tileListeners) {
+                listener.exitChanged(tile, direction);
+            }
+        }
+    };
+
+    // notified of changes to this map (empty if nothing is listening)
+    private final List<WorldListener> worldListeners = new ArrayList<>();
+
+    // forwards each change to worldListeners, and is installed on every
+    // builder of this map while worldListeners is not empty
+    private final WorldListener worldDispatcher = new WorldListener() {
+        @Override
+        public void tileHeightChanged(Position position, Tile tile) {
+            for (WorldListener listener : worldListeners) {
+                listener.tileHeightChanged(position, tile);
+            }
+        }
+
+        @Override
+        public void exitChanged(Position position, Tile tile,
+                                Direction direction) {
+            for (WorldListener listener : worldListeners) {
+                listener.exitChanged(position, tile, direction);
+            }
+        }
+
+        @Override
+        public void builderMoved(Builder builder, Tile from, Tile to) {
+            for (WorldListener listener : worldListeners) {
+                listener.builderMoved(builder, from, to);
+            }
+        }
+    };
+
+    // a tile listener while worldListeners is not empty, which passes the
+    // changes of tiles on to worldDispatcher with their positions
+    private final TileListener tileEvents = new TileListener() {
+        @Override
+        public void heightChanged(Tile tile) {
+            worldDispatcher.tileHeightChanged(getPosition(tile), tile);
+        }
+
+        @Override
+        public void exitChanged(Tile tile, Direction direction) {
+            worldDispatcher.exitChanged(getPosition(tile), tile, direction);
+        }
+    };
+
     // store the system line separator ("\n", "\r\n" or "\r")
     private static final String LINE_SEP = System.lineSeparator();
 
+    // maps loaded from files with at least this many tiles are linked
+    // using SparseTileArray.addLinkedTilesInParallel()
+    private static final int PARALLEL_LINK_THRESHOLD = 100000;
+
     /**
      * A helper class for reading lines. It wraps a BufferedReader
      * and maintains the line number for error reporting.
@@ -277,7 +364,7 @@ public class WorldMap {
      */
     public WorldMap(Tile startingTile, Position startPosition, Builder builder)
             throws WorldMapInconsistentException {
-        reset(startingTile, startPosition, builder);
+        reset(startingTile, startPosition, builder, false);
     }
 
     /**
@@ -289,6 +376,168 @@ public class WorldMap {
         return builder;
     }
 
+    /**
+     * Add another builder to this block world, so that several builders can
+     * act on the map at once (see
+     * {@link Action#processAction(Action, WorldMap, Builder)
+     * Action.processAction()}). <br>
+     * The builder returned by getBuilder() is always on the map, under its
+     * own name.
+     *
+     * @param newBuilder the builder to add
+     * @require newBuilder != null
+     * @require getBuilder(newBuilder.getName()) == null
+     * @require getTileIndex(newBuilder.getCurrentTile()) &gt;= 0
+     */
+    public void addBuilder(Builder newBuilder) {
+        synchronized (builders) {
+            builders.put(newBuilder.getName(), newBuilder);
+        }
+        if (!worldListeners.isEmpty()) {
+            newBuilder.setListener(worldDispatcher);
+        }
+    }
+
+    /**
+     * Get a builder on this block world by name.
+     *
+     * @param name the name of the builder
+     * @return the builder with that name, or null if there is none
+     */
+    public Builder getBuilder(String name) {
+        synchronized (builders) {
+            return builders.get(name);
+        }
+    }
+
+    /**
+     * Get every builder on this block world, in the order they were added
+     * (starting with getBuilder()). <br>
+     * The returned list is a copy, and is not changed by later calls to
+     * addBuilder().
+     *
+     * @return the builders on this map
+     */
+    public List<Builder> getBuilders() {
+        synchronized (builders) {
+            return new ArrayList<>(builders.values());
+        }
+    }
+
+    /**
+     * Get the striped locks that actions hold on the positions of this map
+     * while they change it.
+     *
+     * @return the locks for this map
+     */
+    TileLocks getTileLocks() {
+        return tileLocks;
+    }
+
+    /**
+     * Get the path finder for this map, which is kept between calls so
+     * that its working arrays are reused. <br>
+     * The same path finder is returned to every thread; it is not
+     * thread-safe, so threads must synchronize on it while they use it.
+     *
+     * @return the path finder for this map
+     */
+    public PathFinder getPathFinder() {
+        return pathFinder;
+    }
+
+    /**
+     * Get the reachability index for this map, which is created when it is
+     * first needed and then kept up to date as the map changes. <br>
+     * The index is created at most once, even if several threads call this
+     * at the same time.
+     *
+     * @return the reachability index for this map
+     */
+    public synchronized ReachabilityIndex getReachabilityIndex() {
+        if (reachabilityIndex == null) {
+            reachabilityIndex = new ReachabilityIndex(this);
+        }
+        return reachabilityIndex;
+    }
+
+    /**
+     * Start notifying a listener of changes to this map: changes to the
+     * height or compass exits of its tiles (including tiles added later by
+     * attachLinkedTiles()), and moves of its builders (including builders
+     * added later by addBuilder()). <br>
+     * Listeners must not be added or removed while actions are being
+     * performed on the map.
+     *
+     * @param listener the listener to add
+     * @require listener != null
+     */
+    public void addWorldListener(WorldListener listener) {
+        if (worldListeners.isEmpty()) {
+            addTileListener(tileEvents);
+            for (Builder each : getBuilders()) {
+                each.setListener(worldDispatcher);
+            }
+        }
+        worldListeners.add(listener);
+    }
+
+    /**
+     * Stop notifying a listener added with addWorldListener().
+     *
+     * @param listener the listener to remove
+     */
+    public void removeWorldListener(WorldListener listener) {
+        if (worldListeners.remove(listener) && worldListeners.isEmpty()) {
+            removeTileListener(tileEvents);
+            for (Builder each : getBuilders()) {
+                each.setListener(null);
+            }
+        }
+    }
+
+    /**
+     * Start notifying a listener of changes to the height or exits of the
+     * tiles of this map, including tiles added later by
+     * attachLinkedTiles().
+     *
+     * @param listener the listener to add
+     * @require listener != null
+     */
+    void addTileListener(TileListener listener) {
+        if (tileListeners.isEmpty()) {
+            installDispatcher(0);
+        }
+        tileListeners.add(listener);
+    }
+
+    /**
+     * Stop notifying a listener added with addTileListener().
+     *
+     * @param listener the listener to remove
+     */
+    void removeTileListener(TileListener listener) {
+        tileListeners.remove(listener);
+        if (tileListeners.isEmpty()) {
+            for (Tile tile : getTiles()) {
+                tile.setListener(null);
+            }
+        }
+    }
+
+    /**
+     * Install the dispatcher on the tiles of this map from an index of
+     * getTiles() onwards.
+     *
+     * @param from the index of the first tile
+     */
+    private void installDispatcher(int from) {
+        List<Tile> tiles = getTiles();
+        for (int i = from; i < tiles.size(); i++) {
+            tiles.get(i).setListener(dispatcher);
+        }
+    }
+
     /**
      * Gets the starting position.
      *
@@ -310,6 +559,80 @@ public class WorldMap {
         return tileArray.getTile(position);
     }
 
+    /**
+     * Get a tile by its (x, y) coordinates, without constructing
+     * a Position. <br>
+     * Hint: call SparseTileArray.getTile(x, y)
+     *
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return the tile at that position, or null if there is none
+     */
+    public Tile getTile(int x, int y) {
+        return tileArray.getTile(x, y);
+    }
+
+    /**
+     * Get a chunk of tiles by its chunk coordinates (see
+     * {@link SparseTileArray SparseTileArray.getChunk()} for details).
+     *
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkY the y coordinate of the chunk
+     * @return the chunk, or null if it contains no tiles
+     */
+    public TileChunk getChunk(int chunkX, int chunkY) {
+        return tileArray.getChunk(chunkX, chunkY);
+    }
+
+    /**
+     * Get every populated chunk of tiles that overlaps the rectangle
+     * from (minX, minY) to (maxX, maxY) inclusive (see
+     * {@link SparseTileArray SparseTileArray.getChunks()} for details).
+     *
+     * @param minX the smallest x coordinate of the rectangle
+     * @param minY the smallest y coordinate of the rectangle
+     * @param maxX the largest x coordinate of the rectangle
+     * @param maxY the largest y coordinate of the rectangle
+     * @return a list of the populated chunks overlapping the rectangle
+     */
+    public List<TileChunk> getChunks(int minX, int minY, int maxX, int maxY) {
+        return tileArray.getChunks(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Visit every tile in the rectangle from (minX, minY) to (maxX, maxY)
+     * inclusive, in time proportional to the number of tiles near the
+     * rectangle (see {@link SparseTileArray
+     * SparseTileArray.forEachTileIn()} for details).
+     *
+     * @param minX the smallest x coordinate of the rectangle
+     * @param minY the smallest y coordinate of the rectangle
+     * @param maxX the largest x coordinate of the rectangle
+     * @param maxY the largest y coordinate of the rectangle
+     * @param visitor the visitor to call for each tile
+     * @require visitor != null
+     */
+    public void forEachTileIn(int minX, int minY, int maxX, int maxY,
+                              TileVisitor visitor) {
+        tileArray.forEachTileIn(minX, minY, maxX, maxY, visitor);
+    }
+
+    /**
+     * Visit every tile within a Euclidean distance of radius from
+     * (centreX, centreY) (see {@link SparseTileArray
+     * SparseTileArray.forEachTileWithin()} for details).
+     *
+     * @param centreX the x coordinate of the centre
+     * @param centreY the y coordinate of the centre
+     * @param radius the distance from the centre, at least 0
+     * @param visitor the visitor to call for each tile
+     * @require visitor != null
+     */
+    public void forEachTileWithin(int centreX, int centreY, int radius,
+                                  TileVisitor visitor) {
+        tileArray.forEachTileWithin(centreX, centreY, radius, visitor);
+    }
+
     /**
      * Get a list of tiles in a breadth-first-search
      * order (see {@link SparseTileArray SparseTileArray.getTiles()}
@@ -322,6 +645,53 @@ public class WorldMap {
         return tileArray.getTiles();
     }
 
+    /**
+     * Get the index of a tile in the list returned by getTiles(), which is
+     * also its ID when the map is saved (see
+     * {@link SparseTileArray SparseTileArray.getTileIndex()} for details).
+     *
+     * @param tile the tile to look up
+     * @return the index of tile in getTiles(), or -1 if tile is not in
+     *         this map
+     */
+    public int getTileIndex(Tile tile) {
+        return tileArray.getTileIndex(tile);
+    }
+
+    /**
+     * Get the position of a tile in this map. <br>
+     * Hint: call SparseTileArray.getPosition()
+     *
+     * @param tile the tile to look up
+     * @return the position of tile, or null if tile is not in this map
+     */
+    public Position getPosition(Tile tile) {
+        return tileArray.getPosition(tile);
+    }
+
+    /**
+     * Add the tiles that have become reachable from a tile already in this
+     * world map, such as a new tile linked to the edge of the map, without
+     * rebuilding the rest of the map (see
+     * {@link SparseTileArray SparseTileArray.attachLinkedTiles()} for
+     * details). <br>
+     * If the new tiles are inconsistent, only they are removed, and the
+     * existing map is left unchanged.
+     *
+     * @param anchorTile a tile in this map whose exits lead to the new tiles
+     * @throws WorldMapInconsistentException if the new tiles are not
+     *         geometrically consistent with the map
+     * @require anchorTile != null
+     */
+    public void attachLinkedTiles(Tile anchorTile)
+            throws WorldMapInconsistentException {
+        int tileCount = getTiles().size();
+        tileArray.attachLinkedTiles(anchorTile);
+        if (!tileListeners.isEmpty()) {
+            installDispatcher(tileCount);
+        }
+    }
+
     /**
      * Construct a block world map from the given filename. <br>
      * The block world map format is as follows:
@@ -559,7 +929,8 @@ public class WorldMap {
 
             Tile startTile = tiles[0];
             Builder builder = new Builder(builderName, startTile, inventory);
-            reset(startTile, startPosition, builder);
+            reset(startTile, startPosition, builder,
+                    numTiles >= PARALLEL_LINK_THRESHOLD);
 
         } catch (TooHighException e) {
             throw new WorldMapFormatException("A TooHighException would be "
@@ -607,66 +978,75 @@ public class WorldMap {
      */
     public void saveMap(String filename) throws
             IOException {
+        writeMap(filename, getStartPosition(), getBuilder(), getTiles(),
+                this::getTileIndex);
+    }
 
+    /**
+     * Write a map file in the format of saveMap(). <br>
+     * Shared by WorldMap and CompactWorld, so that both write the same
+     * files. The tiles are written as they are encoded, rather than
+     * building the whole file in memory first.
+     *
+     * @param filename the filename to be written to
+     * @param start the starting position
+     * @param builder the builder
+     * @param tiles the tiles, in the order of their ids
+     * @param tileIndex gives the id of a tile that an exit leads to
+     * @throws IOException if the file cannot be opened or written to.
+     */
+    static void writeMap(String filename, Position start, Builder builder,
+                         List<Tile> tiles, ToIntFunction<Tile> tileIndex)
+            throws IOException {
+        try (BufferedWriter writer =
+                     new BufferedWriter(new FileWriter(filename))) {
+            // start position
+            writer.write(start.getX() + LINE_SEP);
+            writer.write(start.getY() + LINE_SEP);
+
+            // builder
+            writer.write(builder.getName() + LINE_SEP);
+            writer.write(encodeBlocks(builder.getInventory()));
+            writer.write(LINE_SEP);
+
+            // total tiles
+            writer.write("total:" + tiles.size() + LINE_SEP);
+
+            // tile blocks
+            for (int i = 0; i < tiles.size(); i++) {
+                writer.write(encodeTile(tiles.get(i), i));
+            }
+            writer.write(LINE_SEP);
 
-        // add everything to a string and then write that to a file
-        StringBuilder toWrite = new StringBuilder();
-
-        // start position
-        toWrite.append(getStartPosition().getX()).append(LINE_SEP);
-        toWrite.append(getStartPosition().getY()).append(LINE_SEP);
-
-        // builder
-        toWrite.append(getBuilder().getName()).append(LINE_SEP);
-        toWrite.append(encodeBlocks(getBuilder().getInventory()));
-        toWrite.append(LINE_SEP);
-
-        List<Tile> tiles = getTiles();
-
-        StringBuilder exits = new StringBuilder();
-
-        // total tiles
-        toWrite.append("total:").append(tiles.size()).append(LINE_SEP);
-
-        // tile blocks (and handle tile exits using a second string builder)
-        for (int i = 0; i < tiles.size(); i++) {
-            toWrite.append(encodeTile(tiles.get(i), i));
-            exits.append(encodeExits(tiles, tiles.get(i), i));
+            // tile exits
+            writer.write("exits" + LINE_SEP);
+            for (int i = 0; i < tiles.size(); i++) {
+                writer.write(encodeExits(tiles.get(i), i, tileIndex));
+            }
         }
-        toWrite.append(LINE_SEP);
-
-        // write exits
-        toWrite.append("exits").append(LINE_SEP);
-        toWrite.append(exits.toString());
-
-        // write the string builder toWrite to a file
-        BufferedWriter writer =
-                new BufferedWriter(new FileWriter(filename));
-        writer.write(toWrite.toString());
-
-        writer.close();
     }
 
     /**
      * Encodes the exits of the given tile as a correctly formatted line to be
      * written to a tileArray file.
      *
-     * @param tiles all the tiles in the tileArray
-     * @param tile the tile to encode the exits of
+     * @param tile the tile whose exits are encoded
      * @param id the id of the tile in the file
+     * @param tileIndex gives the id of the tile each exit leads to
      * @return an encoded string representing the tile's exits
      */
-    private static String encodeExits(List<Tile> tiles, Tile tile, int id) {
+    private static String encodeExits(Tile tile, int id,
+                                      ToIntFunction<Tile> tileIndex) {
         StringBuilder result = new StringBuilder();
         result.append(id).append(" ");
 
         String sep = "";
 
         // encode each exit into a StringBuilder
-        for (String exitName : tile.getExits().keySet()) {
+        for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
             result.append(sep);
-            result.append(exitName).append(":");
-            result.append(tiles.indexOf(tile.getExits().get(exitName)));
+            result.append(exit.getKey()).append(":");
+            result.append(tileIndex.applyAsInt(exit.getValue()));
             sep = ",";
         }
 
@@ -701,7 +1081,9 @@ public class WorldMap {
 
         StringBuilder result = new StringBuilder();
         for (Block item : blocks) {
-            result.append(item.getBlockType()).append(',');
+            BlockType type = BlockType.of(item);
+            result.append(type != null ? type.getName() : item.getBlockType());
+            result.append(',');
         }
         result.deleteCharAt(result.length() - 1);
         result.append(LINE_SEP);
@@ -860,25 +1242,20 @@ public class WorldMap {
     }
 
     /**
-     * Creates a block based on the required type provided.
+     * Gets a block of the required type provided. <br>
+     * Blocks have no state, so the shared block of the type is returned
+     * rather than a new block.
      * @param blockType the type of block to be created
-     * @return a new block of type blockType
+     * @return a block of type blockType
      */
     private static Block decodeBlock(String blockType) throws
             WorldMapFormatException {
-        switch (blockType) {
-            case "grass":
-                return new GrassBlock();
-            case "soil":
-                return new SoilBlock();
-            case "stone":
-                return new StoneBlock();
-            case "wood":
-                return new WoodBlock();
-            default:
-                throw new WorldMapFormatException(
-                        "Invalid block name specified");
+        BlockType type = BlockType.fromName(blockType);
+        if (type == null) {
+            throw new WorldMapFormatException(
+                    "Invalid block name specified");
         }
+        return type.getBlock();
     }
 
     /**
@@ -886,16 +1263,26 @@ public class WorldMap {
      * @param startingTile the starting tile
      * @param startPosition the position of the starting tile
      * @param builder the builder
+     * @param parallel true to check the linked tiles in parallel
      * @throws WorldMapInconsistentException if tiles linked to the
      *         startingTile are inconsistent
      */
     private void reset(Tile startingTile, Position startPosition,
-                       Builder builder)
+                       Builder builder, boolean parallel)
             throws WorldMapInconsistentException {
         this.startPosition = startPosition;
         this.builder = builder;
+        synchronized (builders) {
+            builders.clear();
+            builders.put(builder.getName(), builder);
+        }
         this.tileArray = new SparseTileArray();
-        tileArray.addLinkedTiles(startingTile, startPosition.getX(),
-                startPosition.getY());
+        if (parallel) {
+            tileArray.addLinkedTilesInParallel(startingTile,
+                    startPosition.getX(), startPosition.getY());
+        } else {
+            tileArray.addLinkedTiles(startingTile, startPosition.getX(),
+                    startPosition.getY());
+        }
     }
 }
@@ -1,7 +1,10 @@
 package game;
 
-import csse2002.block.world.Block;
+import csse2002.block.world.BlockType;
+import csse2002.block.world.ChangeTracker;
+import csse2002.block.world.Direction;
 import csse2002.block.world.Position;
+import csse2002.block.world.Tile;
 import csse2002.block.world.WorldMap;
 import csse2002.block.world.WorldMapFormatException;
 import csse2002.block.world.WorldMapInconsistentException;
@@ -9,9 +12,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import javafx.animation.KeyFrame;
 import javafx.animation.KeyValue;
@@ -74,6 +77,10 @@ public class View {
     private PhongMaterial grassMat, soilMat, woodMat, stoneMat, playerMat
             = new PhongMaterial();
 
+    // Materials for each block type, indexed by BlockType.getCode()
+    private PhongMaterial[] blockMats =
+            new PhongMaterial[BlockType.values().length];
+
     // List of buttons
     private LinkedList<Button> buttonList = new LinkedList<>();
 
@@ -89,6 +96,17 @@ public class View {
     // Position object that stores the builder's current position
     private Position currentPosition = new Position(0,0);
 
+    // Records the tiles of the world map that change, so that only their
+    // blocks are rebuilt by updateWorld()
+    private ChangeTracker changeTracker;
+
+    // The blocks and exit indicators of each tile shown, by position
+    private Map<Position, Group> tileGroups = new HashMap<>();
+
+    // The position that the tiles shown are centred on, or null if no
+    // tiles are shown
+    private Position loadedCentre = null;
+
     // The root group (contains all 3D objects)
     private Group root;
 
@@ -183,6 +201,11 @@ public class View {
         woodMat.setDiffuseMap(new Image("images/diffuse/wood.jpg"));
         stoneMat.setDiffuseMap(new Image("images/diffuse/stone.jpg"));
         playerMat.setDiffuseMap(new Image("images/diffuse/laughing.png"));
+
+        blockMats[BlockType.GRASS.getCode()] = grassMat;
+        blockMats[BlockType.SOIL.getCode()] = soilMat;
+        blockMats[BlockType.WOOD.getCode()] = woodMat;
+        blockMats[BlockType.STONE.getCode()] = stoneMat;
     }
 
     /**
@@ -192,7 +215,10 @@ public class View {
     private void createWorld(String filename) {
         try {
             worldMap = new WorldMap(filename);
+            changeTracker = new ChangeTracker();
+            worldMap.addWorldListener(changeTracker);
             currentPosition = worldMap.getStartPosition();
+            clearWorld();
             updateWorld();
         } catch (FileNotFoundException e) {
 
@@ -206,57 +232,94 @@ public class View {
     }
 
     /**
-     * Updates the world, adding all blocks to the world based off the worldMap
-     * object.
+     * Removes the blocks of every tile from the 3D view.
      */
-    private void updateWorld() {
-        // Deletes all Boxes or Cylinders
-        Iterator<Node> iter = root.getChildren().iterator();
-        while (iter.hasNext()) {
-            Node node = iter.next();
-            if (node instanceof Box || node instanceof Cylinder) {
-                iter.remove();
-            }
-        }
+    private void clearWorld() {
+        root.getChildren().removeAll(new HashSet<>(tileGroups.values()));
+        tileGroups.clear();
+        loadedCentre = null;
+    }
 
+    /**
+     * Updates the world, so that the blocks of every tile within
+     * LOAD_RADIUS of the current position are shown. <br>
+     * Only the tiles that have changed since the last update (as recorded
+     * by the change tracker) are rebuilt, along with the tiles that came
+     * into range if the current position moved; tiles that went out of
+     * range are removed.
+     */
+    private void updateWorld() {
         int xLowerBound = currentPosition.getX() - LOAD_RADIUS;
         int xUpperBound = currentPosition.getX() + LOAD_RADIUS;
         int yLowerBound = currentPosition.getY() - LOAD_RADIUS;
         int yUpperBound = currentPosition.getY() + LOAD_RADIUS;
 
-        // Loops through every tile and creates blocks based off the tile
-        for (int i = xLowerBound; i <= xUpperBound; i++) {
-            for (int j = yLowerBound; j <= yUpperBound; j++) {
-                Position ijPos = new Position(i,j);
-                if (worldMap.getTile(ijPos) != null) {
-                    List<Block> blocks = worldMap.getTile(ijPos).getBlocks();
-                    for (int k = 0; k < blocks.size(); k++) {
-                        Box box = new Box(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE);
-                        switch (blocks.get(k).getBlockType()) {
-                            case "grass":
-                                box.setMaterial(grassMat);
-                                break;
-                            case "stone":
-                                box.setMaterial(stoneMat);
-                                break;
-                            case "wood":
-                                box.setMaterial(woodMat);
-                                break;
-                            case "soil":
-                                box.setMaterial(soilMat);
-                                break;
-                        }
-                        box.setTranslateX(i*BLOCK_SIZE);
-                        box.setTranslateZ(-j*BLOCK_SIZE);
-                        box.setTranslateY(-k*BLOCK_SIZE);
-                        root.getChildren().add(box);
-                        if (k == (blocks.size() - 1)) {
-                            addIndicators(i,j,k,ijPos);
-                        }
+        // Rebuilds the tiles that changed
+        for (Position position : changeTracker.getDirtyPositions()) {
+            Group tileGroup = tileGroups.remove(position);
+            if (tileGroup != null) {
+                root.getChildren().remove(tileGroup);
+                addTileBlocks(position.getX(), position.getY(),
+                        worldMap.getTile(position));
+            }
+        }
+        changeTracker.clear();
+
+        if (currentPosition.equals(loadedCentre)) {
+            return;
+        }
+
+        // Removes the tiles that are out of range
+        Iterator<Map.Entry<Position, Group>> iter =
+                tileGroups.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Position, Group> entry = iter.next();
+            Position position = entry.getKey();
+            if (position.getX() < xLowerBound || position.getX() > xUpperBound
+                    || position.getY() < yLowerBound
+                    || position.getY() > yUpperBound) {
+                root.getChildren().remove(entry.getValue());
+                iter.remove();
+            }
+        }
+
+        // Loops through every tile in range and creates blocks for the
+        // tiles that are not shown yet
+        worldMap.forEachTileIn(xLowerBound, yLowerBound, xUpperBound,
+                yUpperBound, (i, j, tile) -> {
+                    if (!tileGroups.containsKey(new Position(i, j))) {
+                        addTileBlocks(i, j, tile);
                     }
-                }
+                });
+        loadedCentre = currentPosition;
+    }
+
+    /**
+     * Adds a box for each block on the specified tile, followed by its
+     * exit indicators, in a group of their own.
+     * @param i - the i coordinate
+     * @param j - the j coordinate
+     * @param tile - the tile at (i, j)
+     */
+    private void addTileBlocks(int i, int j, Tile tile) {
+        Group tileGroup = new Group();
+        int height = tile.getHeight();
+        for (int k = 0; k < height; k++) {
+            Box box = new Box(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE);
+            BlockType type = tile.getBlockTypeAt(k);
+            if (type != null) {
+                box.setMaterial(blockMats[type.getCode()]);
+            }
+            box.setTranslateX(i*BLOCK_SIZE);
+            box.setTranslateZ(-j*BLOCK_SIZE);
+            box.setTranslateY(-k*BLOCK_SIZE);
+            tileGroup.getChildren().add(box);
+            if (k == (height - 1)) {
+                addIndicators(i,j,k,tile,tileGroup);
             }
         }
+        root.getChildren().add(tileGroup);
+        tileGroups.put(new Position(i, j), tileGroup);
     }
 
     /**
@@ -264,28 +327,26 @@ public class View {
      * @param i - the i coordinate
      * @param j - the j coordinate
      * @param k - the k coordinate
-     * @param ijPos - the position ijPos
+     * @param tile - the tile at (i, j)
+     * @param tileGroup - the group to add the indicators to
      */
-    private void addIndicators(int i, int j, int k, Position ijPos) {
+    private void addIndicators(int i, int j, int k, Tile tile,
+            Group tileGroup) {
 
-        // Creates map containing positions for indicators corresponding to
-        // each direction
-        HashMap<String, Pair<Double, Double>> map = new HashMap<>();
-        map.put("west", new Pair<>(-BLOCK_SIZE/6,(double)0));
-        map.put("east", new Pair<>(BLOCK_SIZE/6,(double)0));
-        map.put("north", new Pair<>((double)0,BLOCK_SIZE/6));
-        map.put("south", new Pair<>((double)0,-BLOCK_SIZE/6));
+        // Indicators are offset from the centre of the tile towards each
+        // exit (z runs opposite to y)
+        int exitMask = tile.getExitMask();
 
-        for (String dir : map.keySet()) {
-            if (worldMap.getTile(ijPos).getExits().containsKey(dir)) {
+        for (Direction dir : Direction.values()) {
+            if ((exitMask & dir.getBit()) != 0) {
                 Cylinder ind = new Cylinder(BLOCK_SIZE/16, BLOCK_SIZE/8);
                 ind.setMaterial(new PhongMaterial(Color.web("#00000066")));
                 ind.setTranslateX((i +
-                        map.get(dir).getKey()) * BLOCK_SIZE);
-                ind.setTranslateZ((-j +
-                        map.get(dir).getValue()) * BLOCK_SIZE);
+                        dir.getDx() * BLOCK_SIZE/6) * BLOCK_SIZE);
+                ind.setTranslateZ((-j -
+                        dir.getDy() * BLOCK_SIZE/6) * BLOCK_SIZE);
                 ind.setTranslateY((-k - BLOCK_SIZE/4) * BLOCK_SIZE);
-                root.getChildren().add(ind);
+                tileGroup.getChildren().add(ind);
             }
         }
     }
@@ -298,7 +359,7 @@ public class View {
         player = new Sphere();
         player.setRadius(BLOCK_SIZE/2);
         player.setTranslateY((-worldMap.getTile(currentPosition).
-                getBlocks().size()*BLOCK_SIZE));
+                getHeight()*BLOCK_SIZE));
         player.setTranslateX(currentPosition.getX()*BLOCK_SIZE);
         player.setTranslateZ(-currentPosition.getY()*BLOCK_SIZE);
         player.setMaterial(getMaterial("player"));
@@ -343,7 +404,7 @@ public class View {
                 new Rotate(-45, Rotate.Y_AXIS),
                 new Rotate(-30, Rotate.X_AXIS),
                 new Translate(0, 0, -20));
-        camera.setTranslateY((-worldMap.getTile(currentPosition).getBlocks().size())*BLOCK_SIZE);
+        camera.setTranslateY((-worldMap.getTile(currentPosition).getHeight())*BLOCK_SIZE);
         camera.setTranslateX(currentPosition.getX()*BLOCK_SIZE);
         camera.setTranslateZ(-currentPosition.getY()*BLOCK_SIZE);
         root.getChildren().add(camera);
@@ -357,7 +418,7 @@ public class View {
      */
     private void updateNodeHeight(Node node) {
         node.setTranslateY(-worldMap.getTile(currentPosition)
-                .getBlocks().size()*BLOCK_SIZE);
+                .getHeight()*BLOCK_SIZE);
     }
 
     /**
@@ -366,6 +427,8 @@ public class View {
      */
     private void create3DView(Group group) {
         root = new Group();
+        tileGroups.clear();
+        loadedCentre = null;
         subScene = new SubScene(root, 600,600,
                 true, SceneAntialiasing.BALANCED);
         subScene.setFill(Color.LIGHTSKYBLUE);
@@ -482,31 +545,29 @@ public class View {
      * @param blockGrid - the grid pane to add the inventory listing to
      */
     private void createInventoryItems(GridPane blockGrid) {
-        Image grassImg = new Image("images/sprites/grass.jpg");
-        Image soilImg = new Image("images/sprites/soil.jpg");
-        Image woodImg = new Image("images/sprites/wood.jpg");
-        Image stoneImg = new Image("images/sprites/stone.jpg");
-
+        // Sprites for each block type, indexed by BlockType.getCode()
+        Image[] blockImgs = new Image[BlockType.values().length];
+        blockImgs[BlockType.GRASS.getCode()] =
+                new Image("images/sprites/grass.jpg");
+        blockImgs[BlockType.SOIL.getCode()] =
+                new Image("images/sprites/soil.jpg");
+        blockImgs[BlockType.WOOD.getCode()] =
+                new Image("images/sprites/wood.jpg");
+        blockImgs[BlockType.STONE.getCode()] =
+                new Image("images/sprites/stone.jpg");
+
+        // One button per block type held, labelled with the count
         if (worldMap != null) {
-            for (int i = 0; i < worldMap.getBuilder().getInventory().size(); i++) {
-                final int index = i;
-                Button button = new Button();
-                switch (worldMap.getBuilder().getInventory().get(i).getBlockType()) {
-                    case "grass":
-                        button.setGraphic(new ImageView(grassImg));
-                        break;
-                    case "stone":
-                        button.setGraphic(new ImageView(stoneImg));
-                        break;
-                    case "soil":
-                        button.setGraphic(new ImageView(soilImg));
-                        break;
-                    case "wood":
-                        button.setGraphic(new ImageView(woodImg));
-                        break;
+            int row = 1;
+            for (BlockType type : BlockType.values()) {
+                int count = worldMap.getBuilder().getInventoryCount(type);
+                if (count == 0) {
+                    continue;
                 }
-                button.setOnAction(e -> placeBlock(index));
-                blockGrid.add(button, 0, i+1);
+                Button button = new Button("x" + count);
+                button.setGraphic(new ImageView(blockImgs[type.getCode()]));
+                button.setOnAction(e -> placeBlock(type));
+                blockGrid.add(button, 0, row++);
             }
         }
     }
@@ -665,12 +726,13 @@ public class View {
     }
 
     /**
-     * Place the block on the tile that the builder is currently on.
-     * @param index - the index from the inventory to place
+     * Place a block of a type from the inventory on the tile that the
+     * builder is currently on.
+     * @param type - the type of block to place
      */
-    public void placeBlock(int index) {
+    public void placeBlock(BlockType type) {
         try {
-            worldMap.getBuilder().dropFromInventory(index);
+            worldMap.getBuilder().dropByType(type);
             updateEverything(0, 0);
             createInventoryListing();
         } catch (Exception e) {
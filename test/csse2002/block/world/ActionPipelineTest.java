@@ -0,0 +1,366 @@
+package csse2002.block.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test of the threaded path of {@link ActionPipeline ActionPipeline},
+ * which is forced whatever the number of processors. <br>
+ * Each check performs the same actions twice, on two maps built in the
+ * same way: once with the pipeline, and once with
+ * Action.processActions(ActionDecoder, WorldMap, ActionResultSink). It
+ * checks that:
+ * <ul>
+ *     <li> a long action file (many times the size of the pipeline's
+ *          rings, including invalid actions and MOVE_TO actions) gives the
+ *          same output and the same final map either way; </li>
+ *     <li> a line that cannot be decoded in the middle of the file throws
+ *          the same ActionFormatException either way, after the same
+ *          output and changes to the map; </li>
+ *     <li> an exception thrown by the sink is thrown by the pipeline,
+ *          after the same results were given to the sink, and the
+ *          pipeline does not hang. </li>
+ * </ul>
+ * There is no test framework in this project, so the test is a program:
+ * it prints "ok" and exits normally if every check passes, and otherwise
+ * throws an AssertionError (exiting with a non-zero status). Run it with,
+ * for example: <br>
+ * {@literal javac -d out csse2002/block/world/*.java
+ * test/csse2002/block/world/*.java &&
+ * java -cp out csse2002.block.world.ActionPipelineTest}
+ * @serial exclude
+ */
+public class ActionPipelineTest {
+
+    // the width and height of the grid of tiles
+    private static final int SIZE = 24;
+
+    // the number of lines in the long action file
+    private static final int LINES = 200_000;
+
+    // the number of processors the pipeline is told there are
+    private static final int PROCESSORS = 4;
+
+    // how long the pipeline may take before it is taken to be hung, in
+    // milliseconds
+    private static final long TIME_LIMIT = 60_000;
+
+    private static final String[] DIRECTIONS =
+            {"north", "east", "south", "west"};
+
+    /**
+     * Run the test.
+     * @param args not used
+     * @throws Exception if the test cannot be set up
+     */
+    public static void main(String[] args) throws Exception {
+        checkSameResults();
+        checkFormatError();
+        checkFailingSink();
+        System.out.println("ActionPipelineTest ok");
+    }
+
+    /**
+     * Check that a long action file gives the same output and map with
+     * the pipeline as without it.
+     * @throws Exception if the maps cannot be built or saved
+     */
+    private static void checkSameResults() throws Exception {
+        byte[] actions = actionFile(new Random(1), LINES, -1);
+
+        WorldMap expectedMap = buildMap(new Random(2));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Action.processActions(new ActionDecoder(ByteBuffer.wrap(actions)),
+                expectedMap, new TextResultSink(expected));
+
+        WorldMap actualMap = buildMap(new Random(2));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        runPipeline(actions, actualMap, new TextResultSink(actual));
+
+        check(expected.size() > LINES, "too little output to compare: "
+                + expected.size());
+        check(Arrays.equals(expected.toByteArray(), actual.toByteArray()),
+                "the pipeline gave different output");
+        check(Arrays.equals(save(expectedMap), save(actualMap)),
+                "the pipeline gave a different map");
+    }
+
+    /**
+     * Check that a line that cannot be decoded in the middle of the
+     * action file is reported in the same way with the pipeline as
+     * without it.
+     * @throws Exception if the maps cannot be built or saved
+     */
+    private static void checkFormatError() throws Exception {
+        byte[] actions = actionFile(new Random(3), LINES, LINES / 2);
+
+        WorldMap expectedMap = buildMap(new Random(4));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ActionFormatException expectedError = null;
+        try {
+            Action.processActions(
+                    new ActionDecoder(ByteBuffer.wrap(actions)),
+                    expectedMap, new TextResultSink(expected));
+        } catch (ActionFormatException format) {
+            expectedError = format;
+        }
+
+        WorldMap actualMap = buildMap(new Random(4));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        Throwable actualError = runPipeline(actions, actualMap,
+                new TextResultSink(actual));
+
+        check(expectedError != null, "the bad line was not detected");
+        check(actualError instanceof ActionFormatException
+                && actualError.getMessage().equals(
+                        expectedError.getMessage()),
+                "the pipeline threw " + actualError + ", not "
+                        + expectedError);
+        check(Arrays.equals(expected.toByteArray(), actual.toByteArray()),
+                "the pipeline gave different output before the bad line");
+        check(Arrays.equals(save(expectedMap), save(actualMap)),
+                "the pipeline gave a different map before the bad line");
+    }
+
+    /**
+     * Check that an exception thrown by the sink is thrown by the
+     * pipeline, after the same results as without the pipeline.
+     * @throws Exception if the maps cannot be built
+     */
+    private static void checkFailingSink() throws Exception {
+        byte[] actions = actionFile(new Random(5), LINES, -1);
+        int limit = LINES / 3;
+
+        FailingSink expected = new FailingSink(limit);
+        RuntimeException expectedError = null;
+        try {
+            Action.processActions(
+                    new ActionDecoder(ByteBuffer.wrap(actions)),
+                    buildMap(new Random(6)), expected);
+        } catch (RuntimeException failure) {
+            expectedError = failure;
+        }
+
+        FailingSink actual = new FailingSink(limit);
+        Throwable actualError = runPipeline(actions,
+                buildMap(new Random(6)), actual);
+
+        check(expectedError == expected.failure,
+                "the sink's exception was not thrown: " + expectedError);
+        check(actualError == actual.failure,
+                "the pipeline threw " + actualError
+                        + ", not the sink's exception");
+        check(actual.results.equals(expected.results),
+                "the pipeline gave the sink different results");
+    }
+
+    /**
+     * Perform actions with the pipeline's threads, on a thread that is
+     * given a time limit.
+     * @param actions the action file
+     * @param map the map to perform the actions on
+     * @param sink the sink to give the results to
+     * @return what the pipeline threw, or null if it returned normally
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static Throwable runPipeline(byte[] actions, WorldMap map,
+                                         ActionResultSink sink)
+            throws InterruptedException {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                ActionPipeline.processActions(
+                        new ActionDecoder(ByteBuffer.wrap(actions)), map,
+                        sink, PROCESSORS);
+            } catch (ActionFormatException | RuntimeException failure) {
+                thrown.set(failure);
+            }
+        }, "pipeline");
+        thread.start();
+        thread.join(TIME_LIMIT);
+        check(!thread.isAlive(), "the pipeline did not finish (hung?)");
+        return thrown.get();
+    }
+
+    /**
+     * Create an action file of random actions, including invalid actions,
+     * MOVE_TO actions, and lines with Windows line terminators.
+     * @param random the source of the actions
+     * @param lines the number of lines
+     * @param badLine the index of a line that cannot be decoded, or -1
+     * @return the contents of the file
+     */
+    private static byte[] actionFile(Random random, int lines, int badLine) {
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String line;
+            switch (i == badLine ? -1 : random.nextInt(8)) {
+                case -1:
+                    line = "JUMP north";
+                    break;
+                case 0:
+                    line = "DIG";
+                    break;
+                case 1:
+                    line = "DROP " + random.nextInt(4);
+                    break;
+                case 2:
+                    line = "MOVE_BLOCK " + DIRECTIONS[random.nextInt(4)];
+                    break;
+                case 3:
+                    line = "MOVE_TO " + random.nextInt(SIZE) + " "
+                            + random.nextInt(SIZE);
+                    break;
+                case 4:
+                    line = random.nextBoolean() ? "MOVE_BUILDER up"
+                            : "DROP one";
+                    break;
+                default:
+                    line = "MOVE_BUILDER " + DIRECTIONS[random.nextInt(4)];
+                    break;
+            }
+            file.append(line).append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        return file.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Build a map of a grid of linked tiles of random heights, with a
+     * builder at (0, 0).
+     * @param random the source of the heights
+     * @return the map
+     * @throws Exception if the map cannot be built
+     */
+    private static WorldMap buildMap(Random random) throws Exception {
+        Tile[][] grid = new Tile[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int height = 1 + random.nextInt(5);
+                List<Block> blocks = soil(Math.min(height, 3));
+                for (int level = 3; level < height; level++) {
+                    blocks.add(new WoodBlock());
+                }
+                grid[x][y] = new Tile(blocks);
+            }
+        }
+
+        // north is towards smaller y, as in map files
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (y > 0) {
+                    grid[x][y].addExit("north", grid[x][y - 1]);
+                    grid[x][y - 1].addExit("south", grid[x][y]);
+                }
+                if (x > 0) {
+                    grid[x][y].addExit("west", grid[x - 1][y]);
+                    grid[x - 1][y].addExit("east", grid[x][y]);
+                }
+            }
+        }
+        return new WorldMap(grid[0][0], new Position(0, 0),
+                new Builder("builder", grid[0][0], soil(5)));
+    }
+
+    /**
+     * Create a list of soil blocks.
+     * @param count the number of blocks
+     * @return the blocks
+     */
+    private static List<Block> soil(int count) {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            blocks.add(new SoilBlock());
+        }
+        return blocks;
+    }
+
+    /**
+     * Save a map, and read back the file.
+     * @param map the map to save
+     * @return the contents of the saved file
+     * @throws IOException if the map cannot be saved
+     */
+    private static byte[] save(WorldMap map) throws IOException {
+        File file = File.createTempFile("ActionPipelineTest", ".txt");
+        try {
+            map.saveMap(file.getPath());
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Fail the test if a condition does not hold.
+     * @param condition the condition
+     * @param message the reason for the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * A sink that records the results it is given, and throws when it is
+     * given one more than a limit.
+     */
+    private static final class FailingSink implements ActionResultSink {
+
+        // the number of results accepted before throwing
+        private final int limit;
+
+        // the results given to the sink, and the exception it threw
+        private final List<Object> results = new ArrayList<>();
+        private volatile RuntimeException failure;
+
+        /**
+         * Construct a sink that throws after a number of results.
+         * @param limit the number of results to accept
+         */
+        FailingSink(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void succeeded(String message) {
+            add(message);
+        }
+
+        @Override
+        public void failed(Outcome outcome) {
+            add(outcome);
+        }
+
+        @Override
+        public void invalidAction() {
+            add("invalid");
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * Record a result, or throw if the limit has been reached.
+         * @param result the result
+         */
+        private void add(Object result) {
+            if (results.size() == limit) {
+                failure = new IllegalStateException("sink failed after "
+                        + limit + " results");
+                throw failure;
+            }
+            results.add(result);
+        }
+    }
+}
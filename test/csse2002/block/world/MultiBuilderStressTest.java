@@ -0,0 +1,240 @@
+package csse2002.block.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stress test of actions performed by several builders of one
+ * {@link WorldMap WorldMap} at once, with
+ * Action.processAction(Action, WorldMap, Builder, ActionResultSink). <br>
+ * Each round builds a grid of tiles of random heights, adds builders at
+ * random tiles, and runs one thread per builder performing random actions
+ * (including MOVE_TO, whose route search races with the other builders).
+ * It then checks that:
+ * <ul>
+ *     <li> every thread finished within the time limit (no deadlock),
+ *          without throwing; </li>
+ *     <li> no carryable block was created or lost (each is on a tile or
+ *          in an inventory); </li>
+ *     <li> the walkable mask of every tile matches its exits and the
+ *          heights of their tiles; </li>
+ *     <li> every builder is on a tile of the map, and every action gave a
+ *          result. </li>
+ * </ul>
+ * There is no test framework in this project, so the test is a program:
+ * it prints "ok" and exits normally if every check passes, and otherwise
+ * throws an AssertionError (exiting with a non-zero status). Run it with,
+ * for example: <br>
+ * {@literal javac -d out csse2002/block/world/*.java
+ * test/csse2002/block/world/*.java &&
+ * java -cp out csse2002.block.world.MultiBuilderStressTest}
+ * @serial exclude
+ */
+public class MultiBuilderStressTest {
+
+    // the width and height of the grid of tiles, small enough that the
+    // builders keep acting on the same tiles
+    private static final int SIZE = 10;
+
+    // the number of builders, the actions each performs in a round, and
+    // the number of rounds
+    private static final int BUILDERS = 8;
+    private static final int ACTIONS = 20_000;
+    private static final int ROUNDS = 40;
+
+    // how long the builders of a round may take before they are taken to
+    // be deadlocked, in milliseconds
+    private static final long TIME_LIMIT = 60_000;
+
+    private static final String[] DIRECTIONS =
+            {"north", "east", "south", "west"};
+
+    /**
+     * Run the test.
+     * @param args not used
+     * @throws Exception if the test cannot be set up
+     */
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            runRound(new Random(round));
+        }
+        System.out.println("MultiBuilderStressTest ok");
+    }
+
+    /**
+     * Run the builders of one round, and check the map afterwards.
+     * @param random the source of the map and the actions
+     * @throws Exception if the map cannot be built
+     */
+    private static void runRound(Random random) throws Exception {
+        Tile[][] grid = buildGrid(random);
+        WorldMap map = new WorldMap(grid[0][0], new Position(0, 0),
+                new Builder("b0", grid[0][0], soil(5)));
+        for (int i = 1; i < BUILDERS; i++) {
+            map.addBuilder(new Builder("b" + i,
+                    grid[random.nextInt(SIZE)][random.nextInt(SIZE)],
+                    soil(5)));
+        }
+        long blocks = countCarryable(map);
+
+        SummaryResultSink results = new SummaryResultSink();
+        List<Throwable> failures =
+                Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (Builder builder : map.getBuilders()) {
+            long seed = random.nextLong();
+            Thread thread = new Thread(() -> act(map, builder,
+                    new Random(seed), results), builder.getName());
+            thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+            threads.add(thread);
+            thread.start();
+        }
+
+        long deadline = System.currentTimeMillis() + TIME_LIMIT;
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            check(!thread.isAlive(), "builder " + thread.getName()
+                    + " did not finish (deadlock?)");
+        }
+        check(failures.isEmpty(), "a builder threw " + failures);
+
+        check(countCarryable(map) == blocks, "carryable blocks changed from "
+                + blocks + " to " + countCarryable(map));
+        for (Tile tile : map.getTiles()) {
+            int expected = 0;
+            for (Direction direction : Direction.values()) {
+                Tile exit = tile.getExit(direction);
+                if (exit != null
+                        && Math.abs(exit.getHeight() - tile.getHeight()) <= 1) {
+                    expected |= direction.getBit();
+                }
+            }
+            check(tile.getWalkableMask() == expected,
+                    "walkable mask out of date at " + map.getPosition(tile));
+        }
+        for (Builder builder : map.getBuilders()) {
+            check(map.getPosition(builder.getCurrentTile()) != null,
+                    "builder " + builder.getName() + " left the map");
+        }
+        check(results.getTotal() >= (long) BUILDERS * ACTIONS
+                && results.getInvalidCount() == 0,
+                "missing results: " + results.getTotal());
+    }
+
+    /**
+     * Perform random actions for one builder.
+     * @param map the map to act on
+     * @param builder the builder
+     * @param random the source of the actions
+     * @param results the sink for the results
+     */
+    private static void act(WorldMap map, Builder builder, Random random,
+                            ActionResultSink results) {
+        for (int i = 0; i < ACTIONS; i++) {
+            Action action;
+            switch (random.nextInt(6)) {
+                case 0:
+                    action = new Action(Action.DIG, "");
+                    break;
+                case 1:
+                    action = new Action(Action.DROP, "0");
+                    break;
+                case 2:
+                    action = new Action(Action.MOVE_BLOCK,
+                            DIRECTIONS[random.nextInt(4)]);
+                    break;
+                case 3:
+                    action = new Action(Action.MOVE_TO, random.nextInt(SIZE)
+                            + " " + random.nextInt(SIZE));
+                    break;
+                default:
+                    action = new Action(Action.MOVE_BUILDER,
+                            DIRECTIONS[random.nextInt(4)]);
+                    break;
+            }
+            Action.processAction(action, map, builder, results);
+        }
+    }
+
+    /**
+     * Build a grid of linked tiles of random heights, indexed by [x][y].
+     * @param random the source of the heights
+     * @return the tiles
+     * @throws Exception if a tile cannot be built
+     */
+    private static Tile[][] buildGrid(Random random) throws Exception {
+        Tile[][] grid = new Tile[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int height = 1 + random.nextInt(5);
+                List<Block> blocks = soil(Math.min(height, 3));
+                for (int level = 3; level < height; level++) {
+                    blocks.add(new WoodBlock());
+                }
+                grid[x][y] = new Tile(blocks);
+            }
+        }
+
+        // north is towards smaller y, as in map files
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (y > 0) {
+                    grid[x][y].addExit("north", grid[x][y - 1]);
+                    grid[x][y - 1].addExit("south", grid[x][y]);
+                }
+                if (x > 0) {
+                    grid[x][y].addExit("west", grid[x - 1][y]);
+                    grid[x - 1][y].addExit("east", grid[x][y]);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Create a list of soil blocks.
+     * @param count the number of blocks
+     * @return the blocks
+     */
+    private static List<Block> soil(int count) {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            blocks.add(new SoilBlock());
+        }
+        return blocks;
+    }
+
+    /**
+     * Count the carryable blocks on the tiles of a map and in the
+     * inventories of its builders.
+     * @param map the map
+     * @return the number of carryable blocks
+     */
+    private static long countCarryable(WorldMap map) {
+        long count = 0;
+        for (Tile tile : map.getTiles()) {
+            for (Block block : tile.getBlocks()) {
+                if (block.isCarryable()) {
+                    count++;
+                }
+            }
+        }
+        for (Builder builder : map.getBuilders()) {
+            count += builder.getInventory().size();
+        }
+        return count;
+    }
+
+    /**
+     * Fail the test if a condition does not hold.
+     * @param condition the condition
+     * @param message the reason for the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}